@@ -13,6 +13,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -97,6 +98,21 @@ public class ByteArray {
         return dataCopy_;
     }
 
+    /**
+     * Returns the contents of this object as a sequence of ByteBuffers,
+     * without copying or concatenating them. The buffers share this object's
+     * storage, so they must not be written to.
+     * @return buffers which together hold the contents of this object, each
+     * positioned at its start; never null, but may contain zero elements.
+     */
+    public synchronized ByteBuffer[] toByteBuffers() {
+        final ByteBuffer[] buffers = new ByteBuffer[data_.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(data_.get(i));
+        }
+        return buffers;
+    }
+
     /**
      * Returns the number of bytes in this ByteArray
      * @return number of bytes
@@ -170,6 +186,22 @@ public class ByteArray {
         return appendInternal(Arrays.copyOf(b, len));
     }
 
+    /**
+     * Updates the ByteArray by adding the remaining bytes of a ByteBuffer
+     * to the end of the array (mutable add). The bytes are copied once, and
+     * the buffer's position is advanced to its limit.
+     *
+     * @param b a buffer, which must not be null, but may have no bytes
+     * remaining.
+     *
+     * @return a reference to the updated object
+     */
+    public ByteArray append(ByteBuffer b) {
+        final byte[] bytes = new byte[b.remaining()];
+        b.get(bytes);
+        return appendInternal(bytes);
+    }
+
     /* Does not copy data - all calls must provide a copy as necessary */
     private synchronized ByteArray appendInternal(byte[] b) {
         dataCopy_ = null; /* Invalidate cache */
@@ -6,6 +6,7 @@ package com.isode.stroke.base;
 
 import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.base.ByteArray;
+import java.nio.ByteBuffer;
 
 /**
 * It's currently not actually secure,
@@ -94,6 +95,17 @@ public class SafeByteArray extends ByteArray {
 		return this;
 	}
 
+	/**
+	 * Updates the SafeByteArray by adding the remaining bytes
+	 * of a ByteBuffer to the end of the array (mutable add).
+	 * @param b a buffer. Must not be null, but may have no bytes remaining.
+	 * @return a reference to the updated object
+	 */
+	public SafeByteArray append(ByteBuffer b) {
+		super.append(b);
+		return this;
+	}
+
 	/** 
 	 * Updates the SafeByteArray by adding a single byte
 	 * value to the end of the array (mutable add).
@@ -13,6 +13,7 @@ import com.isode.stroke.tls.TLSOptions;
 import com.isode.stroke.base.URL;
 import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.network.HTTPTrafficFilter;
+import com.isode.stroke.parser.XMPPParserLimits;
 
 /**
  * Options for a client connection
@@ -127,6 +128,19 @@ public class ClientOptions {
      */
     public TLSOptions tlsOptions = new TLSOptions();
 
+    /**
+     * Limits applied to the elements received from the server.
+     * Default: no limits
+     */
+    public XMPPParserLimits parserLimits = new XMPPParserLimits();
+
+    /**
+     * Send everything written during a turn of the event loop in one go at
+     * the end of the turn, rather than sending each stanza as it's written.
+     * Default: true
+     */
+    public boolean corkWrites = true;
+
     public enum UseTLS {
         NeverUseTLS,
         UseTLSWhenAvailable,
@@ -77,6 +77,12 @@ public class CoreClient {
      */
     public final Signal1<SafeByteArray> onDataWritten = new Signal1<SafeByteArray>();
 
+    /**
+     * Called when the connection's write queue, having been full (see
+     * {@link #isWriteQueueFull()}), has drained enough for sending to resume.
+     */
+    public final Signal onWritable = new Signal();
+
     /**
      * Called when a message stanza is received.
      */
@@ -360,6 +366,10 @@ public class CoreClient {
             sessionStream_ = 
                     new BasicSessionStream(StreamType.ClientStreamType, connection_, payloadParserFactories_, payloadSerializers_, 
                             networkFactories.getTLSContextFactory(), networkFactories.getTimerFactory(), options.tlsOptions);
+            sessionStream_.setParserLimits(options.parserLimits);
+            if (options.corkWrites) {
+                sessionStream_.setWriteCorking(networkFactories.getEventLoop());
+            }
             if (certificate_ != null) {
                 sessionStream_.setTLSCertificate(certificate_);
             }
@@ -377,6 +387,8 @@ public class CoreClient {
                 }
             });
 
+            sessionStream_.onWritable.connect(onWritable);
+
             bindSessionToStream();
         }
     }
@@ -627,6 +639,16 @@ public class CoreClient {
         return stanzaChannel_.isAvailable();
     }
     
+    /**
+     * Checks whether data sent to the server is backing up in the
+     * connection. Applications sending large numbers of stanzas should stop
+     * when this returns true and resume on {@link #onWritable}.
+     * @return true if the connection's write queue is full
+     */
+    public boolean isWriteQueueFull() {
+        return sessionStream_ != null && sessionStream_.isWriteQueueFull();
+    }
+
     /**
      * Determine whether the underlying session is encrypted with TLS
      * @return true if the session is initialized and encrypted with TLS,
@@ -667,6 +689,7 @@ public class CoreClient {
 
         sessionStream_.onDataRead.disconnectAll();
         sessionStream_.onDataWritten.disconnectAll();
+        sessionStream_.onWritable.disconnectAll();
 
         if (connection_ != null) {
             connection_.disconnect();
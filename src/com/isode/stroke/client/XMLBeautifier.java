@@ -75,13 +75,11 @@ public class XMLBeautifier implements XMLParserClient {
 			buffer.append("=");
 			buffer.append("\"").append((doColoring ? styleNamespace(ns) : ns)).append("\"");
 		}
-		if (!attributes.getEntries().isEmpty()) {
-			for(AttributeMap.Entry entry : attributes.getEntries()) {
-				buffer.append(" ");
-				buffer.append((doColoring ? styleAttribute(entry.getAttribute().getName()) : entry.getAttribute().getName()));
-				buffer.append("=");
-				buffer.append("\"").append((doColoring ? styleValue(entry.getValue()) : entry.getValue())).append("\"");
-			}
+		for (int i = 0; i < attributes.getSize(); i++) {
+			buffer.append(" ");
+			buffer.append((doColoring ? styleAttribute(attributes.getName(i)) : attributes.getName(i)));
+			buffer.append("=");
+			buffer.append("\"").append((doColoring ? styleValue(attributes.getValue(i)) : attributes.getValue(i))).append("\"");
 		}
 		buffer.append(">");
 		++intLevel;
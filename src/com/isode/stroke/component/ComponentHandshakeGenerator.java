@@ -15,16 +15,12 @@ import com.isode.stroke.crypto.CryptoProvider;
 import com.isode.stroke.crypto.JavaCryptoProvider;
 import com.isode.stroke.stringcodecs.Hexify;
 import com.isode.stroke.base.ByteArray;
+import com.isode.stroke.serializer.xml.XMLEscaper;
 
 public class ComponentHandshakeGenerator {
 
 	public static String getHandshake(String streamID, String secret, CryptoProvider crypto) {
-		String concatenatedString = streamID + secret;
-		concatenatedString = concatenatedString.replaceAll("&", "&amp;");
-		concatenatedString = concatenatedString.replaceAll("<", "&lt;");
-		concatenatedString = concatenatedString.replaceAll(">", "&gt;");
-		concatenatedString = concatenatedString.replaceAll("\'", "&apos;");
-		concatenatedString = concatenatedString.replaceAll("\"", "&quot;");
+		String concatenatedString = XMLEscaper.escapeAttribute(streamID + secret);
 		return Hexify.hexify(crypto.getSHA1Hash(new ByteArray(concatenatedString)));
 	}
 }
\ No newline at end of file
@@ -4,41 +4,208 @@
  * See Documentation/Licenses/GPLv3.txt for more information.
  */
 /*
- * Copyright (c) 2011, Isode Limited, London, England.
+ * Copyright (c) 2011-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 package com.isode.stroke.compress;
 
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
 import com.isode.stroke.base.SafeByteArray;
-import com.jcraft.jzlib.JZlib;
-import com.jcraft.jzlib.ZStream;
 
+/**
+ * Compresses or decompresses a stream of data, flushing the output after
+ * each call to {@link #process}, so that each call's output can be sent or
+ * parsed straight away.
+ * <p>
+ * Output is written into a buffer which is kept for the next call. The
+ * buffer is sized from the size of the input and the ratio of output to
+ * input seen so far, so that it seldom has to grow part way through, and
+ * each call's output is returned as a single array.
+ * <p>
+ * Not thread-safe.
+ */
 public abstract class ZLibCodecompressor {
-    protected static final int CHUNK_SIZE = 1024;
-    protected final ZStream stream_ = new ZStream();
 
+    /**
+     * The zlib implementations which can be used.
+     */
+    public enum Backend {
+        /** JZlib, a pure Java implementation */
+        JZlib,
+        /**
+         * java.util.zip, which uses the JVM's native zlib. Compression needs
+         * Deflater.SYNC_FLUSH, which is only in Java 7 and later, so check
+         * {@link #isAvailable()} before using this on older JVMs.
+         */
+        JavaUtilZip;
+
+        private static final boolean syncFlushAvailable = hasSyncFlush();
+
+        /**
+         * @return whether this implementation can be used on the running JVM
+         */
+        public boolean isAvailable() {
+            return this != JavaUtilZip || syncFlushAvailable;
+        }
+
+        private static boolean hasSyncFlush() {
+            try {
+                Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+                return true;
+            }
+            catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    }
+
+    /* The smallest output buffer which is allocated */
+    private static final int MIN_BUFFER_SIZE = 256;
+
+    /* Output buffers larger than this aren't kept between calls */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[][] NO_INPUT = { new byte[0] };
+
+    /**
+     * @param initialRatio the expected ratio of output size to input size,
+     * used until some data has been processed
+     */
+    protected ZLibCodecompressor(double initialRatio) {
+        ratio_ = initialRatio;
+    }
+
+    /**
+     * @throws IllegalStateException if {@link #end} has been called
+     */
     public SafeByteArray process(SafeByteArray input) throws ZLibException {
+        if (ended_) {
+            throw new IllegalStateException("process() called after end()");
+        }
+        final byte[][] chunks = getChunks(input);
+        outputLength_ = 0;
+        ensureCapacity(estimateOutputSize(input.getSize()));
+        for (int i = 0; i < chunks.length; i++) {
+            final boolean flush = (i == chunks.length - 1);
+            setInput(chunks[i]);
+            do {
+                if (outputLength_ == output_.length) {
+                    ensureCapacity(output_.length * 2);
+                }
+                outputLength_ += processInput(output_, outputLength_, output_.length - outputLength_, flush);
+            }
+            while (outputLength_ == output_.length);
+            if (!isInputConsumed()) {
+                throw new ZLibException();
+            }
+        }
+
         SafeByteArray output = new SafeByteArray();
-	stream_.avail_in = input.getSize();
-	stream_.next_in = input.getData();
-        stream_.next_in_index = 0;
-        do {
-            byte[] outputArray = new byte[CHUNK_SIZE];
-            stream_.avail_out = CHUNK_SIZE;
-            stream_.next_out = outputArray;
-            stream_.next_out_index = 0;
-            int result = processZStream();
-            if (result != JZlib.Z_OK && result != JZlib.Z_BUF_ERROR) {
-                throw new ZLibException(/* stream_.msg */);
+        if (outputLength_ > 0) {
+            output.append(output_, outputLength_);
+        }
+        updateRatio(input.getSize(), outputLength_);
+        if (output_.length > MAX_RETAINED_BUFFER_SIZE) {
+            output_ = null;
+        }
+        return output;
+    }
+
+    /**
+     * Free the memory used by the implementation, which for
+     * {@link Backend#JavaUtilZip} is native memory that would otherwise only
+     * be freed when this is garbage collected. Nothing can be processed
+     * afterwards. Calling this more than once does nothing.
+     */
+    public void end() {
+        if (ended_) {
+            return;
+        }
+        ended_ = true;
+        output_ = null;
+        endImplementation();
+    }
+
+    /**
+     * Free the implementation's resources. Called at most once.
+     */
+    protected abstract void endImplementation();
+
+    /**
+     * Pass the next chunk of input to the implementation.
+     * @param input input, not null, which may be empty
+     */
+    protected abstract void setInput(byte[] input);
+
+    /**
+     * Process as much of the current input as fits in the output.
+     * @param output buffer to write to, not null
+     * @param offset where in <em>output</em> to start writing
+     * @param length how many bytes may be written
+     * @param flush whether this is the last chunk of input for this call
+     * to {@link #process}, so the output must be flushed
+     * @return the number of bytes written. If this is <em>length</em>, there
+     * may be more output, and this will be called again.
+     * @throws ZLibException if the implementation fails, or the input is
+     * not valid
+     */
+    protected abstract int processInput(byte[] output, int offset, int length, boolean flush) throws ZLibException;
+
+    /**
+     * @return whether all of the current input has been used
+     */
+    protected abstract boolean isInputConsumed();
+
+    /**
+     * @return the chunks of the input, without concatenating them, or a
+     * single empty chunk if there is no input
+     */
+    private static byte[][] getChunks(SafeByteArray input) {
+        final ByteBuffer[] buffers = input.toByteBuffers();
+        if (buffers.length == 0) {
+            return NO_INPUT;
+        }
+        final byte[][] chunks = new byte[buffers.length][];
+        for (int i = 0; i < buffers.length; i++) {
+            chunks[i] = buffers[i].array();
+        }
+        return chunks;
+    }
+
+    private int estimateOutputSize(int inputSize) {
+        // Allow for a little more than the usual ratio, and for the flush
+        final double estimate = inputSize * ratio_ * 1.25 + 16;
+        return (int) Math.min(Math.max(estimate, MIN_BUFFER_SIZE), Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Keep a moving average of the ratio of output to input, so that one
+     * unusual call doesn't skew the estimate for the next.
+     */
+    private void updateRatio(int inputSize, int outputSize) {
+        if (inputSize > 0) {
+            ratio_ = (ratio_ * 3 + (double) outputSize / inputSize) / 4;
+        }
+    }
+
+    /**
+     * Make sure the output buffer holds at least <em>size</em> bytes,
+     * keeping any output written so far.
+     */
+    private void ensureCapacity(int size) {
+        if (output_ == null || output_.length < size) {
+            final byte[] output = new byte[size];
+            if (outputLength_ > 0) {
+                System.arraycopy(output_, 0, output, 0, outputLength_);
             }
-            output.append(outputArray, CHUNK_SIZE - stream_.avail_out);
-	}
-	while (stream_.avail_out == 0);
-	if (stream_.avail_in != 0) {
-		throw new ZLibException();
-	}
-	return output;
+            output_ = output;
+        }
     }
 
-    protected abstract int processZStream();
+    private byte[] output_;
+    private int outputLength_ = 0;
+    private double ratio_;
+    private boolean ended_ = false;
 }
@@ -4,24 +4,96 @@
  * See Documentation/Licenses/GPLv3.txt for more information.
  */
 /*
- * Copyright (c) 2011, Isode Limited, London, England.
+ * Copyright (c) 2011-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 package com.isode.stroke.compress;
 
+import java.util.zip.Deflater;
+
 import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
 
 public class ZLibCompressor extends ZLibCodecompressor {
 
     private static final int COMPRESSION_LEVEL = 9;
-    
 
+    /* XMPP traffic usually compresses to well under half its size */
+    private static final double INITIAL_RATIO = 0.5;
+
+    /**
+     * Create a compressor using JZlib.
+     */
     public ZLibCompressor() {
-        int result = stream_.deflateInit(COMPRESSION_LEVEL);
-        assert (result == JZlib.Z_OK);
+        this(Backend.JZlib);
+    }
+
+    /**
+     * Create a compressor.
+     * @param backend the zlib implementation to use, not null. The native
+     * memory used by {@link Backend#JavaUtilZip} is freed by {@link #end}.
+     * @throws IllegalArgumentException if the backend isn't available on
+     * this JVM
+     */
+    public ZLibCompressor(Backend backend) {
+        super(INITIAL_RATIO);
+        if (!backend.isAvailable()) {
+            throw new IllegalArgumentException(backend + " is not available on this JVM");
+        }
+        if (backend == Backend.JavaUtilZip) {
+            stream_ = null;
+            deflater_ = new Deflater(COMPRESSION_LEVEL);
+        }
+        else {
+            stream_ = new ZStream();
+            deflater_ = null;
+            int result = stream_.deflateInit(COMPRESSION_LEVEL);
+            assert (result == JZlib.Z_OK);
+        }
+    }
+
+    protected void setInput(byte[] input) {
+        if (deflater_ != null) {
+            deflater_.setInput(input);
+        }
+        else {
+            stream_.next_in = input;
+            stream_.next_in_index = 0;
+            stream_.avail_in = input.length;
+        }
     }
 
-    protected int processZStream() {
-        return stream_.deflate(JZlib.Z_SYNC_FLUSH);
+    protected int processInput(byte[] output, int offset, int length, boolean flush) throws ZLibException {
+        if (deflater_ != null) {
+            return deflater_.deflate(output, offset, length,
+                    flush ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH);
+        }
+        stream_.next_out = output;
+        stream_.next_out_index = offset;
+        stream_.avail_out = length;
+        int result = stream_.deflate(flush ? JZlib.Z_SYNC_FLUSH : JZlib.Z_NO_FLUSH);
+        if (result != JZlib.Z_OK && result != JZlib.Z_BUF_ERROR) {
+            throw new ZLibException(/* stream_.msg */);
+        }
+        return length - stream_.avail_out;
     }
+
+    protected boolean isInputConsumed() {
+        if (deflater_ != null) {
+            return deflater_.needsInput();
+        }
+        return stream_.avail_in == 0;
+    }
+
+    protected void endImplementation() {
+        if (deflater_ != null) {
+            deflater_.end();
+        }
+        else {
+            stream_.deflateEnd();
+        }
+    }
+
+    private final ZStream stream_;
+    private final Deflater deflater_;
 }
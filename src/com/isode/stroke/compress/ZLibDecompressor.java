@@ -4,21 +4,94 @@
  * See Documentation/Licenses/GPLv3.txt for more information.
  */
 /*
- * Copyright (c) 2011, Isode Limited, London, England.
+ * Copyright (c) 2011-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 package com.isode.stroke.compress;
 
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
 import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
 
 public class ZLibDecompressor extends ZLibCodecompressor {
 
+    /* Compressed XMPP traffic usually expands to several times its size */
+    private static final double INITIAL_RATIO = 4;
+
+    /**
+     * Create a decompressor using JZlib.
+     */
     public ZLibDecompressor() {
-        int result = stream_.inflateInit();
-        assert (result == JZlib.Z_OK);
+        this(Backend.JZlib);
+    }
+
+    /**
+     * Create a decompressor.
+     * @param backend the zlib implementation to use, not null. The native
+     * memory used by {@link Backend#JavaUtilZip} is freed by {@link #end}.
+     */
+    public ZLibDecompressor(Backend backend) {
+        super(INITIAL_RATIO);
+        if (backend == Backend.JavaUtilZip) {
+            stream_ = null;
+            inflater_ = new Inflater();
+        }
+        else {
+            stream_ = new ZStream();
+            inflater_ = null;
+            int result = stream_.inflateInit();
+            assert (result == JZlib.Z_OK);
+        }
+    }
+
+    protected void setInput(byte[] input) {
+        if (inflater_ != null) {
+            inflater_.setInput(input);
+        }
+        else {
+            stream_.next_in = input;
+            stream_.next_in_index = 0;
+            stream_.avail_in = input.length;
+        }
     }
 
-    protected int processZStream() {
-        return stream_.inflate(JZlib.Z_SYNC_FLUSH);
+    protected int processInput(byte[] output, int offset, int length, boolean flush) throws ZLibException {
+        if (inflater_ != null) {
+            try {
+                return inflater_.inflate(output, offset, length);
+            }
+            catch (DataFormatException e) {
+                throw new ZLibException();
+            }
+        }
+        stream_.next_out = output;
+        stream_.next_out_index = offset;
+        stream_.avail_out = length;
+        int result = stream_.inflate(JZlib.Z_SYNC_FLUSH);
+        if (result != JZlib.Z_OK && result != JZlib.Z_BUF_ERROR) {
+            throw new ZLibException(/* stream_.msg */);
+        }
+        return length - stream_.avail_out;
     }
+
+    protected boolean isInputConsumed() {
+        if (inflater_ != null) {
+            return inflater_.getRemaining() == 0;
+        }
+        return stream_.avail_in == 0;
+    }
+
+    protected void endImplementation() {
+        if (inflater_ != null) {
+            inflater_.end();
+        }
+        else {
+            stream_.inflateEnd();
+        }
+    }
+
+    private final ZStream stream_;
+    private final Inflater inflater_;
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+
+package com.isode.stroke.elements;
+
+/**
+ * A payload which has been received but not yet parsed, and so is held as
+ * raw XML.
+ * <p>
+ * {@link Stanza} parses these when a payload of a type they may contain is
+ * asked for, and replaces them with the result. Until then they are
+ * serialized from their raw XML, so a stanza can be forwarded without its
+ * payloads ever being parsed.
+ */
+public abstract class LazyPayload extends RawXMLPayload {
+
+    /**
+     * @param rawXML the payload's XML, not null
+     */
+    protected LazyPayload(String rawXML) {
+        super(rawXML);
+    }
+
+    /**
+     * @return the class of the payload which {@link #parse()} would return,
+     * or null if it can't be known without parsing
+     */
+    public abstract Class<? extends Payload> getPayloadClass();
+
+    /**
+     * Parse the raw XML. Only the first call does the parsing; later calls
+     * return the same result.
+     * @return the parsed payload, or null if it could not be parsed
+     */
+    public abstract Payload parse();
+}
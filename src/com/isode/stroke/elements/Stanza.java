@@ -61,6 +61,7 @@ public abstract class Stanza implements Element {
      * not be {@code null}
      */
     public <T extends Payload> void removePayload(T type) {
+        parseLazyPayloads(type.getClass());
         Iterator<Payload> payloadIterator = payloads_.iterator();
         while (payloadIterator.hasNext()) {
             Payload payload = payloadIterator.next();
@@ -70,6 +71,30 @@ public abstract class Stanza implements Element {
         }
     }
 
+    /**
+     * Parse any {@link LazyPayload}s which might contain a payload of the
+     * given type, and replace them with the parsed payloads.
+     * @param type class of payload which is wanted, not null
+     */
+    private void parseLazyPayloads(Class<?> type) {
+        if (LazyPayload.class.isAssignableFrom(type)) {
+            return;
+        }
+        for (int i = 0; i < payloads_.size(); i++) {
+            if (!(payloads_.get(i) instanceof LazyPayload)) {
+                continue;
+            }
+            final LazyPayload lazyPayload = (LazyPayload) payloads_.get(i);
+            final Class<? extends Payload> payloadClass = lazyPayload.getPayloadClass();
+            if (payloadClass == null || payloadClass.isAssignableFrom(type)) {
+                final Payload payload = lazyPayload.parse();
+                if (payload != null) {
+                    payloads_.set(i, payload);
+                }
+            }
+        }
+    }
+
     /**
      * Get the payload of the given type from the stanza
      * @param <T> payload type
@@ -78,6 +103,7 @@ public abstract class Stanza implements Element {
      */
     @SuppressWarnings("unchecked")
 	public <T extends Payload> T getPayload(T type) {
+        parseLazyPayloads(type.getClass());
         for (Payload payload : payloads_) {
             if (isPayloadOfType(type, payload)) {
                 return (T)payload;
@@ -94,6 +120,7 @@ public abstract class Stanza implements Element {
      */
     @SuppressWarnings("unchecked")
 	public <T extends Payload> Vector<T> getPayloads(T type) {
+        parseLazyPayloads(type.getClass());
         Vector<T> results = new Vector<T>();
         for (Payload payload : payloads_) {
             if (payload.getClass().isAssignableFrom(type.getClass())) {
@@ -104,7 +131,8 @@ public abstract class Stanza implements Element {
     }
 
     /**
-     * Get the list of payloads from this stanza
+     * Get the list of payloads from this stanza. Payloads which have not
+     * been parsed yet are included as {@link LazyPayload}s.
      * @return list of payloads, not null but can be empty
      */
     public Vector<Payload> getPayloads() {
@@ -125,6 +153,7 @@ public abstract class Stanza implements Element {
      * @param payload payload to be updated, not null
      */
     public void updatePayload(Payload payload) {
+        parseLazyPayloads(payload.getClass());
         for (int i = 0; i < payloads_.size(); i++) {
             if (payloads_.get(i).getClass() == payload.getClass()) {
                 payloads_.set(i, payload);
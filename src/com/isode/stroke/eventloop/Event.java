@@ -9,6 +9,8 @@
  */
 package com.isode.stroke.eventloop;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * An Event object represents an external event that requires processing. 
  * A concrete {@link EventLoop} implementation must ensure that Events are 
@@ -54,6 +56,31 @@ public class Event {
         this.id = id;
     }
 
+    /**
+     * Mark the event as being handled. Each event can be claimed at most
+     * once, and not at all once cancelled.
+     * @return true if the caller should run the callback
+     */
+    boolean claim() {
+        return STATE_UPDATER.compareAndSet(this, PENDING, HANDLED);
+    }
+
+    /**
+     * Mark the event as cancelled, so that its callback will never run.
+     * @return true if the event was cancelled, false if it had already been
+     * handled or cancelled
+     */
+    boolean cancel() {
+        return STATE_UPDATER.compareAndSet(this, PENDING, CANCELLED);
+    }
+
+    /**
+     * @return true if the event has been cancelled
+     */
+    boolean isCancelled() {
+        return state_ == CANCELLED;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other instanceof Event) {
@@ -71,6 +98,13 @@ public class Event {
     final int id;
     final EventOwner owner;
     public final Callback callback;
+
+    private static final int PENDING = 0;
+    private static final int HANDLED = 1;
+    private static final int CANCELLED = 2;
+    private static final AtomicIntegerFieldUpdater<Event> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Event.class, "state_");
+    private volatile int state_ = PENDING;
     
     @Override
     public String toString() {
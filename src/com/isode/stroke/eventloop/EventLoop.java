@@ -9,8 +9,12 @@
  */
 package com.isode.stroke.eventloop;
 
-import java.util.ArrayList;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An event loop is a seemingly infinite loop (runs for the duration of the use
@@ -46,31 +50,61 @@ public abstract class EventLoop {
      *              {@link EventLoop#removeEventsFromOwner} later.
      */
     public void postEvent(Event.Callback callback, EventOwner owner) {
-        Event event;
-        synchronized (eventsMutex_) {
-            event = new Event(owner, callback, nextEventID_);
-            nextEventID_++;
-            events_.add(event);
+        final Event event = new Event(owner, callback, nextEventID_.getAndIncrement());
+        if (owner != null) {
+            // Only events with an owner can be removed, so only they need tracking
+            synchronized (ownedEvents_) {
+                Set<Event> events = ownedEvents_.get(owner);
+                if (events == null) {
+                    events = new HashSet<Event>();
+                    ownedEvents_.put(owner, events);
+                }
+                events.add(event);
+            }
         }
         post(event);
     }
 
+    /**
+     * Have a callback called at the end of the current turn of the event
+     * loop, that is once the event which is being handled, and any events
+     * handled within it, have finished.
+     * <p>
+     * When not called from within an event on the event loop's thread,
+     * there is no current turn, and this is the same as
+     * {@link #postEvent(Event.Callback)}.
+     *
+     * @param callback Callback to run, must not be null
+     */
+    public void postEventAtEndOfTurn(Event.Callback callback) {
+        if (Thread.currentThread() == handlingThread_) {
+            endOfTurnCallbacks_.add(callback);
+        }
+        else {
+            postEvent(callback);
+        }
+    }
+
     /**
      * Remove all events from the given owner.
      * \p
      * This does a reference check (==), not calling owner.equals().
+     * The events are cancelled, so their callbacks will not be called
+     * even though they may still be queued by the concrete event loop.
+     * Pending events are indexed by owner, so this takes time proportional
+     * to the number of the owner's events, not to the total.
      * 
      * @param owner Owner of the event, must not be null
      */
     public void removeEventsFromOwner(EventOwner owner) {
-        synchronized (eventsMutex_) {
-            ArrayList<Event> matches = new ArrayList<Event>();
-            for (Event event : events_) {
-                if (event.owner == owner) {
-                    matches.add(event);
-                }
+        final Set<Event> events;
+        synchronized (ownedEvents_) {
+            events = ownedEvents_.remove(owner);
+        }
+        if (events != null) {
+            for (Event event : events) {
+                event.cancel();
             }
-            events_.removeAll(matches);
         }
     }
 
@@ -92,34 +126,71 @@ public abstract class EventLoop {
             return;
         }
 
-        boolean doCallback = false;
-        synchronized (eventsMutex_) {
-            doCallback = events_.contains(event);
-            if (doCallback) {
-                events_.remove(event);
+        if (claim(event)) {
+            handlingEvents_ = true;
+            handlingThread_ = Thread.currentThread();
+            try {
+                event.callback.run();
+                Event.Callback endOfTurnCallback;
+                do {
+                    // Process events that were passed to handleEvent during the callback
+                    // (i.e. through recursive calls of handleEvent)
+                    Event nextEvent;
+                    // As in Swiften, these are run even if they have already been
+                    // handled, but never once they have been cancelled.
+                    while ((nextEvent = eventsToHandle_.poll()) != null) {
+                        if (!nextEvent.isCancelled()) {
+                            claim(nextEvent);
+                            nextEvent.callback.run();
+                        }
+                    }
+                    endOfTurnCallback = endOfTurnCallbacks_.poll();
+                    if (endOfTurnCallback != null) {
+                        endOfTurnCallback.run();
+                    }
+                } while (endOfTurnCallback != null || !eventsToHandle_.isEmpty());
+            }
+            finally {
+                handlingEvents_ = false;
+                handlingThread_ = null;
+                // If a callback threw, those waiting for the end of the turn
+                // still need to be called, so leave them to a later turn
+                Event.Callback endOfTurnCallback;
+                while ((endOfTurnCallback = endOfTurnCallbacks_.poll()) != null) {
+                    postEvent(endOfTurnCallback);
+                }
             }
         }
-        if (doCallback) {
-            handlingEvents_ = true;
-            event.callback.run();
-            // Process events that were passed to handleEvent during the callback
-            // (i.e. through recursive calls of handleEvent)
-            while (!eventsToHandle_.isEmpty()) {
-                Event nextEvent = eventsToHandle_.firstElement();
-                eventsToHandle_.remove(0);
-                nextEvent.callback.run();
+    }
+
+    /**
+     * Claim an event for handling, and stop tracking it.
+     * @return true if the event's callback should be run
+     */
+    private boolean claim(Event event) {
+        if (!event.claim()) {
+            return false;
+        }
+        if (event.owner != null) {
+            synchronized (ownedEvents_) {
+                final Set<Event> events = ownedEvents_.get(event.owner);
+                if (events != null) {
+                    events.remove(event);
+                    if (events.isEmpty()) {
+                        ownedEvents_.remove(event.owner);
+                    }
+                }
             }
-            handlingEvents_ = false;
         }
+        return true;
     }
-    //	struct HasOwner {
-    //		HasOwner(boost::shared_ptr<EventOwner> owner) : owner(owner) {}
-    //		bool operator()(const Event& event) { return event.owner == owner; }
-    //		boost::shared_ptr<EventOwner> owner;
-    //	};
-    private final Object eventsMutex_ = new Object();
-    private int nextEventID_ = 0;
-    private Vector<Event> events_ = new Vector<Event>();
+
+    private final AtomicInteger nextEventID_ = new AtomicInteger();
+    /* Pending events which have an owner. Keyed by identity, as owners are compared with == */
+    private final Map<EventOwner, Set<Event>> ownedEvents_ = new IdentityHashMap<EventOwner, Set<Event>>();
     boolean handlingEvents_ = false;
-    private Vector<Event> eventsToHandle_ = new Vector<Event>();
+    /* Thread running handleEvent, so that only it adds to endOfTurnCallbacks_ */
+    private volatile Thread handlingThread_ = null;
+    private final ArrayDeque<Event> eventsToHandle_ = new ArrayDeque<Event>();
+    private final ArrayDeque<Event.Callback> endOfTurnCallbacks_ = new ArrayDeque<Event.Callback>();
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+
+package com.isode.stroke.eventloop;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed number of {@link EventLoop}s, each run on its own thread.
+ * <p>
+ * Stroke is not thread-safe: a client, and everything it creates, must only
+ * be used from the thread of its EventLoop. An application which hosts many
+ * clients in one JVM can use a group to spread them across several threads,
+ * by giving each client {@link com.isode.stroke.network.NetworkFactories}
+ * built on one of the group's loops, e.g.
+ * <pre>
+ * EventLoopGroup group = new EventLoopGroup();
+ * NetworkFactories factories = new JavaNetworkFactories(group.next());
+ * Client client = new Client(jid, password, factories);
+ * </pre>
+ * The client's timers, connections and signals will then all be handled on
+ * that loop's thread, so the client keeps the single-threaded behaviour it
+ * relies on, while different clients run in parallel. Code outside the
+ * client should interact with it by posting events to its loop.
+ */
+public class EventLoopGroup {
+
+    /**
+     * One loop, and the thread that runs it.
+     */
+    private static class Shard implements Runnable {
+        private final SimpleEventLoop eventLoop_ = new SimpleEventLoop();
+        private Thread thread_;
+
+        public void run() {
+            while (true) {
+                try {
+                    eventLoop_.run();
+                    return;
+                } catch (RuntimeException e) {
+                    // Don't let one client's failure stop the others on this shard
+                    logger_.log(Level.WARNING, "Unexpected exception handling event", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a group with one loop per available processor.
+     */
+    public EventLoopGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a group with the given number of loops. The loops' threads are
+     * daemon threads, started immediately.
+     * @param shardCount number of loops, must be at least 1
+     */
+    public EventLoopGroup(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        shards_ = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards_[i] = new Shard();
+            final Thread thread = new Thread(shards_[i]);
+            thread.setDaemon(true);
+            thread.setName("EventLoopGroup " + groupID_ + " loop " + i);
+            shards_[i].thread_ = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Pick the loop that the next client should use.
+     * Clients are spread round-robin across the group.
+     * @return one of the group's loops, not null
+     */
+    public EventLoop next() {
+        int index = nextShard_.getAndIncrement() % shards_.length;
+        if (index < 0) {
+            index += shards_.length;
+        }
+        return shards_[index].eventLoop_;
+    }
+
+    /**
+     * @param index index of the loop, from 0 to {@link #getShardCount()} - 1
+     * @return the loop with the given index, not null
+     */
+    public EventLoop getEventLoop(int index) {
+        return shards_[index].eventLoop_;
+    }
+
+    /**
+     * @return the number of loops in the group
+     */
+    public int getShardCount() {
+        return shards_.length;
+    }
+
+    /**
+     * Stop all of the group's loops. Events which are already queued are
+     * handled first; events posted afterwards are not.
+     */
+    public void shutdown() {
+        for (Shard shard : shards_) {
+            shard.eventLoop_.stop();
+        }
+    }
+
+    /**
+     * Wait for the loops' threads to finish after {@link #shutdown()}.
+     * Must not be called from one of the group's threads.
+     * @param timeoutMillis maximum time to wait for each thread, in milliseconds
+     * @return true if all of the threads have finished
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        boolean terminated = true;
+        for (Shard shard : shards_) {
+            shard.thread_.join(timeoutMillis);
+            terminated &= !shard.thread_.isAlive();
+        }
+        return terminated;
+    }
+
+    @Override
+    public String toString() {
+        return "EventLoopGroup " + groupID_ + " with " + shards_.length + " loops";
+    }
+
+    private static final Logger logger_ = Logger.getLogger(EventLoopGroup.class.getName());
+    private static final AtomicInteger nextGroupID_ = new AtomicInteger();
+    private final int groupID_ = nextGroupID_.getAndIncrement();
+    private final Shard[] shards_;
+    private final AtomicInteger nextShard_ = new AtomicInteger();
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+
+package com.isode.stroke.eventloop;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue of events waiting to be handled by an {@link EventLoop} which runs
+ * on a single thread.
+ * <p>
+ * Any number of threads may add events without taking a lock. A single thread
+ * removes them, in batches, and may block while the queue is empty.
+ */
+class EventQueue {
+
+    /**
+     * Add an event to the queue. May be called from any thread.
+     * @param event event to add, not null
+     */
+    void add(Event event) {
+        events_.add(event);
+        size_.incrementAndGet();
+        if (waiting_) {
+            synchronized (waitLock_) {
+                waitLock_.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return true if there are no events in the queue
+     */
+    boolean isEmpty() {
+        return size_.get() == 0;
+    }
+
+    /**
+     * Pass each event which was in the queue at the time of the call to
+     * {@link EventLoop#handleEvent}. Events which are added while these are
+     * being handled are left for the next call.
+     * @param eventLoop the loop to handle the events, not null
+     */
+    void handleQueuedEvents(EventLoop eventLoop) {
+        for (int count = size_.get(); count > 0; count--) {
+            final Event event = events_.poll();
+            size_.decrementAndGet();
+            if (!event.isCancelled()) {
+                eventLoop.handleEvent(event);
+            }
+        }
+    }
+
+    /**
+     * Block until the queue is not empty or {@link #close()} is called.
+     * Interrupts are ignored.
+     */
+    void waitForEvents() {
+        if (!isEmpty()) {
+            return;
+        }
+        synchronized (waitLock_) {
+            waiting_ = true;
+            try {
+                while (isEmpty() && !closed_) {
+                    try {
+                        waitLock_.wait();
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
+            }
+            finally {
+                waiting_ = false;
+            }
+        }
+    }
+
+    /**
+     * Wake up any thread in {@link #waitForEvents()}, and stop further calls
+     * from blocking.
+     */
+    void close() {
+        synchronized (waitLock_) {
+            closed_ = true;
+            waitLock_.notifyAll();
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Event> events_ = new ConcurrentLinkedQueue<Event>();
+    /* Counted separately because ConcurrentLinkedQueue.size() is not constant-time.
+     * It is incremented after adding and decremented after removing, so it
+     * never exceeds the number of events actually queued.
+     */
+    private final AtomicInteger size_ = new AtomicInteger();
+    private final Object waitLock_ = new Object();
+    private volatile boolean waiting_ = false;
+    private boolean closed_ = false; // guarded by waitLock_
+}
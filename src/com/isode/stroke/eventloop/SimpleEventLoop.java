@@ -10,15 +10,10 @@
 
 package com.isode.stroke.eventloop;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-
 public class SimpleEventLoop extends EventLoop {
 
     private boolean isRunning_;
-    private final List<Event> events_ = new ArrayList<Event>();
-    private final Object eventsMutex_ = new Object();
+    private final EventQueue events_ = new EventQueue();
     
     public SimpleEventLoop() {
         isRunning_ = true;
@@ -27,10 +22,8 @@ public class SimpleEventLoop extends EventLoop {
     @Override
     protected void finalize() throws Throwable {
 	try {
-	    synchronized (eventsMutex_) {
-		if (!events_.isEmpty()) {
-		    System.err.println("Warning: Pending events in SimpleEventLoop at finalize time");
-		}
+	    if (!events_.isEmpty()) {
+		System.err.println("Warning: Pending events in SimpleEventLoop at finalize time");
 	    }
 	}
 	finally {
@@ -48,20 +41,8 @@ public class SimpleEventLoop extends EventLoop {
     
     private void doRun(boolean breakAfterEvents) {
         while (isRunning_) {
-            List<Event> events = new ArrayList<Event>();
-            synchronized (eventsMutex_) {
-                while (events_.isEmpty()) {
-                    try {
-                        eventsMutex_.wait();
-                    } catch (InterruptedException e) {
-                        // Ignore
-                    }
-                }
-                swapCollectionContents(events, events_);
-            }
-            for (Event event : events) {
-                handleEvent(event);
-            }
+            events_.waitForEvents();
+            events_.handleQueuedEvents(this);
             if (breakAfterEvents) {
                 return;
             }
@@ -69,13 +50,7 @@ public class SimpleEventLoop extends EventLoop {
     }
 
     public void runOnce() {
-        List<Event> events = new ArrayList<Event>();
-        synchronized (eventsMutex_) {
-            swapCollectionContents(events, events_);
-        }
-        for (Event event : events) {
-            handleEvent(event);
-        }
+        events_.handleQueuedEvents(this);
     }
     
     public void stop() {
@@ -93,20 +68,9 @@ public class SimpleEventLoop extends EventLoop {
         isRunning_ = false;
     }
 
-    static <T> void swapCollectionContents(Collection<T> coll1, Collection<T> coll2) {
-        Collection<T> temp = new ArrayList<T>(coll1);
-        coll1.clear();
-        coll1.addAll(coll2);
-        coll2.clear();
-        coll2.addAll(temp);
-    }
-    
     @Override
     protected void post(Event event) {
-        synchronized (eventsMutex_) {
-            events_.add(event);
-            eventsMutex_.notifyAll();
-        }
+        events_.add(event);
     }
 
 }
@@ -12,9 +12,6 @@
 package com.isode.stroke.eventloop;
 
 import com.isode.stroke.eventloop.EventLoop;
-import java.util.Vector;
-import java.util.Collection;
-import java.util.ArrayList;
 
 // DESCRIPTION:
 //
@@ -43,9 +40,8 @@ public class SingleThreadedEventLoop extends EventLoop {
 		}
 	}
 
-	private boolean shouldShutDown_;
-	private Vector<Event> events_ = new Vector<Event>();
-	private Object eventsMutex_ = new Object();
+	private volatile boolean shouldShutDown_;
+	private final EventQueue events_ = new EventQueue();
 
 	public SingleThreadedEventLoop() {
 		shouldShutDown_ = false;
@@ -56,53 +52,24 @@ public class SingleThreadedEventLoop extends EventLoop {
 	 * @throws EventLoopCanceledException when the wait is canceled.
 	 */
 	public void waitForEvents() throws EventLoopCanceledException {
-		synchronized(eventsMutex_) {
-			while (events_.isEmpty() && !shouldShutDown_) {
-				try {
-					eventsMutex_.wait();
-				} catch (InterruptedException e) {
-
-				}
-			}
-		}
+		events_.waitForEvents();
 		if (shouldShutDown_) {
 			throw new EventLoopCanceledException("");
 		}
 	}
 
 	public void handleEvents() {
-		// Make a copy of the list of events so we don't block any threads that post 
-		// events while we process them.
-		Vector<Event> events = new Vector<Event>();
-		synchronized(eventsMutex_) {
-			swapCollectionContents(events, events_);
-		}
-
-		// Loop through all the events and handle them
-		for(Event event : events) {
-			handleEvent(event);
-		}
-	}
-
-	static <T> void swapCollectionContents(Collection<T> coll1, Collection<T> coll2) {
-		Collection<T> temp = new ArrayList<T>(coll1);
-		coll1.clear();
-		coll1.addAll(coll2);
-		coll2.clear();
-		coll2.addAll(temp);
+		// Handle the events that are queued now, without blocking any threads
+		// that post events while we process them.
+		events_.handleQueuedEvents(this);
 	}
 
 	public void stop() {
-		synchronized(eventsMutex_) {
-			shouldShutDown_ = true;
-			eventsMutex_.notifyAll();
-		}
+		shouldShutDown_ = true;
+		events_.close();
 	}
 
 	public void post(final Event event) {
-		synchronized(eventsMutex_) {
-			events_.add(event);
-			eventsMutex_.notifyAll();
-		}
+		events_.add(event);
 	}
-}
\ No newline at end of file
+}
@@ -66,6 +66,7 @@ public class SOCKS5BytestreamClientSession extends SOCKS5AbstractBytestreamSessi
 
 	private SignalConnection connectFinishedConnection;
 	private SignalConnection dataWrittenConnection;
+	private SignalConnection writableConnection;
 	private SignalConnection dataReadConnection;
 	private SignalConnection disconnectedConnection;
 	private Logger logger_ = Logger.getLogger(this.getClass().getName());
@@ -132,6 +133,12 @@ public class SOCKS5BytestreamClientSession extends SOCKS5AbstractBytestreamSessi
 					sendData();
 				}
 			});
+			writableConnection = connection.onWritable.connect(new Slot() {
+				@Override
+				public void call() {
+					sendData();
+				}
+			});
 			sendData();
 		} else {
 			logger_.fine("Session isn't ready for transfer yet!\n");
@@ -303,6 +310,10 @@ public class SOCKS5BytestreamClientSession extends SOCKS5AbstractBytestreamSessi
 	}
 
 	private void sendData() {
+		if (connection.isWriteQueueFull()) {
+			// Wait for onWritable rather than queueing more in memory
+			return;
+		}
 		if (!readBytestream.isFinished()) {
 			//try {
 				ByteArray dataToSend = readBytestream.read((int)(chunkSize));
@@ -323,6 +334,9 @@ public class SOCKS5BytestreamClientSession extends SOCKS5AbstractBytestreamSessi
 		if (dataWrittenConnection != null) {
 		    dataWrittenConnection.disconnect();
 		}
+		if (writableConnection != null) {
+		    writableConnection.disconnect();
+		}
 		dataReadConnection.disconnect();
 		disconnectedConnection.disconnect();
 		connection.disconnect();
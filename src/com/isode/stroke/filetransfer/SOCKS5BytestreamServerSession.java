@@ -39,6 +39,7 @@ public class SOCKS5BytestreamServerSession  extends SOCKS5AbstractBytestreamSess
 	private SignalConnection disconnectedConnection;
 	private SignalConnection dataReadConnection;
 	private SignalConnection dataWrittenConnection;
+	private SignalConnection writableConnection;
 	private SignalConnection dataAvailableConnection;
 	private Logger logger_ = Logger.getLogger(this.getClass().getName());
 
@@ -101,6 +102,12 @@ public class SOCKS5BytestreamServerSession  extends SOCKS5AbstractBytestreamSess
 				sendData();
 			}
 		});
+		writableConnection = connection.onWritable.connect(new Slot() {
+			@Override
+			public void call() {
+				sendData();
+			}
+		});
 		sendData();
 	}
 
@@ -139,6 +146,9 @@ public class SOCKS5BytestreamServerSession  extends SOCKS5AbstractBytestreamSess
 		if (dataWrittenConnection != null) {
 		    dataWrittenConnection.disconnect();
 		}
+		if (writableConnection != null) {
+		    writableConnection.disconnect();
+		}
 		if (dataAvailableConnection != null) {
 		    dataAvailableConnection.disconnect();
 		}
@@ -228,6 +238,10 @@ public class SOCKS5BytestreamServerSession  extends SOCKS5AbstractBytestreamSess
 	}
 
 	private void sendData() {
+		if (connection.isWriteQueueFull()) {
+			// Wait for onWritable rather than queueing more in memory
+			return;
+		}
 		if (!readBytestream.isFinished()) {
 			//try {
 				SafeByteArray dataToSend = new SafeByteArray(readBytestream.read((chunkSize)));
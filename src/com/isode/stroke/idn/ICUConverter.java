@@ -11,18 +11,65 @@
 
 package com.isode.stroke.idn;
 
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.idn.IDNConverter;
 import com.isode.stroke.idn.IDNA;
 import com.ibm.icu.text.StringPrep;
 import com.ibm.icu.text.StringPrepParseException;
 
+/**
+ * IDNConverter using ICU.
+ * <p>
+ * Most strings which are prepared are printable ASCII, for which the
+ * profiles either leave the string as it is or reject it, and which are
+ * checked here without calling ICU. Results for other strings are
+ * remembered, for the most recently used strings of each profile, except
+ * for SASLprep, which is used for passwords.
+ */
 public class ICUConverter implements IDNConverter {
 
+	private static final int MAX_CACHED_RESULTS = 1024;
+
+	/* Most recently used prepared strings for each profile, keyed by the input */
+	private static final Map<StringPrepProfile, Map<String, String>> cache_ = new EnumMap<StringPrepProfile, Map<String, String>>(StringPrepProfile.class);
+	static {
+		for (StringPrepProfile profile : StringPrepProfile.values()) {
+			if (profile != StringPrepProfile.SASLPrep) {
+				cache_.put(profile, new LinkedHashMap<String, String>(16, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+						return size() > MAX_CACHED_RESULTS;
+					}
+				});
+			}
+		}
+	}
+
 	public String getStringPrepared(String s, StringPrepProfile profile) throws IllegalArgumentException {
+		if (isUnchangedASCII(s, profile)) {
+			return s;
+		}
+		final Map<String, String> cache = cache_.get(profile);
+		if (cache != null) {
+			synchronized (cache) {
+				String preparedData = cache.get(s);
+				if (preparedData != null) {
+					return preparedData;
+				}
+			}
+		}
 		StringPrep str = StringPrep.getInstance(getICUProfileType(profile));
 		try {
 		    String preparedData = str.prepare(s, StringPrep.DEFAULT);
+		    if (cache != null) {
+		        synchronized (cache) {
+		            cache.put(s, preparedData);
+		        }
+		    }
 		    return preparedData;
 		}catch(StringPrepParseException e){
 		    throw new IllegalArgumentException(e);
@@ -30,6 +77,9 @@ public class ICUConverter implements IDNConverter {
 	}
 
 	public SafeByteArray getStringPrepared(SafeByteArray s, StringPrepProfile profile) throws IllegalArgumentException {
+		if (isUnchangedASCII(s.getData(), profile)) {
+			return new SafeByteArray(s.getData());
+		}
 		StringPrep str = StringPrep.getInstance(getICUProfileType(profile));
 
 		try {
@@ -44,6 +94,49 @@ public class ICUConverter implements IDNConverter {
 		return IDNA.getEncoded(s);
 	}
 
+	/**
+	 * @return true if s is printable ASCII which the profile neither maps
+	 * nor prohibits, so that preparing it would return it unchanged
+	 */
+	static boolean isUnchangedASCII(String s, StringPrepProfile profile) {
+		for (int i = 0; i < s.length(); i++) {
+			if (!isUnchangedASCII(s.charAt(i), profile)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isUnchangedASCII(byte[] s, StringPrepProfile profile) {
+		for (byte b : s) {
+			// Bytes of multi-byte UTF-8 sequences are negative, so are rejected
+			if (!isUnchangedASCII((char) b, profile)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isUnchangedASCII(char c, StringPrepProfile profile) {
+		// Controls (including DEL) are prohibited by some profiles, and
+		// nothing beyond ASCII is checked here
+		if (c < 0x20 || c >= 0x7F) {
+			return false;
+		}
+		switch (profile) {
+			case NamePrep:
+			case XMPPNodePrep:
+				// Map upper case to lower case. Nodeprep also prohibits
+				// space, and IDNA rejects it for nameprep, so leave it to ICU
+				return c != ' ' && (c < 'A' || c > 'Z');
+			case XMPPResourcePrep:
+			case SASLPrep:
+				// No mapping of ASCII
+				return true;
+		}
+		return false;
+	}
+
 	private int getICUProfileType(IDNConverter.StringPrepProfile profile) {
 		switch(profile) {
 			case NamePrep: return StringPrep.RFC3491_NAMEPREP;
@@ -54,4 +147,4 @@ public class ICUConverter implements IDNConverter {
 		assert(false);
 		return StringPrep.RFC3491_NAMEPREP;
 	}
-}
\ No newline at end of file
+}
@@ -15,7 +15,9 @@
 package com.isode.stroke.jid;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.isode.stroke.base.NotNull;
 import com.isode.stroke.idn.ICUConverter;
@@ -39,6 +41,10 @@ import com.isode.stroke.idn.IDNConverter;
  *
  * <p>
  * This is an immutable class.
+ * <p>
+ * Preparing the parts of a JID is expensive, so JIDs created from strings
+ * are cached by the string, and JIDs derived from a valid JID (such as by
+ * {@link #toBare}) reuse its prepared parts.
  */
 public class JID implements Comparable<JID> {
 	public enum CompareType {
@@ -50,8 +56,15 @@ public class JID implements Comparable<JID> {
 	private String node_ = "";
 	private String domain_ = "";
 	private String resource_ = "";
+	/* Computed when first needed */
+	private String string_ = null;
+	private int hash_ = 0;
 	private static IDNConverter idnConverter = new ICUConverter();
 
+	private static final int MAX_CACHED_JIDS = 4096;
+	/* JIDs created from strings, keyed by the string */
+	private static final ConcurrentHashMap<String, JID> cache_ = new ConcurrentHashMap<String, JID>();
+
 	/**
 	 * Create an invalid JID.
 	 */
@@ -66,6 +79,10 @@ public class JID implements Comparable<JID> {
 	 */
 	public static JID fromString(String jid) {
 		NotNull.exceptIfNull(jid, "jid");
+		JID cached = cache_.get(jid);
+		if (cached != null) {
+			return cached;
+		}
 		return new JID(jid);
 	}
 
@@ -82,8 +99,45 @@ public class JID implements Comparable<JID> {
 	 */
 	public JID(String jid) {
 		NotNull.exceptIfNull(jid, "jid");		
+		JID cached = cache_.get(jid);
+		if (cached != null) {
+			valid_ = cached.valid_;
+			hasResource_ = cached.hasResource_;
+			node_ = cached.node_;
+			domain_ = cached.domain_;
+			resource_ = cached.resource_;
+			return;
+		}
 		valid_ = true;
 		initializeFromString(jid);
+		if (getClass() == JID.class) {
+			addToCache(jid, this);
+		}
+	}
+
+	/**
+	 * Create a JID from parts which have already been prepared.
+	 * @param bare valid JID whose node and domain to use
+	 * @param resource prepared resource, or null for a bare JID
+	 */
+	private JID(JID bare, String resource) {
+		node_ = bare.node_;
+		domain_ = bare.domain_;
+		resource_ = resource;
+		hasResource_ = (resource != null);
+		valid_ = !(hasResource_ && resource.isEmpty());
+	}
+
+	private static void addToCache(String jid, JID prepared) {
+		if (cache_.size() >= MAX_CACHED_JIDS) {
+			// Evict an arbitrary entry, which is enough to bound the size
+			Iterator<String> i = cache_.keySet().iterator();
+			if (i.hasNext()) {
+				i.next();
+				i.remove();
+			}
+		}
+		cache_.put(jid, prepared);
 	}
 
 	private void initializeFromString(String jid) {
@@ -217,7 +271,13 @@ public class JID implements Comparable<JID> {
 	 * @return non-null. Invalid if the original is invalid.
 	 */
 	public JID toBare() {
-		return new JID(getNode(), getDomain());
+		if (!valid_) {
+			return new JID(getNode(), getDomain());
+		}
+		if (isBare()) {
+			return this;
+		}
+		return new JID(this, null);
 	}
 
 	static List<Character> escapedChars = Arrays.asList(' ', '"', '&', '\'', '/', '<', '>', '@', ':');
@@ -300,11 +360,22 @@ public class JID implements Comparable<JID> {
 	 * Get the full JID with the supplied resource.
 	 */
 	public JID withResource(String resource) {
-		return new JID (this.getNode(), this.getDomain(), resource);
+		if (!valid_ || resource == null) {
+			return new JID (this.getNode(), this.getDomain(), resource);
+		}
+		String preparedResource;
+		try {
+			preparedResource = idnConverter.getStringPrepared(resource, IDNConverter.StringPrepProfile.XMPPResourcePrep);
+		} catch (IllegalArgumentException e) {
+			return new JID (this.getNode(), this.getDomain(), resource);
+		}
+		return new JID(this, preparedResource);
 	}
 
 	public void setIDNConverter(IDNConverter converter) {
 		idnConverter = converter;
+		// Cached JIDs were prepared by the old converter
+		cache_.clear();
 	}
 
 	@Override
@@ -312,13 +383,18 @@ public class JID implements Comparable<JID> {
         if (!valid_) {
             return "";
         }
-		String string = new String();
-		if (node_.length()!=0) {
-			string += node_ + "@";
-		}
-		string += domain_;
-		if (!isBare()) {
-			string += "/" + resource_;
+		String string = string_;
+		if (string == null) {
+			StringBuilder builder = new StringBuilder(node_.length() + domain_.length() + getResource().length() + 2);
+			if (node_.length()!=0) {
+				builder.append(node_).append('@');
+			}
+			builder.append(domain_);
+			if (!isBare()) {
+				builder.append('/').append(resource_);
+			}
+			string = builder.toString();
+			string_ = string;
 		}
 		return string;
 	}
@@ -363,10 +439,14 @@ public class JID implements Comparable<JID> {
 
 	@Override
 	public int hashCode() {
-		int hash = 5;
-		hash = 73 * hash + (this.node_ != null ? this.node_.hashCode() : 0);
-		hash = 73 * hash + (this.domain_ != null ? this.domain_.hashCode() : 0);
-		hash = 73 * hash + (this.resource_ != null ? this.resource_.hashCode() : 0);
+		int hash = hash_;
+		if (hash == 0) {
+			hash = 5;
+			hash = 73 * hash + (this.node_ != null ? this.node_.hashCode() : 0);
+			hash = 73 * hash + (this.domain_ != null ? this.domain_.hashCode() : 0);
+			hash = 73 * hash + (this.resource_ != null ? this.resource_.hashCode() : 0);
+			hash_ = hash;
+		}
 		return hash;
 	}
 
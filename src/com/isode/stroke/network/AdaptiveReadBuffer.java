@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable direct buffer for reading from a socket, the amount of which
+ * that is used follows the size of recent reads.
+ * <p>
+ * The size used doubles (up to {@link #MAX_SIZE}) whenever a read fills it,
+ * and halves (down to {@link #MIN_SIZE}) after a run of reads which used less
+ * than a quarter of it. The size is varied by the buffer's limit; a new
+ * buffer is only allocated when the size grows beyond any used before, as
+ * direct buffers are expensive to allocate and are freed late, so the buffer
+ * is allocated at most a few times in its life.
+ * <p>
+ * This class is not thread-safe; an instance must only be used by one thread.
+ */
+class AdaptiveReadBuffer {
+
+    static final int MIN_SIZE = 1024;
+    static final int MAX_SIZE = 64 * 1024;
+
+    /** Number of consecutive small reads after which the size shrinks */
+    private static final int SHRINK_AFTER_READS = 32;
+
+    private ByteBuffer buffer_ = ByteBuffer.allocateDirect(MIN_SIZE);
+    private int size_ = MIN_SIZE;
+    private int smallReads_ = 0;
+
+    /**
+     * @return the buffer, cleared and limited to the current size, ready for
+     * reading into
+     */
+    ByteBuffer getBuffer() {
+        buffer_.clear();
+        buffer_.limit(size_);
+        return buffer_;
+    }
+
+    /**
+     * Called when the buffer returned by {@link #getBuffer()} is full but there
+     * may be more to read.
+     * @return a buffer with more room, containing everything that was in the
+     * full buffer, ready for reading into; or the same (still full) buffer if
+     * it is already as large as it is allowed to become, in which case the
+     * caller needs to empty it before reading more.
+     */
+    ByteBuffer grow() {
+        if (size_ >= MAX_SIZE) {
+            return buffer_;
+        }
+        size_ = Math.min(size_ * 2, MAX_SIZE);
+        smallReads_ = 0;
+        if (size_ <= buffer_.capacity()) {
+            buffer_.limit(size_);
+            return buffer_;
+        }
+        final ByteBuffer larger = ByteBuffer.allocateDirect(size_);
+        buffer_.flip();
+        larger.put(buffer_);
+        buffer_ = larger;
+        return buffer_;
+    }
+
+    /**
+     * Called at the end of a read, to allow the size to shrink if it is
+     * larger than recent reads have needed.
+     * @param bytesRead the total number of bytes read
+     */
+    void readFinished(int bytesRead) {
+        if (size_ <= MIN_SIZE || bytesRead >= size_ / 4) {
+            smallReads_ = 0;
+            return;
+        }
+        if (++smallReads_ >= SHRINK_AFTER_READS) {
+            size_ /= 2;
+            smallReads_ = 0;
+        }
+    }
+
+    /**
+     * @return how much of the buffer is currently used for each read
+     */
+    int getSize() {
+        return size_;
+    }
+
+    /**
+     * @return the size of the underlying buffer, which is the largest size
+     * used so far
+     */
+    int getCapacity() {
+        return buffer_.capacity();
+    }
+}
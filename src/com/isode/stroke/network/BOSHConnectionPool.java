@@ -104,7 +104,13 @@ public class BOSHConnectionPool {
                             boshHTTPConnectProxyAuthID.getData(), 
                             boshHTTPConnectProxyAuthPassword.getData(), trafficFilter);
         }
-        resolver_ = new CachingDomainNameResolver(realResolver, eventLoop);
+        if (realResolver instanceof CachingDomainNameResolver) {
+            /* Share its results with everything else using it */
+            resolver_ = (CachingDomainNameResolver) realResolver;
+        }
+        else {
+            resolver_ = new CachingDomainNameResolver(realResolver, eventLoop);
+        }
     }
     
     public void open() {
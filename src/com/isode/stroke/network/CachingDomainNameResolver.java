@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2012-2015 Isode Limited.
+ * Copyright (c) 2012-2016 Isode Limited.
  * All rights reserved.
  * See the COPYING file for more information.
  */
@@ -11,28 +11,303 @@
 
 package com.isode.stroke.network;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import com.isode.stroke.network.DomainNameResolver;
-import com.isode.stroke.network.StaticDomainNameResolver;
+import com.isode.stroke.eventloop.Event;
 import com.isode.stroke.eventloop.EventLoop;
+import com.isode.stroke.signals.Slot1;
+import com.isode.stroke.signals.Slot2;
 
-/*
- * FIXME: Does not do any caching yet.
+/**
+ * A DomainNameResolver which remembers the results of another resolver.
+ * <p>
+ * Service (SRV) results are kept for the lowest time to live of the records
+ * returned, or for the default time to live if the records don't say. Address
+ * results are kept for the default time to live, as the platform's address
+ * lookups don't report one. Failed lookups, and service lookups which find
+ * no records, are kept for the (shorter) negative time to live.
+ * <p>
+ * Queries which are run while an identical query is waiting for the other
+ * resolver share its lookup, rather than starting their own. The results of
+ * the least recently used names are forgotten once there are more than the
+ * maximum number. A lookup which hasn't finished within the lookup timeout
+ * is abandoned when the next identical query is run: the queries waiting for
+ * it are given an empty result (with an error, for addresses), and the new
+ * query starts a fresh lookup.
+ * <p>
+ * Cached results are emitted from the EventLoop, as the other resolver's
+ * results would be, and each query is given its own copy of them.
  */
 public class CachingDomainNameResolver extends DomainNameResolver {
 
-	private DomainNameResolver realResolver;
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+	public static final long DEFAULT_TTL_SECONDS = 60;
+	public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 10;
+	public static final long DEFAULT_LOOKUP_TIMEOUT_SECONDS = 30;
+
+	/**
+	 * The results of a lookup, or the queries waiting for them.
+	 */
+	private static class CacheEntry {
+		/* Queries waiting for the lookup, or null once it has finished */
+		List<CachingQuery> waiting = new ArrayList<CachingQuery>();
+		long expiryTime = 0;
+		/* When the lookup is abandoned if it hasn't finished */
+		long lookupDeadline = 0;
+		Collection<DomainNameServiceQuery.Result> serviceResults;
+		Collection<HostAddress> addresses;
+		DomainNameResolveError error;
+	}
+
+	/**
+	 * What the service and address queries have in common.
+	 */
+	private interface CachingQuery {
+		String getKey();
+		void startLookup(CacheEntry entry);
+		void emitResult(CacheEntry entry);
+	}
+
+	private class ServiceQuery extends DomainNameServiceQuery implements CachingQuery {
+		ServiceQuery(String serviceLookupPrefix, String domain) {
+			this.serviceLookupPrefix = serviceLookupPrefix;
+			this.domain = domain;
+		}
+
+		public void run() {
+			runQuery(this);
+		}
+
+		public String getKey() {
+			return "SRV " + serviceLookupPrefix + domain;
+		}
+
+		public void startLookup(final CacheEntry entry) {
+			DomainNameServiceQuery query = realResolver.createServiceQuery(serviceLookupPrefix, domain);
+			query.onResult.connect(new Slot1<Collection<DomainNameServiceQuery.Result>>() {
+				@Override
+				public void call(Collection<DomainNameServiceQuery.Result> results) {
+					long ttl = -1;
+					for (DomainNameServiceQuery.Result result : results) {
+						if (result.ttl >= 0 && (ttl < 0 || result.ttl < ttl)) {
+							ttl = result.ttl;
+						}
+					}
+					if (results.isEmpty()) {
+						ttl = negativeTTL;
+					}
+					else if (ttl < 0) {
+						ttl = defaultTTL;
+					}
+					synchronized (entries) {
+						entry.serviceResults = new ArrayList<DomainNameServiceQuery.Result>(results);
+					}
+					handleLookupFinished(entry, ttl);
+				}
+			});
+			query.run();
+		}
+
+		public void emitResult(CacheEntry entry) {
+			onResult.emit(new ArrayList<DomainNameServiceQuery.Result>(entry.serviceResults));
+		}
+
+		private final String serviceLookupPrefix;
+		private final String domain;
+	}
+
+	private class AddressQuery extends DomainNameAddressQuery implements CachingQuery {
+		AddressQuery(String name) {
+			this.name = name;
+		}
+
+		public void run() {
+			runQuery(this);
+		}
+
+		public String getKey() {
+			return "A " + name;
+		}
+
+		public void startLookup(final CacheEntry entry) {
+			DomainNameAddressQuery query = realResolver.createAddressQuery(name);
+			query.onResult.connect(new Slot2<Collection<HostAddress>, DomainNameResolveError>() {
+				@Override
+				public void call(Collection<HostAddress> addresses, DomainNameResolveError error) {
+					boolean failed = (error != null || addresses.isEmpty());
+					synchronized (entries) {
+						entry.addresses = new ArrayList<HostAddress>(addresses);
+						entry.error = error;
+					}
+					handleLookupFinished(entry, failed ? negativeTTL : defaultTTL);
+				}
+			});
+			query.run();
+		}
+
+		public void emitResult(CacheEntry entry) {
+			onResult.emit(new ArrayList<HostAddress>(entry.addresses), entry.error);
+		}
+
+		private final String name;
+	}
+
+	private final DomainNameResolver realResolver;
+	private final EventLoop eventLoop;
+	private final Map<String, CacheEntry> entries;
+	private volatile long defaultTTL = DEFAULT_TTL_SECONDS;
+	private volatile long negativeTTL = DEFAULT_NEGATIVE_TTL_SECONDS;
+	private volatile long lookupTimeout = DEFAULT_LOOKUP_TIMEOUT_SECONDS;
 
 	public CachingDomainNameResolver(DomainNameResolver realResolver, EventLoop eventLoop) {
+		this(realResolver, eventLoop, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param realResolver the resolver to do the lookups, not null
+	 * @param eventLoop the EventLoop from which results are emitted, not null
+	 * @param maxEntries the greatest number of names, for services and
+	 * addresses together, whose results are kept; must be greater than 0
+	 */
+	public CachingDomainNameResolver(DomainNameResolver realResolver, EventLoop eventLoop, final int maxEntries) {
 		this.realResolver = realResolver;
+		this.eventLoop = eventLoop;
+		entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param seconds how long to keep results which don't have their own
+	 * time to live
+	 */
+	public void setDefaultTTL(long seconds) {
+		defaultTTL = seconds;
+	}
+
+	/**
+	 * @param seconds how long to keep the results of lookups which failed
+	 * or found nothing
+	 */
+	public void setNegativeTTL(long seconds) {
+		negativeTTL = seconds;
+	}
+
+	/**
+	 * @param seconds how long a lookup may take before queries stop waiting
+	 * for it
+	 */
+	public void setLookupTimeout(long seconds) {
+		lookupTimeout = seconds;
+	}
+
+	/**
+	 * Forget all results, for instance when the network has changed. Lookups
+	 * in progress still give their results to the queries waiting for them.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
 	}
 
 	public DomainNameServiceQuery createServiceQuery(final String serviceLookupPrefix, final String domain) {
-		//TODO: Cache
-		return realResolver.createServiceQuery(serviceLookupPrefix, domain);
+		return new ServiceQuery(serviceLookupPrefix, domain);
 	}
 
 	public DomainNameAddressQuery createAddressQuery(final String name) {
-		//TODO: Cache
-		return realResolver.createAddressQuery(name);
+		return new AddressQuery(name);
+	}
+
+	/**
+	 * @return the time used for expiring results, in milliseconds, which
+	 * need not be related to the wall clock time
+	 */
+	protected long getCurrentTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	private void runQuery(final CachingQuery query) {
+		final String key = query.getKey();
+		final CacheEntry entry;
+		synchronized (entries) {
+			CacheEntry existing = entries.get(key);
+			long now = getCurrentTimeMillis();
+			if (existing != null && existing.waiting == null && existing.expiryTime <= now) {
+				entries.remove(key);
+				existing = null;
+			}
+			if (existing != null && existing.waiting != null && existing.lookupDeadline <= now) {
+				// The lookup is taking too long; its result, if it ever
+				// comes, is ignored, as nothing is waiting for it
+				failWaiting(existing.waiting);
+				existing.waiting = null;
+				entries.remove(key);
+				existing = null;
+			}
+			if (existing != null) {
+				if (existing.waiting != null) {
+					// Coalesce with the lookup in progress
+					existing.waiting.add(query);
+				}
+				else {
+					final CacheEntry cached = existing;
+					eventLoop.postEvent(new Event.Callback() {
+						public void run() {
+							query.emitResult(cached);
+						}
+					});
+				}
+				return;
+			}
+			entry = new CacheEntry();
+			entry.lookupDeadline = now + TimeUnit.SECONDS.toMillis(lookupTimeout);
+			entry.waiting.add(query);
+			entries.put(key, entry);
+		}
+		query.startLookup(entry);
+	}
+
+	private void handleLookupFinished(CacheEntry entry, long ttlSeconds) {
+		List<CachingQuery> waiting;
+		synchronized (entries) {
+			entry.expiryTime = getCurrentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+			waiting = entry.waiting;
+			entry.waiting = null;
+		}
+		if (waiting == null) {
+			return;
+		}
+		for (CachingQuery query : waiting) {
+			query.emitResult(entry);
+		}
+	}
+
+	/**
+	 * Give queries whose lookup was abandoned an empty result, from the
+	 * EventLoop.
+	 */
+	private void failWaiting(final List<CachingQuery> waiting) {
+		final CacheEntry failed = new CacheEntry();
+		failed.waiting = null;
+		failed.serviceResults = new ArrayList<DomainNameServiceQuery.Result>();
+		failed.addresses = new ArrayList<HostAddress>();
+		failed.error = new DomainNameResolveError();
+		eventLoop.postEvent(new Event.Callback() {
+			public void run() {
+				for (CachingQuery query : waiting) {
+					query.emitResult(failed);
+				}
+			}
+		});
 	}
-}
\ No newline at end of file
+}
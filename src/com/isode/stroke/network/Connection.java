@@ -9,12 +9,32 @@
  */
 package com.isode.stroke.network;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.signals.Signal;
 import com.isode.stroke.signals.Signal1;
 
+/**
+ * A connection to a remote host.
+ * <p>
+ * Connections which queue written data (such as {@link JavaConnection})
+ * keep count of how many bytes are queued. When that reaches the high
+ * watermark, {@link #onWriteQueueFull} is emitted; once it drops back to the
+ * low watermark, {@link #onWritable} is emitted. Writes are never refused, so
+ * it is up to producers of large amounts of data to check
+ * {@link #isWriteQueueFull()} and wait for {@link #onWritable} before writing
+ * more.
+ */
 public abstract class Connection {
 
+    /** Default number of queued bytes at which the write queue is full */
+    public static final long DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+
+    /** Default number of queued bytes at which a full write queue becomes writable again */
+    public static final long DEFAULT_LOW_WATERMARK = 256 * 1024;
+
     public enum Error {
 
         ReadError,
@@ -34,8 +54,94 @@ public abstract class Connection {
 
     public abstract HostAddressPort getLocalAddress();
     public abstract HostAddressPort getRemoteAddress();
+
+    /**
+     * @return the number of bytes which have been written to this connection
+     * but not yet sent. Connections which do not queue data return 0.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes_.get();
+    }
+
+    /**
+     * @return true if the number of queued bytes has reached the high
+     * watermark and not yet dropped back to the low watermark
+     */
+    public boolean isWriteQueueFull() {
+        return writeQueueFull_.get();
+    }
+
+    /**
+     * @return the number of queued bytes at or below which a full queue
+     * becomes writable again
+     */
+    public long getLowWatermark() {
+        return lowWatermark_;
+    }
+
+    /**
+     * @return the number of queued bytes at or above which the queue is full
+     */
+    public long getHighWatermark() {
+        return highWatermark_;
+    }
+
+    /**
+     * Set the thresholds used to decide when the write queue is full.
+     * @param lowWatermark number of queued bytes at or below which a full
+     * queue becomes writable again
+     * @param highWatermark number of queued bytes at or above which the queue
+     * is full, must be greater than lowWatermark
+     */
+    public void setWriteWatermarks(long lowWatermark, long highWatermark) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("Invalid watermarks " + lowWatermark + "/" + highWatermark);
+        }
+        lowWatermark_ = lowWatermark;
+        highWatermark_ = highWatermark;
+    }
+
+    /**
+     * Called by subclasses when data has been queued for writing.
+     * May be called from any thread.
+     * @param bytes number of bytes queued
+     * @return true if this made the write queue full, in which case the
+     * subclass should arrange for {@link #onWriteQueueFull} to be emitted
+     */
+    protected boolean handleBytesQueued(long bytes) {
+        final long queued = queuedBytes_.addAndGet(bytes);
+        return queued >= highWatermark_ && writeQueueFull_.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by subclasses when queued data has been sent (or discarded).
+     * May be called from any thread.
+     * @param bytes number of bytes no longer queued
+     * @return true if this made a full write queue writable again, in which
+     * case the subclass should arrange for {@link #onWritable} to be emitted
+     */
+    protected boolean handleBytesDequeued(long bytes) {
+        final long queued = queuedBytes_.addAndGet(-bytes);
+        return queued <= lowWatermark_ && writeQueueFull_.compareAndSet(true, false);
+    }
+
     public final Signal1<Boolean /*error*/> onConnectFinished = new Signal1<Boolean>();
     public final Signal1<Error> onDisconnected = new Signal1<Error>();
     public final Signal1<SafeByteArray> onDataRead = new Signal1<SafeByteArray>();
     public final Signal onDataWritten = new Signal();
+
+    /**
+     * Emitted when the write queue reaches the high watermark.
+     */
+    public final Signal onWriteQueueFull = new Signal();
+
+    /**
+     * Emitted when a full write queue drops back to the low watermark.
+     */
+    public final Signal onWritable = new Signal();
+
+    private final AtomicLong queuedBytes_ = new AtomicLong();
+    private final AtomicBoolean writeQueueFull_ = new AtomicBoolean(false);
+    private volatile long lowWatermark_ = DEFAULT_LOW_WATERMARK;
+    private volatile long highWatermark_ = DEFAULT_HIGH_WATERMARK;
 }
@@ -27,18 +27,30 @@ public abstract class DomainNameServiceQuery {
             port = -1;
             priority = -1;
             weight = -1;
+            ttl = -1;
         }
 
         public Result(String hostname, int port, int priority, int weight) {
+            this(hostname, port, priority, weight, -1);
+        }
+
+        /**
+         * @param ttl how long the record may be cached for, in seconds, or
+         * -1 if not known
+         */
+        public Result(String hostname, int port, int priority, int weight, long ttl) {
             this.hostname = hostname;
             this.port = port;
             this.priority = priority;
             this.weight = weight;
+            this.ttl = ttl;
         }
         public final String hostname;
         public final int port;
         public final int priority;
         public final int weight;
+        /** Time to live of the record in seconds, or -1 if not known */
+        public final long ttl;
     };
 
     /**
@@ -13,10 +13,9 @@ import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.util.Iterator;
 
 import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.eventloop.Event.Callback;
@@ -29,22 +28,49 @@ public class JavaConnection extends Connection implements EventOwner {
         void onConnectionActive(boolean isActive);
     }
 
-    private class Worker implements Runnable {
+    private class Worker implements Runnable, JavaSelectorPool.Handler {
 
         private final HostAddressPort address_;
-        private final List<byte[]> writeBuffer_ = Collections.synchronizedList(new ArrayList<byte[]>());
+        private final ArrayDeque<ByteBuffer> writeBuffer_ = new ArrayDeque<ByteBuffer>(); // guarded by itself
+        private boolean writeBufferDiscarded_ = false; // guarded by writeBuffer_
+        private final ByteBuffer[] gatherBuffers_ = new ByteBuffer[MAX_BUFFERS_PER_WRITE]; // only used by the writing thread
         private SelectionKey selectionKey_; // not volatile - only set/tested with selectorLock_ held
         private final Object selectorLock_ = new Object(); // use private lock object that is not visible elsewhere
         private boolean disconnected_ = false;
         private final ActivityWatcher watcher_;
+        private final JavaSelectorPool.SelectorThread selectorThread_; // null unless pooled
+        private boolean connected_ = false; // only used when pooled, from the selector thread
+        private boolean closed_ = false; // only used when pooled, from the selector thread
+        private AdaptiveReadBuffer readBuffer_; // only used when not pooled, from the Worker thread
 
         public Worker(HostAddressPort address, ActivityWatcher watcher) {
             address_ = address;
             watcher_ = watcher;
+            selectorThread_ = null;
+        }
+
+        public Worker(HostAddressPort address, JavaSelectorPool.SelectorThread selectorThread) {
+            address_ = address;
+            watcher_ = null;
+            selectorThread_ = selectorThread;
         }
         
         private boolean isWriteNeeded() {
-            return (!writeBuffer_.isEmpty());
+            synchronized (writeBuffer_) {
+                return !writeBuffer_.isEmpty();
+            }
+        }
+
+        /**
+         * Must be called with selectorLock_ held
+         * @return the ops to select on once the channel is connected
+         */
+        private int getConnectedInterestOps() {
+            int ops = SelectionKey.OP_READ;
+            if (isWriteNeeded()) {
+                ops |= SelectionKey.OP_WRITE; // could have been queued before selectionKey_ established
+            }
+            return ops;
         }
         
         public HostAddressPort getRemoteAddress() {
@@ -61,11 +87,7 @@ public class JavaConnection extends Connection implements EventOwner {
                      */
                     socketChannel_.configureBlocking(false);
                     synchronized (selectorLock_) {
-                        int ops = SelectionKey.OP_READ;
-                        if (isWriteNeeded()) {
-                            ops |= SelectionKey.OP_WRITE; // could have been queued before selectionKey_ established
-                        }
-                        selectionKey_ = socketChannel_.register(Selector.open(), ops);
+                        selectionKey_ = socketChannel_.register(Selector.open(), getConnectedInterestOps());
                     }
                 } catch (IOException ex) { // includes ClosedChannelException
                     handleConnected(true);
@@ -189,6 +211,7 @@ public class JavaConnection extends Connection implements EventOwner {
                         }
                         catch (IOException e) {
                             disconnecting_ = true;
+                            discardWriteBuffer();
                             handleDisconnected(Error.WriteError);
                         }
                     }
@@ -209,6 +232,7 @@ public class JavaConnection extends Connection implements EventOwner {
                 }
                 handleDisconnected(null);
             } finally {
+                discardWriteBuffer();
                 try {
                     if(socketChannel_ != null) {
                         try {
@@ -233,6 +257,132 @@ public class JavaConnection extends Connection implements EventOwner {
             }
         }
         
+        /**
+         * Start a pooled connection. Called on the selector thread.
+         */
+        private void startPooledConnect() {
+            try {
+                socketChannel_ = SocketChannel.open();
+                socketChannel_.configureBlocking(false);
+                connected_ = socketChannel_.connect(
+                        new InetSocketAddress(address_.getAddress().getInetAddress(),address_.getPort()));
+                synchronized (selectorLock_) {
+                    final int ops = connected_ ? getConnectedInterestOps() : SelectionKey.OP_CONNECT;
+                    selectionKey_ = socketChannel_.register(selectorThread_.getSelector(), ops, this);
+                }
+            } catch (IOException ex) { // includes ClosedChannelException
+                closePooled();
+                handleConnected(true);
+                return;
+            }
+            if (connected_) {
+                handleConnected(false);
+                checkPooledDisconnect();
+            }
+        }
+
+        /**
+         * Complete a pooled connection once the selector reports OP_CONNECT.
+         * Called on the selector thread.
+         */
+        private void finishPooledConnect() {
+            try {
+                socketChannel_.finishConnect();
+            } catch (IOException ex) {
+                closePooled();
+                handleConnected(true);
+                return;
+            }
+            connected_ = true;
+            synchronized (selectorLock_) {
+                selectionKey_.interestOps(getConnectedInterestOps());
+            }
+            handleConnected(false);
+            checkPooledDisconnect();
+        }
+
+        /**
+         * Handle readiness of a pooled connection. This does the same work
+         * as one iteration of {@link #run()}. Called on the selector thread.
+         */
+        public void handleSelected(SelectionKey key) {
+            if (closed_) {
+                return;
+            }
+            final int ops = key.interestOps() & key.readyOps();
+            if ((ops & SelectionKey.OP_CONNECT) == SelectionKey.OP_CONNECT) {
+                finishPooledConnect();
+                return;
+            }
+
+            /* Handle any writing */
+            if ((ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                try {
+                    doWrite();
+                    synchronized (selectorLock_) {
+                        if (!isWriteNeeded()) {
+                            clearInterestOp(SelectionKey.OP_WRITE);
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    disconnecting_ = true;
+                    handleDisconnected(Error.WriteError);
+                    closePooled();
+                    return;
+                }
+            }
+
+            /* Handle any reading */
+            if ((ops & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
+                final SafeByteArray data = new SafeByteArray();
+                final boolean closed = doRead(data);
+                if (!data.isEmpty()) {
+                    handleDataRead(data);
+                }
+                if (closed) {
+                    handleDisconnected(Error.ReadError);
+                    closePooled();
+                    return;
+                }
+            }
+            checkPooledDisconnect();
+        }
+
+        /**
+         * Close a pooled connection if a disconnect has been requested and
+         * everything queued has been written. Called on the selector thread.
+         */
+        private void checkPooledDisconnect() {
+            if (disconnecting_ && connected_ && !closed_ && !isWriteNeeded()) {
+                handleDisconnected(null);
+                closePooled();
+            }
+        }
+
+        /**
+         * Release the channel of a pooled connection. Called on the selector thread.
+         */
+        private void closePooled() {
+            if (closed_) {
+                return;
+            }
+            closed_ = true;
+            discardWriteBuffer();
+            synchronized (selectorLock_) {
+                if (selectionKey_ != null) {
+                    selectionKey_.cancel();
+                }
+            }
+            if (socketChannel_ != null) {
+                try {
+                    socketChannel_.close();
+                } catch (IOException ex) {
+                    /* Do we need to return an error if we're already trying to close? */
+                }
+            }
+        }
+
         /**
          * Set one or more SelectionKey bits in the select mask.
          * 
@@ -241,7 +391,22 @@ public class JavaConnection extends Connection implements EventOwner {
          * 
          * @param op - OP_READ | OP_WRITE: may be 0 just to force wakeup
          */
-        private void setInterestOp(int op) {
+        private void setInterestOp(final int op) {
+            if (selectorThread_ != null && !selectorThread_.inSelectorThread()) {
+                /* Pooled connections only change their key on the selector
+                 * thread, which also gives the selector thread a chance to
+                 * notice a pending disconnect.
+                 */
+                selectorThread_.execute(new Runnable() {
+                    public void run() {
+                        if (!closed_) {
+                            setInterestOp(op);
+                            checkPooledDisconnect();
+                        }
+                    }
+                });
+                return;
+            }
             synchronized (selectorLock_) {
                 final SelectionKey key = selectionKey_;
                 if (key != null && key.isValid()) {
@@ -269,7 +434,8 @@ public class JavaConnection extends Connection implements EventOwner {
         /**
          * Clear one or more SelectionKey bits in the select mask.
          * 
-         * May be called from outside Worker thread
+         * May be called from outside Worker thread, but for pooled connections
+         * is only called from the selector thread
          * May recursively lock selectorLock_
          * 
          * @param op - OP_READ | OP_WRITE
@@ -290,48 +456,118 @@ public class JavaConnection extends Connection implements EventOwner {
 
         /**
          * Called from outside Worker thread
+         * @param data the parts of the data to write, which are queued 
+         * as they are rather than being joined together; only the bytes
+         * between each part's position and limit are written
          */
-        public void queueWrite(byte[] data) {
+        public void queueWrite(ByteBuffer[] data) {
             synchronized (selectorLock_) {
-                writeBuffer_.add(data);
-                if (writeBuffer_.size() == 1) {
+                final boolean wasEmpty;
+                final boolean isEmpty;
+                synchronized (writeBuffer_) {
+                    if (writeBufferDiscarded_) {
+                        /* Nothing will ever write it, so don't count it */
+                        long bytes = 0;
+                        for (ByteBuffer part : data) {
+                            bytes += part.remaining();
+                        }
+                        handleBytesDequeued(bytes);
+                        return;
+                    }
+                    wasEmpty = writeBuffer_.isEmpty();
+                    for (ByteBuffer part : data) {
+                        if (part.hasRemaining()) {
+                            writeBuffer_.add(part.slice());
+                        }
+                    }
+                    isEmpty = writeBuffer_.isEmpty();
+                }
+                if (wasEmpty && !isEmpty) {
                     setInterestOp(SelectionKey.OP_WRITE);
                 }
             }
         }
 
 
+        /**
+         * Throw away anything still waiting to be written, and anything
+         * queued later, once the channel is closed, releasing it from the
+         * count of queued bytes.
+         */
+        private void discardWriteBuffer() {
+            long bytes = 0;
+            synchronized (writeBuffer_) {
+                writeBufferDiscarded_ = true;
+                for (ByteBuffer buffer : writeBuffer_) {
+                    bytes += buffer.remaining();
+                }
+                writeBuffer_.clear();
+            }
+            if (bytes != 0) {
+                handleBytesDequeued(bytes);
+            }
+        }
+
         /**
          * Called when there's something in the writeBuffer to be written.
-         * Will remove from writeBuffer_ anything that got written.
+         * Writes as much of writeBuffer_ as the socket will take, using
+         * gathering writes of up to {@link #MAX_BUFFERS_PER_WRITE} buffers
+         * from the front of the queue, and removes from writeBuffer_ anything
+         * that got written. The buffers keep their positions between writes,
+         * so each write costs no more than the buffers it is given, however
+         * much is queued. Posts a single onDataWritten if anything was written.
          * @throws IOException if an error occurs when trying to write to the
          * socket
          */
         private void doWrite() throws IOException {
-            if (!isWriteNeeded()) {
-                return;
-            }
-
-            byte[] bytes = writeBuffer_.get(0);
-            int bytesToWrite = bytes.length;
+            boolean somethingWasWritten = false;
+            boolean socketFull = false;
+            final ByteBuffer[] byteBuffers = gatherBuffers_;
+            while (!socketFull) {
+                int count = 0;
+                synchronized (writeBuffer_) {
+                    final Iterator<ByteBuffer> buffers = writeBuffer_.iterator();
+                    while (count < byteBuffers.length && buffers.hasNext()) {
+                        byteBuffers[count++] = buffers.next();
+                    }
+                }
+                if (count == 0) {
+                    break;
+                }
 
-            if (bytesToWrite == 0) {
                 /*
-                 * Not sure if this can happen, but does no harm to check
+                 * Because the SocketChannel is non-blocking, we have to
+                 * be prepared to cope with the write operation not
+                 * consuming all (or any!) of the data
                  */
-                writeBuffer_.remove(0);
-                return;
+                final long bytesWritten = socketChannel_.write(byteBuffers, 0, count);
+                somethingWasWritten |= (bytesWritten != 0);
+                if (bytesWritten != 0 && handleBytesDequeued(bytesWritten)) {
+                    eventLoop_.postEvent(new Callback() {
+                        public void run() {
+                            /* The queue could have filled up again before this ran */
+                            if (!isWriteQueueFull()) {
+                                onWritable.emit();
+                            }
+                        }
+                    });
+                }
+
+                /* Remove everything that was completely written; the first
+                 * of the rest remembers how far it got
+                 */
+                int completed = 0;
+                while (completed < count && !byteBuffers[completed].hasRemaining()) {
+                    completed++;
+                }
+                socketFull = (completed < count);
+                synchronized (writeBuffer_) {
+                    for (int i = 0; i < completed; i++) {
+                        writeBuffer_.poll();
+                    }
+                }
+                Arrays.fill(byteBuffers, 0, count, null);
             }
-            
-            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-            /*
-             * Because the SocketChannel is non-blocking, we have to
-             * be prepared to cope with the write operation not
-             * consuming all (or any!) of the data
-             */
-            boolean finishedWriting = false;
-            int bytesWritten = socketChannel_.write(byteBuffer);
-            final boolean somethingWasWritten = (bytesWritten != 0);
             if (somethingWasWritten) {
                 eventLoop_.postEvent(new Callback() {
                     public void run() {
@@ -339,28 +575,6 @@ public class JavaConnection extends Connection implements EventOwner {
                     }
                 });
             }
-            finishedWriting = (byteBuffer.remaining() == 0);
-            if (finishedWriting) {
-                writeBuffer_.remove(0);
-                return;
-            }
-            /* Was anything written at all? */
-            if (!somethingWasWritten) {
-                /* Leave the buffer in the array so that it'll get tried
-                 * again later
-                 */
-                return;
-            }
-
-            /* The buffer was *partly* written.  This means we have to
-             * remove that part.  We do this by creating a new byte[]
-             * with the remaining bytes in, and replacing the first 
-             * element in the list with that.
-             */
-            byte[] remainingBytes = new byte[bytesToWrite - bytesWritten];
-            remainingBytes = Arrays.copyOfRange(bytes, bytesWritten, bytes.length);
-            writeBuffer_.set(0, remainingBytes);
-            return;
         }
         
 
@@ -368,45 +582,73 @@ public class JavaConnection extends Connection implements EventOwner {
          * Called when there's something that's come in on the socket.
          * <p>If the socket has been closed, it may still be the case that data
          * was read before the close happened.
+         * <p>Everything available is read into a reusable buffer, which grows if
+         * necessary, so that the data normally ends up in <em>data</em> as a single
+         * chunk. Pooled connections read at most one full buffer each time,
+         * so that a busy connection can't keep the others sharing its
+         * selector thread waiting; the selector reports the connection as
+         * readable again if there's more.
          * @param data a SafeByteArray in which to store the read data
          * @return true if socket has been closed
          */
         private boolean doRead(SafeByteArray data) {
 
-            ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+            final AdaptiveReadBuffer readBuffer = getReadBuffer();
+            ByteBuffer byteBuffer = readBuffer.getBuffer();
+            int totalCount = 0;
+            boolean closed = false;
 
             int count;
             try {
                 count = socketChannel_.read(byteBuffer);
-            }
-            catch (IOException e) {
-                // Nothing read and the socket is closed
-                return true;
-            }
-            
-            while (count > 0) {
-                byteBuffer.flip();
-                byte[] result = new byte[byteBuffer.remaining()];
-                byteBuffer.get(result);
-                data.append(result);
-                byteBuffer.compact();
-                try {
+                while (count > 0) {
+                    totalCount += count;
+                    if (!byteBuffer.hasRemaining()) {
+                        final ByteBuffer largerBuffer = readBuffer.grow();
+                        if (largerBuffer == byteBuffer && !byteBuffer.hasRemaining()) {
+                            if (selectorThread_ != null) {
+                                /* Leave the rest for the next time round */
+                                break;
+                            }
+                            /* Already as large as it gets, so empty it */
+                            byteBuffer.flip();
+                            data.append(byteBuffer);
+                            byteBuffer.clear();
+                        }
+                        byteBuffer = largerBuffer;
+                    }
                     count = socketChannel_.read(byteBuffer);
                 }
-                catch (IOException e) {
-                    // indicate socket closed
-                    return true;
-                }
-            }
-            
-            if (count == -1) {
                 /* socketChannel input has reached "end-of-stream", which
                  * we regard as meaning that the socket has been closed 
                  */
-                return true;
+                closed = (count == -1);
+            }
+            catch (IOException e) {
+                // indicate socket closed
+                closed = true;
             }
-            
-            return false;
+
+            byteBuffer.flip();
+            if (byteBuffer.hasRemaining()) {
+                data.append(byteBuffer);
+            }
+            readBuffer.readFinished(totalCount);
+            return closed;
+        }
+
+        /**
+         * @return the buffer to read into; pooled connections share the buffer
+         * of their selector thread, as reads on that thread never overlap
+         */
+        private AdaptiveReadBuffer getReadBuffer() {
+            if (selectorThread_ != null) {
+                return selectorThread_.getReadBuffer();
+            }
+            if (readBuffer_ == null) {
+                readBuffer_ = new AdaptiveReadBuffer();
+            }
+            return readBuffer_;
         }
         
         private void handleConnected(final boolean error) {
@@ -445,14 +687,15 @@ public class JavaConnection extends Connection implements EventOwner {
 
     }
 
-    private JavaConnection(EventLoop eventLoop, boolean synchroniseReads, ActivityWatcher watcher) {
+    private JavaConnection(EventLoop eventLoop, boolean synchroniseReads, ActivityWatcher watcher, JavaSelectorPool selectorPool) {
         eventLoop_ = eventLoop;
         synchroniseReads_ = synchroniseReads;
         watcher_ = watcher;
+        selectorPool_ = selectorPool;
     }
 
     public static JavaConnection create(EventLoop eventLoop) {
-        return new JavaConnection(eventLoop, false, null);
+        return new JavaConnection(eventLoop, false, null, null);
     }
 
     /**
@@ -463,7 +706,7 @@ public class JavaConnection extends Connection implements EventOwner {
      * @return a new JavaConnection
      */
     public static JavaConnection create(EventLoop eventLoop, boolean synchroniseReads) {
-        return new JavaConnection(eventLoop, synchroniseReads, null);
+        return new JavaConnection(eventLoop, synchroniseReads, null, null);
     }
 
     /**
@@ -475,7 +718,20 @@ public class JavaConnection extends Connection implements EventOwner {
      * @return a new JavaConnection
      */
     public static JavaConnection create(EventLoop eventLoop, boolean synchroniseReads, ActivityWatcher watcher) {
-        return new JavaConnection(eventLoop, synchroniseReads, watcher);
+        return new JavaConnection(eventLoop, synchroniseReads, watcher, null);
+    }
+
+    /**
+     * Creates a new JavaConnection which, rather than having a thread of its own,
+     * shares the threads of the given {@link JavaSelectorPool}.
+     * @param eventLoop the EventLoop for read and write events to be posted to
+     * @param synchroniseReads if true then data will not be read from the connection
+     * until the previous read has been processed by the EventLoop
+     * @param selectorPool the pool whose threads will service this connection, not null
+     * @return a new JavaConnection
+     */
+    public static JavaConnection create(EventLoop eventLoop, boolean synchroniseReads, JavaSelectorPool selectorPool) {
+        return new JavaConnection(eventLoop, synchroniseReads, null, selectorPool);
     }
 
     @Override
@@ -486,6 +742,16 @@ public class JavaConnection extends Connection implements EventOwner {
 
     @Override
     public void connect(HostAddressPort address) {
+        if (selectorPool_ != null) {
+            final Worker worker = new Worker(address, selectorPool_.next());
+            worker_ = worker;
+            worker.selectorThread_.execute(new Runnable() {
+                public void run() {
+                    worker.startPooledConnect();
+                }
+            });
+            return;
+        }
         worker_ = new Worker(address, watcher_);
         Thread workerThread = new Thread(worker_);
         workerThread.setDaemon(true);
@@ -503,7 +769,11 @@ public class JavaConnection extends Connection implements EventOwner {
 
     @Override
     public void write(SafeByteArray data) {
-        worker_.queueWrite(data.getData());
+        final boolean full = handleBytesQueued(data.getSize());
+        worker_.queueWrite(data.toByteBuffers());
+        if (full) {
+            onWriteQueueFull.emit();
+        }
     }
 
     @Override
@@ -523,6 +793,15 @@ public class JavaConnection extends Connection implements EventOwner {
         return worker_.getRemoteAddress();
     }
     
+    /**
+     * @return the selector thread servicing this connection, or null if it
+     * has its own thread or hasn't been connected
+     */
+    JavaSelectorPool.SelectorThread getSelectorThread() {
+        final Worker worker = worker_;
+        return worker == null ? null : worker.selectorThread_;
+    }
+
     @Override
     public String toString()
     {
@@ -531,11 +810,15 @@ public class JavaConnection extends Connection implements EventOwner {
         (disconnecting_ ? " (disconnecting)" : "");
     }
     
+    /** Most buffers given to a single gathering write */
+    private static final int MAX_BUFFERS_PER_WRITE = 1024;
+
     private final EventLoop eventLoop_;
     private volatile boolean disconnecting_ = false;
     private SocketChannel socketChannel_;
     private Worker worker_;
     private final boolean synchroniseReads_;
     private final ActivityWatcher watcher_;
+    private final JavaSelectorPool selectorPool_;
 
 }
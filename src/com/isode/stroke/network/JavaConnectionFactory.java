@@ -15,12 +15,27 @@ import com.isode.stroke.eventloop.EventLoop;
 public class JavaConnectionFactory implements ConnectionFactory {
 
     public JavaConnectionFactory(EventLoop eventLoop) {
+        this(eventLoop, null);
+    }
+
+    /**
+     * Create a factory whose connections share the threads of a
+     * {@link JavaSelectorPool}, rather than each having a thread of their own.
+     * @param eventLoop the EventLoop for connection events to be posted to
+     * @param selectorPool the pool to use, or null for a thread per connection
+     */
+    public JavaConnectionFactory(EventLoop eventLoop, JavaSelectorPool selectorPool) {
         this.eventLoop = eventLoop;
+        this.selectorPool = selectorPool;
     }
 
     public Connection createConnection() {
+        if (selectorPool != null) {
+            return JavaConnection.create(eventLoop, false, selectorPool);
+        }
         return JavaConnection.create(eventLoop);
     }
 
     private final EventLoop eventLoop;
+    private final JavaSelectorPool selectorPool;
 }
@@ -15,13 +15,23 @@ import com.isode.stroke.idn.ICUConverter;
 public class JavaNetworkFactories implements NetworkFactories {
 
     public JavaNetworkFactories(EventLoop eventLoop) {
+        this(eventLoop, null);
+    }
+
+    /**
+     * @param eventLoop the EventLoop to use
+     * @param selectorPool pool of selector threads to be shared by connections,
+     * or null for connections to have a thread each
+     */
+    public JavaNetworkFactories(EventLoop eventLoop, JavaSelectorPool selectorPool) {
         eventLoop_ = eventLoop;
         timers_ = new JavaTimerFactory(eventLoop_);
-        connections_ = new JavaConnectionFactory(eventLoop_);
-        platformTLSFactories_ = new PlatformTLSFactories();
+        connections_ = new JavaConnectionFactory(eventLoop_, selectorPool);
+        platformTLSFactories_ = new PlatformTLSFactories(eventLoop_);
         cryptoProvider_ = new JavaCryptoProvider();
         idnConverter_ = new ICUConverter();
-        dns_ = new PlatformDomainNameResolver(idnConverter_, eventLoop_);
+        dns_ = new CachingDomainNameResolver(
+                new PlatformDomainNameResolver(idnConverter_, eventLoop_), eventLoop_);
         proxyProvider_ = new JavaProxyProvider();
     }
 
@@ -62,7 +72,7 @@ public class JavaNetworkFactories implements NetworkFactories {
     private final EventLoop eventLoop_;
     private final JavaTimerFactory timers_;
     private final JavaConnectionFactory connections_;
-    private final PlatformDomainNameResolver dns_;
+    private final CachingDomainNameResolver dns_;
     private final PlatformTLSFactories platformTLSFactories_;
     private final ProxyProvider proxyProvider_;
     private final CryptoProvider cryptoProvider_;
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.network;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed-size pool of selector threads which can be shared between many
+ * {@link JavaConnection}s.
+ * <p>
+ * By default each JavaConnection runs its own thread with its own
+ * {@link Selector}. Applications which host a large number of connections in
+ * one JVM can instead create connections with a JavaSelectorPool, in which case
+ * each connection is assigned to one of the pool's threads, and all socket
+ * readiness events for it are handled there. Signals are still emitted via
+ * the connection's {@link com.isode.stroke.eventloop.EventLoop}.
+ */
+public class JavaSelectorPool {
+
+    /**
+     * Implemented by anything that registers a channel with one of the pool's
+     * selectors. The handler must be the {@link SelectionKey}'s attachment.
+     */
+    interface Handler {
+        /**
+         * Called from the selector thread when the key is selected.
+         * @param key the selected key, not null
+         */
+        void handleSelected(SelectionKey key);
+    }
+
+    /**
+     * One thread, and the Selector that it services.
+     */
+    static class SelectorThread implements Runnable {
+
+        private final Selector selector_;
+        private final Queue<Runnable> tasks_ = new ConcurrentLinkedQueue<Runnable>();
+        private volatile boolean running_ = true;
+        private Thread thread_;
+        private final AdaptiveReadBuffer readBuffer_ = new AdaptiveReadBuffer();
+
+        SelectorThread() throws IOException {
+            selector_ = Selector.open();
+        }
+
+        Selector getSelector() {
+            return selector_;
+        }
+
+        /**
+         * @return a read buffer to be shared by all of the connections handled
+         * by this thread. Must only be used from this thread.
+         */
+        AdaptiveReadBuffer getReadBuffer() {
+            return readBuffer_;
+        }
+
+        /**
+         * @return true if called from this selector's thread
+         */
+        boolean inSelectorThread() {
+            return Thread.currentThread() == thread_;
+        }
+
+        /**
+         * Arrange for the task to be run on the selector thread. May be called
+         * from any thread.
+         * @param task task to run, not null
+         */
+        void execute(Runnable task) {
+            tasks_.add(task);
+            /* Selector.wakeup() will make the next select() return immediately
+             * if no select is in progress, so there is no window in which a
+             * task can be missed.
+             */
+            selector_.wakeup();
+        }
+
+        public void run() {
+            while (running_) {
+                try {
+                    selector_.select();
+                } catch (ClosedSelectorException e) {
+                    break;
+                } catch (IOException e) {
+                    logger_.log(Level.WARNING, "Selector failed", e);
+                    break;
+                }
+                runTasks();
+                final Iterator<SelectionKey> keys = selector_.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        ((Handler) key.attachment()).handleSelected(key);
+                    } catch (CancelledKeyException e) {
+                        // channel closed while being handled
+                    } catch (RuntimeException e) {
+                        logger_.log(Level.WARNING, "Unexpected exception handling " + key.attachment(), e);
+                    }
+                }
+            }
+            try {
+                selector_.close();
+            } catch (IOException e) {
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks_.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger_.log(Level.WARNING, "Unexpected exception in selector task", e);
+                }
+            }
+        }
+
+        void stop() {
+            running_ = false;
+            selector_.wakeup();
+        }
+    }
+
+    /**
+     * Create a pool with one selector thread per available processor.
+     */
+    public JavaSelectorPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a pool with the given number of selector threads. The threads are
+     * daemon threads, started immediately.
+     * @param threadCount number of threads, must be at least 1
+     */
+    public JavaSelectorPool(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        threads_ = new SelectorThread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            try {
+                threads_[i] = new SelectorThread();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open selector", e);
+            }
+            final Thread thread = new Thread(threads_[i]);
+            thread.setDaemon(true);
+            thread.setName("JavaSelectorPool " + poolID_ + " thread " + i);
+            threads_[i].thread_ = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Pick the selector thread that the next connection should use.
+     * Connections are spread round-robin across the pool.
+     */
+    SelectorThread next() {
+        int index = nextThread_.getAndIncrement() % threads_.length;
+        if (index < 0) {
+            index += threads_.length;
+        }
+        return threads_[index];
+    }
+
+    /**
+     * @return the number of selector threads in the pool
+     */
+    public int getThreadCount() {
+        return threads_.length;
+    }
+
+    /**
+     * Stop all of the pool's threads. Any connections still using the pool
+     * will stop receiving data; they should be disconnected first.
+     */
+    public void shutdown() {
+        for (SelectorThread thread : threads_) {
+            thread.stop();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JavaSelectorPool " + poolID_ + " with " + threads_.length + " threads";
+    }
+
+    private static final Logger logger_ = Logger.getLogger(JavaSelectorPool.class.getName());
+    private static final AtomicInteger nextPoolID_ = new AtomicInteger();
+    private final int poolID_ = nextPoolID_.getAndIncrement();
+    private final SelectorThread[] threads_;
+    private final AtomicInteger nextThread_ = new AtomicInteger();
+}
@@ -4,95 +4,135 @@
  * See Documentation/Licenses/GPLv3.txt for more information.
  */
 /*
- * Copyright (c) 2010, Isode Limited, London, England.
+ * Copyright (c) 2010-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 package com.isode.stroke.network;
 
-import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.isode.stroke.eventloop.Event;
 import com.isode.stroke.eventloop.EventLoop;
+import com.isode.stroke.eventloop.EventOwner;
 
-class JavaTimer extends Timer {
-
-    private class TimerRunnable implements Runnable {
-
-        boolean running_ = true;
-        private final EventLoop eventLoop_;
-        private final long milliseconds_;
-
-        public TimerRunnable(EventLoop eventLoop, long milliseconds) {
-            eventLoop_ = eventLoop;
-            milliseconds_ = milliseconds;
-        }
+/**
+ * A Timer whose delays are all run on one shared scheduler thread, rather
+ * than each timer having a thread of its own. When the delay expires the
+ * tick is posted to the timer's {@link EventLoop}, and {@link #onTick} is
+ * emitted from there.
+ * <p>
+ * {@link #start()} and {@link #stop()} must be called from the EventLoop's
+ * thread, like all other use of the library.
+ */
+class JavaTimer extends Timer implements EventOwner {
 
-        public void run() {
-            long endTime = new Date().getTime() + milliseconds_;
-            while (shouldEmit() && new Date().getTime() < endTime) {
-                try {
-                    long timeToWait = endTime - new Date().getTime();
-                    if (timeToWait > 0) {
-                        Thread.sleep(milliseconds_);
-                    }
-                } catch (InterruptedException ex) {
-                    // Needs to be caught, but won't break out of the loop
-                    // unless end time reached or stop() has been called.
-                }
-            } 
-            if (shouldEmit()) {
-                eventLoop_.postEvent(new Event.Callback() {
-                    public void run() {
-                        onTick.emit();
-                    }
-                });
-            }            
-        }
+    /**
+     * Holds the default scheduler, which is only created when first needed.
+     */
+    private static class DefaultScheduler {
+        static final ScheduledExecutorService instance = createDefaultScheduler();
+    }
 
+    private static ScheduledExecutorService createDefaultScheduler() {
+        return new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "JavaTimer scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 
-        synchronized boolean shouldEmit() {
-            return running_;
-        }
+    /**
+     * @return the scheduler shared by all JavaTimers which aren't given one
+     * explicitly, not null
+     */
+    static ScheduledExecutorService getDefaultScheduler() {
+        return DefaultScheduler.instance;
+    }
 
-        public synchronized void stop() {
-            running_ = false;
-        }
+    /**
+     * Create a new JavaTimer which uses the default scheduler.
+     * @param eventLoop the caller's EventLoop. Should not be null.
+     * @param milliseconds length of delay.
+     */
+    public JavaTimer(EventLoop eventLoop, long milliseconds) {
+        this(eventLoop, milliseconds, getDefaultScheduler());
     }
 
     /**
      * Create a new JavaTimer
      * @param eventLoop the caller's EventLoop. Should not be null.
      * @param milliseconds length of delay.
+     * @param scheduler used to wait for the delay. Should not be null.
      */
-    public JavaTimer(EventLoop eventLoop, long milliseconds) {
-        timer_ = new TimerRunnable(eventLoop, milliseconds);
+    public JavaTimer(EventLoop eventLoop, long milliseconds, ScheduledExecutorService scheduler) {
+        eventLoop_ = eventLoop;
+        milliseconds_ = milliseconds;
+        scheduler_ = scheduler;
     }
 
     /**
      * Start the timer running. The timer will expire and generate a signal
      * after the specified delay, unless {@link #stop()} has been called.
+     * Starting a timer which is already running restarts the delay.
      */
     @Override
     public void start() {
-        Thread thread = (new Thread(timer_));
-        thread.setDaemon(true);
-        thread.start();
+        cancel();
+        final int generation = generation_;
+        future_ = scheduler_.schedule(new Runnable() {
+            public void run() {
+                eventLoop_.postEvent(new Event.Callback() {
+                    public void run() {
+                        handleExpired(generation);
+                    }
+                }, JavaTimer.this);
+            }
+        }, milliseconds_, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Cancel the timer. No signal will be generated.
+     * Cancel the timer. No signal will be generated, even if the delay
+     * has already expired and the tick is waiting in the EventLoop.
      */
     @Override
     public void stop() {
-        timer_.stop();
-        //FIXME: This needs to clear any remaining events out of the EventLoop queue.
+        cancel();
+        eventLoop_.removeEventsFromOwner(this);
     }
-    
+
+    private void cancel() {
+        if (future_ != null) {
+            future_.cancel(false);
+            future_ = null;
+        }
+        // Any tick which is already on its way to the EventLoop is now stale
+        generation_++;
+    }
+
+    private void handleExpired(int generation) {
+        if (generation != generation_) {
+            return;
+        }
+        future_ = null;
+        onTick.emit();
+    }
+
     @Override
     public String toString() {
-        return "JavaTimer for " + timer_.milliseconds_ + 
-        " milliseconds " + 
-        (timer_.running_ ? "running" : "not running"); 
+        return "JavaTimer for " + milliseconds_ +
+        " milliseconds " +
+        (future_ != null ? "running" : "not running");
     }
-    private final TimerRunnable timer_;
+
+    private final EventLoop eventLoop_;
+    private final long milliseconds_;
+    private final ScheduledExecutorService scheduler_;
+    private ScheduledFuture<?> future_;
+    private int generation_;
 }
@@ -4,24 +4,42 @@
  * See Documentation/Licenses/GPLv3.txt for more information.
  */
 /*
- * Copyright (c) 2010-2012, Isode Limited, London, England.
+ * Copyright (c) 2010-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 
 package com.isode.stroke.network;
 
+import java.util.concurrent.ScheduledExecutorService;
+
 import com.isode.stroke.eventloop.EventLoop;
 
 public class JavaTimerFactory implements TimerFactory {
 
+    /**
+     * Create a factory whose timers share a single scheduler thread with all
+     * other JavaTimerFactories.
+     * @param eventLoop loop to which timer ticks are posted, not null
+     */
     public JavaTimerFactory(EventLoop eventLoop) {
+        this(eventLoop, JavaTimer.getDefaultScheduler());
+    }
+
+    /**
+     * @param eventLoop loop to which timer ticks are posted, not null
+     * @param scheduler used to wait for timers' delays, not null. Its tasks
+     * only post to the EventLoop, so a single thread can serve many timers.
+     */
+    public JavaTimerFactory(EventLoop eventLoop, ScheduledExecutorService scheduler) {
         eventLoop_ = eventLoop;
+        scheduler_ = scheduler;
     }
 
     public Timer createTimer(long milliseconds) {
-        return new JavaTimer(eventLoop_, milliseconds);
+        return new JavaTimer(eventLoop_, milliseconds, scheduler_);
     }
 
     private final EventLoop eventLoop_;
+    private final ScheduledExecutorService scheduler_;
 
 }
@@ -48,7 +48,7 @@ public class PlatformDomainNameServiceQuery extends DomainNameServiceQuery {
                             final SRVRecord srv = (SRVRecord) record;
                             final Result result = new Result(srv.getTarget()
                                 .toString(), srv.getPort(), srv.getPriority(),
-                                srv.getWeight());
+                                srv.getWeight(), srv.getTTL());
                             results.add(result);
                         }
                     }
@@ -99,10 +99,33 @@ public abstract class ProxiedConnection extends Connection {
 	    return connection_.getRemoteAddress();
 	}
 
+	@Override
+	public long getQueuedBytes() {
+		return connection_ != null ? connection_.getQueuedBytes() : 0;
+	}
+
+	@Override
+	public boolean isWriteQueueFull() {
+		return connection_ != null && connection_.isWriteQueueFull();
+	}
+
+	/**
+	 * The watermarks are remembered, and given to the connection to the
+	 * proxy once there is one.
+	 */
+	@Override
+	public void setWriteWatermarks(long lowWatermark, long highWatermark) {
+		super.setWriteWatermarks(lowWatermark, highWatermark);
+		if (connection_ != null) {
+			connection_.setWriteWatermarks(lowWatermark, highWatermark);
+		}
+	}
+
 	private void handleConnectFinished(Connection connection) {
 		cancelConnector();
 		if (connection != null) {
 			connection_ = connection;
+			connection_.setWriteWatermarks(getLowWatermark(), getHighWatermark());
 			connection_.onDataRead.connect(new Slot1<SafeByteArray>() {
 				@Override
 				public void call(SafeByteArray s) {
@@ -115,6 +138,8 @@ public abstract class ProxiedConnection extends Connection {
 					handleDisconnected(e);
 				}
 			});
+			connection_.onWriteQueueFull.connect(onWriteQueueFull);
+			connection_.onWritable.connect(onWritable);
 
 			initializeProxy();
 		}
@@ -82,6 +82,8 @@ public class TLSConnection extends Connection {
 				handleRawDisconnected(e);
 			}
 		});
+		connection.onWriteQueueFull.connect(onWriteQueueFull);
+		connection.onWritable.connect(onWritable);
 	}
 
 	protected void finalize() throws Throwable {
@@ -123,6 +125,21 @@ public class TLSConnection extends Connection {
 	public HostAddressPort getLocalAddress() {
 		return connection.getLocalAddress();
 	}
+
+	@Override
+	public long getQueuedBytes() {
+		return connection.getQueuedBytes();
+	}
+
+	@Override
+	public boolean isWriteQueueFull() {
+		return connection.isWriteQueueFull();
+	}
+
+	@Override
+	public void setWriteWatermarks(long lowWatermark, long highWatermark) {
+		connection.setWriteWatermarks(lowWatermark, highWatermark);
+	}
 	
 	@Override
 	public HostAddressPort getRemoteAddress() {
@@ -141,7 +158,13 @@ public class TLSConnection extends Connection {
 			onConnectFinished.emit(true);
 		}
 		else {
-			context.connect();
+			HostAddressPort remoteAddress = connection.getRemoteAddress();
+			if (remoteAddress != null && remoteAddress.getAddress().isValid()) {
+				context.connect(remoteAddress.getAddress().toString(), remoteAddress.getPort());
+			}
+			else {
+				context.connect();
+			}
 		}
 	}
 
@@ -35,13 +35,25 @@ class AaltoXMLParser extends XMLParser {
         if (data.isEmpty()) {
             return false;
         }
-        final AsyncInputFeeder inputFeeder = xmlReader_.getInputFeeder();
         final byte[] xmlBytes = new ByteArray(data).getData();
+        return parse(xmlBytes, 0, xmlBytes.length);
+    }
+
+    /**
+     * Parse UTF-8 encoded data, passing the bytes straight to the Aalto
+     * parser without decoding them first.
+     */
+    @Override
+    public boolean parse(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return false;
+        }
+        final AsyncInputFeeder inputFeeder = xmlReader_.getInputFeeder();
         int type = 0;
         boolean error = false;
 
         try {
-            inputFeeder.feedInput(xmlBytes, 0, xmlBytes.length);
+            inputFeeder.feedInput(data, offset, length);
         } catch (XMLStreamException ex) {
             error = true;
             /* This is an unexpected error */
@@ -54,10 +66,11 @@ class AaltoXMLParser extends XMLParser {
                 switch (type) {
                     case XMLStreamConstants.START_ELEMENT:
                         name = xmlReader_.getName();
-                        AttributeMap attributes = new AttributeMap();
-                        for (int i = 0; i < xmlReader_.getAttributeCount(); i++) {
-                            QName attributeName = xmlReader_.getAttributeName(i);
-                            attributes.addAttribute(attributeName.getLocalPart(), attributeName.getNamespaceURI(), xmlReader_.getAttributeValue(i));
+                        final int attributeCount = xmlReader_.getAttributeCount();
+                        AttributeMap attributes = new AttributeMap(attributeCount);
+                        for (int i = 0; i < attributeCount; i++) {
+                            final String attributeNS = xmlReader_.getAttributeNamespace(i);
+                            attributes.addAttribute(xmlReader_.getAttributeLocalName(i), attributeNS != null ? attributeNS : "", xmlReader_.getAttributeValue(i));
                         }
                         getClient().handleStartElement(name.getLocalPart(), name.getNamespaceURI(), attributes);
                         break;
@@ -85,5 +98,12 @@ class AaltoXMLParser extends XMLParser {
         return !error;
     }
 
-    
+    /**
+     * The async reader counts the bytes it has been fed as its character
+     * offset, and reports the offset reached at the end of each event.
+     */
+    @Override
+    public long getCurrentByteOffset() {
+        return xmlReader_.getLocation().getCharacterOffset();
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2010-2015, Isode Limited, London, England.
+ * Copyright (c) 2010-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 package com.isode.stroke.parser;
@@ -10,6 +10,10 @@ import java.util.List;
 
 /**
  * XML element attributes.
+ * <p>
+ * Attributes are held in parallel arrays, in the order they were added, so
+ * adding an attribute allocates no per-attribute objects, and looking one up
+ * allocates nothing.
  */
 public class AttributeMap {
 
@@ -37,6 +41,16 @@ public class AttributeMap {
     };
 
     public AttributeMap() {
+        this(0);
+    }
+
+    /**
+     * @param capacity number of attributes to make room for
+     */
+    public AttributeMap(int capacity) {
+        names_ = capacity == 0 ? NO_STRINGS : new String[capacity];
+        namespaces_ = capacity == 0 ? NO_STRINGS : new String[capacity];
+        values_ = capacity == 0 ? NO_STRINGS : new String[capacity];
     }
 
     /** Not null */
@@ -83,24 +97,87 @@ public class AttributeMap {
         NotNull.exceptIfNull(name, "name");
         NotNull.exceptIfNull(ns, "ns");
         NotNull.exceptIfNull(value, "value");
-        attributes.add(new Entry(new Attribute(name, ns), value));
+        if (size_ == names_.length) {
+            final int capacity = Math.max(4, size_ * 2);
+            names_ = copyOf(names_, capacity);
+            namespaces_ = copyOf(namespaces_, capacity);
+            values_ = copyOf(values_, capacity);
+        }
+        names_[size_] = name;
+        namespaces_[size_] = ns;
+        values_[size_] = value;
+        size_++;
+    }
+
+    /**
+     * @return the number of attributes
+     */
+    public int getSize() {
+        return size_;
+    }
+
+    /**
+     * @param index index of the attribute, from 0 to {@link #getSize()} - 1
+     * @return the attribute's name, not null
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names_[index];
+    }
+
+    /**
+     * @param index index of the attribute, from 0 to {@link #getSize()} - 1
+     * @return the attribute's namespace, not null
+     */
+    public String getNamespace(int index) {
+        checkIndex(index);
+        return namespaces_[index];
+    }
+
+    /**
+     * @param index index of the attribute, from 0 to {@link #getSize()} - 1
+     * @return the attribute's value, not null
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        return values_[index];
     }
 
     /**
      * Internal method (used for unit tests).
      */
     public List<Entry> getEntries() {
-        return new ArrayList<Entry>(attributes);
+        final List<Entry> entries = new ArrayList<Entry>(size_);
+        for (int i = 0; i < size_; i++) {
+            entries.add(new Entry(new Attribute(names_[i], namespaces_[i]), values_[i]));
+        }
+        return entries;
     }
 
     private String getInternal(String name, String ns) {
-        Attribute attribute = new Attribute(name, ns);
-        for (Entry entry : attributes) {
-            if (entry.getAttribute().equals(attribute)) {
-                return entry.value;
+        for (int i = 0; i < size_; i++) {
+            if (names_[i].equals(name) && namespaces_[i].equals(ns)) {
+                return values_[i];
             }
         }
         return null;
     }
-    private final List<Entry> attributes = new ArrayList<Entry>();
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size_) {
+            throw new IndexOutOfBoundsException("Attribute index " + index + " out of range 0-" + size_);
+        }
+    }
+
+    private static String[] copyOf(String[] original, int capacity) {
+        final String[] copy = new String[capacity];
+        System.arraycopy(original, 0, copy, 0, original.length);
+        return copy;
+    }
+
+    private static final String[] NO_STRINGS = new String[0];
+    private String[] names_;
+    private String[] namespaces_;
+    private String[] values_;
+    private int size_ = 0;
 }
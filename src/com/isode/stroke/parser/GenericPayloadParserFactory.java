@@ -6,9 +6,21 @@ package com.isode.stroke.parser;
 
 public class GenericPayloadParserFactory<T extends PayloadParser> implements PayloadParserFactory {
 
+    /**
+     * Creates parsers for a {@link GenericPayloadParserFactory}, without
+     * the cost of reflection.
+     */
+    public interface Creator<T extends PayloadParser> {
+        /**
+         * @return a new parser, not null
+         */
+        T create();
+    }
+
     private final String tag_;
     private final String xmlns_;
     private final Class<? extends PayloadParser> payloadClass_;
+    private final Creator<? extends T> creator_;
 
     public GenericPayloadParserFactory(final String tag, final Class<? extends PayloadParser> payloadClass) {
         this(tag, "", payloadClass);
@@ -18,6 +30,43 @@ public class GenericPayloadParserFactory<T extends PayloadParser> implements Pay
         tag_ = tag;
         xmlns_ = xmlns;
         payloadClass_ = payloadClass;
+        creator_ = null;
+    }
+
+    /**
+     * Construct a parser factory that can parse the given top-level tag in
+     * any namespace, and which uses creator to create the parsers.
+     */
+    public GenericPayloadParserFactory(final String tag, final Creator<? extends T> creator) {
+        this(tag, "", creator);
+    }
+
+    /**
+     * Construct a parser factory that can parse the given top-level tag in
+     * the given namespace, and which uses creator to create the parsers.
+     */
+    public GenericPayloadParserFactory(final String tag, final String xmlns, final Creator<? extends T> creator) {
+        tag_ = tag;
+        xmlns_ = xmlns;
+        payloadClass_ = null;
+        creator_ = creator;
+    }
+
+    String getTag() {
+        return tag_;
+    }
+
+    String getXMLNS() {
+        return xmlns_;
+    }
+
+    /**
+     * @return true if {@link #canParse} only compares the element and
+     * namespace, so that {@link PayloadParserFactoryCollection} can look
+     * this factory up by them
+     */
+    boolean hasDefaultCanParse() {
+        return PayloadParserFactoryCollection.declaresCanParse(getClass(), GenericPayloadParserFactory.class);
     }
 
     public boolean canParse(final String element, final String ns, final AttributeMap attributes) {
@@ -25,6 +74,9 @@ public class GenericPayloadParserFactory<T extends PayloadParser> implements Pay
     }
 
     public final PayloadParser createPayloadParser() {
+        if (creator_ != null) {
+            return creator_.create();
+        }
         try {
             return (PayloadParser) payloadClass_.newInstance();
         } catch (InstantiationException ex) {
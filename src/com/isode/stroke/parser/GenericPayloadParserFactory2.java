@@ -12,22 +12,60 @@ package com.isode.stroke.parser;
 import java.lang.reflect.InvocationTargetException;
 
 public class GenericPayloadParserFactory2<T extends PayloadParser> implements PayloadParserFactory {
+
+    /**
+     * Creates parsers for a {@link GenericPayloadParserFactory2}, without
+     * the cost of reflection.
+     */
+    public interface Creator<T extends PayloadParser> {
+        /**
+         * @param parsers the factory's collection, to be used by the new
+         * parser for its child payloads
+         * @return a new parser, not null
+         */
+        T create(PayloadParserFactoryCollection parsers);
+    }
     
     /**
      * Construct a parser factory that can parse the given top-level tag in the given namespace.
      */
     public GenericPayloadParserFactory2(String tag, String xmlns, PayloadParserFactoryCollection parsers, final Class<? extends PayloadParser> payloadClass) {
         class_ = payloadClass;
+        creator_ = null;
+        tag_ = tag;
+        xmlns_ = xmlns;
+        parsers_ = parsers;
+    }
+
+    /**
+     * Construct a parser factory that can parse the given top-level tag in
+     * the given namespace, and which uses creator to create the parsers.
+     */
+    public GenericPayloadParserFactory2(String tag, String xmlns, PayloadParserFactoryCollection parsers, final Creator<? extends T> creator) {
+        class_ = null;
+        creator_ = creator;
         tag_ = tag;
         xmlns_ = xmlns;
         parsers_ = parsers;
     }
     
     public boolean canParse(String element, String ns, AttributeMap attributes) {
-        return (tag_.isEmpty() ? true : element == tag_) && (xmlns_.isEmpty() ? true : xmlns_ == ns);
+        return (tag_.isEmpty() ? true : tag_.equals(element)) && (xmlns_.isEmpty() ? true : xmlns_.equals(ns));
+    }
+
+    /**
+     * @return true if {@link #canParse} only compares the element and
+     * namespace, so that {@link PayloadParserFactoryCollection} can look
+     * this factory up by them
+     */
+    boolean hasDefaultCanParse() {
+        return PayloadParserFactoryCollection.declaresCanParse(getClass(), GenericPayloadParserFactory2.class);
     }
     
     public PayloadParser createPayloadParser() {
+        if (creator_ != null) {
+            return creator_.create(parsers_);
+        }
         try {
             return (PayloadParser)class_.getConstructor(PayloadParserFactoryCollection.class).newInstance(parsers_);
         } catch (InstantiationException e) {
@@ -50,4 +88,5 @@ public class GenericPayloadParserFactory2<T extends PayloadParser> implements Pa
     String xmlns_;
     PayloadParserFactoryCollection parsers_;
     Class<? extends PayloadParser> class_;
+    Creator<? extends T> creator_;
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.isode.stroke.elements.LazyPayload;
+import com.isode.stroke.elements.Payload;
+import com.isode.stroke.serializer.xml.XMLWriter;
+
+/**
+ * Collection of parser factories which defers the parsing of payloads.
+ * <p>
+ * Payloads are parsed as soon as they are received only if they have been
+ * added with {@link #addEagerPayload}. All others are held as
+ * {@link LazyPayload}s, and parsed by the {@link com.isode.stroke.elements.Stanza}
+ * only when a payload of a type they may contain is asked for. Applications
+ * which only forward stanzas, or only look at a few of their payloads, can
+ * use this in place of the collection they would otherwise give to their
+ * session, to save the cost of parsing the others.
+ * <p>
+ * Only the stanza's top-level payloads are deferred. Once a payload is
+ * parsed, all of its children are parsed with it.
+ */
+public class LazyPayloadParserFactoryCollection extends PayloadParserFactoryCollection {
+
+    /**
+     * @param parsers the factories used to parse the payloads, not null
+     */
+    public LazyPayloadParserFactoryCollection(PayloadParserFactoryCollection parsers) {
+        parsers_ = parsers;
+    }
+
+    /**
+     * Have payloads with the given element and namespace parsed as soon as
+     * they are received. This should be called before the collection is
+     * used.
+     * @param element element name, or "" for any element in the namespace
+     * @param ns namespace, not null
+     */
+    public void addEagerPayload(String element, String ns) {
+        synchronized (eagerPayloads_) {
+            Set<String> elements = eagerPayloads_.get(ns);
+            if (elements == null) {
+                elements = new HashSet<String>();
+                eagerPayloads_.put(ns, elements);
+            }
+            elements.add(element);
+        }
+    }
+
+    @Override
+    public void addFactory(PayloadParserFactory factory) {
+        parsers_.addFactory(factory);
+    }
+
+    @Override
+    public void removeFactory(PayloadParserFactory factory) {
+        parsers_.removeFactory(factory);
+    }
+
+    @Override
+    public void setDefaultFactory(PayloadParserFactory factory) {
+        parsers_.setDefaultFactory(factory);
+    }
+
+    @Override
+    public PayloadParserFactory getPayloadParserFactory(String element, String ns, AttributeMap attributes) {
+        final PayloadParserFactory factory = parsers_.getPayloadParserFactory(element, ns, attributes);
+        if (factory == null || isEager(element, ns)) {
+            return factory;
+        }
+        return new PayloadParserFactory() {
+            public boolean canParse(String element, String ns, AttributeMap attributes) {
+                return true;
+            }
+
+            public PayloadParser createPayloadParser() {
+                return new DeferringParser(factory);
+            }
+        };
+    }
+
+    private boolean isEager(String element, String ns) {
+        synchronized (eagerPayloads_) {
+            final Set<String> elements = eagerPayloads_.get(ns);
+            return elements != null && (elements.contains(element) || elements.contains(""));
+        }
+    }
+
+    /**
+     * @return the class of payload created by the factory's parsers, or null
+     * if it isn't known until they have parsed something
+     */
+    private Class<? extends Payload> getPayloadClass(PayloadParserFactory factory) {
+        synchronized (payloadClasses_) {
+            if (payloadClasses_.containsKey(factory)) {
+                return payloadClasses_.get(factory);
+            }
+            final Payload payload = factory.createPayloadParser().getPayload();
+            final Class<? extends Payload> payloadClass = payload != null ? payload.getClass() : null;
+            payloadClasses_.put(factory, payloadClass);
+            return payloadClass;
+        }
+    }
+
+    /**
+     * Captures a payload as XML, for it to be parsed later.
+     * <p>
+     * The XML is written as it is received, rather than built into a tree
+     * first. Namespaces are kept: an element's xmlns is only written where it
+     * differs from its parent's, and attributes in a namespace are written
+     * with the "xml" prefix or with a prefix declared for them, although not
+     * necessarily the prefix they were received with.
+     */
+    private class DeferringParser implements PayloadParser {
+        private final PayloadParserFactory factory_;
+        private final XMLWriter writer_ = new XMLWriter();
+        /* The namespace of each open element */
+        private final List<String> elementNamespaces_ = new ArrayList<String>();
+        /* The namespaces with prefixes declared by open elements; the prefix
+         * of each is "ns" followed by its index */
+        private final List<String> prefixedNamespaces_ = new ArrayList<String>();
+        /* The number of prefixedNamespaces_ when each open element started */
+        private final List<Integer> prefixedNamespaceCounts_ = new ArrayList<Integer>();
+        private DeferredPayload payload_;
+
+        DeferringParser(PayloadParserFactory factory) {
+            factory_ = factory;
+        }
+
+        public void handleStartElement(String element, String ns, AttributeMap attributes) {
+            final int level = elementNamespaces_.size();
+            writer_.startElement(element);
+            if (level == 0 || !ns.equals(elementNamespaces_.get(level - 1))) {
+                writer_.attribute("xmlns", ns);
+            }
+            prefixedNamespaceCounts_.add(prefixedNamespaces_.size());
+            for (int i = 0; i < attributes.getSize(); i++) {
+                final String attributeNS = attributes.getNamespace(i);
+                final String name = attributes.getName(i);
+                if (attributeNS.length() == 0) {
+                    writer_.attribute(name, attributes.getValue(i));
+                }
+                else if (attributeNS.equals(XML_NAMESPACE)) {
+                    writer_.attribute("xml:" + name, attributes.getValue(i));
+                }
+                else {
+                    int index = prefixedNamespaces_.lastIndexOf(attributeNS);
+                    if (index < 0) {
+                        index = prefixedNamespaces_.size();
+                        prefixedNamespaces_.add(attributeNS);
+                        writer_.attribute("xmlns:ns" + index, attributeNS);
+                    }
+                    writer_.attribute("ns" + index + ":" + name, attributes.getValue(i));
+                }
+            }
+            elementNamespaces_.add(ns);
+        }
+
+        public void handleEndElement(String element, String ns) {
+            writer_.endElement();
+            final int level = elementNamespaces_.size() - 1;
+            elementNamespaces_.remove(level);
+            final int prefixedNamespaceCount = prefixedNamespaceCounts_.remove(level);
+            while (prefixedNamespaces_.size() > prefixedNamespaceCount) {
+                prefixedNamespaces_.remove(prefixedNamespaces_.size() - 1);
+            }
+            if (level == 0) {
+                payload_ = new DeferredPayload(writer_.toString(), factory_);
+            }
+        }
+
+        public void handleCharacterData(String data) {
+            writer_.text(data);
+        }
+
+        public Payload getPayload() {
+            return payload_;
+        }
+    }
+
+    /**
+     * A payload held as XML, which is parsed with the factory that would
+     * have parsed it when it was received.
+     */
+    private class DeferredPayload extends LazyPayload {
+        private final PayloadParserFactory factory_;
+        private boolean parsed_ = false;
+        private Payload payload_;
+
+        DeferredPayload(String rawXML, PayloadParserFactory factory) {
+            super(rawXML);
+            factory_ = factory;
+        }
+
+        @Override
+        public Class<? extends Payload> getPayloadClass() {
+            return LazyPayloadParserFactoryCollection.this.getPayloadClass(factory_);
+        }
+
+        @Override
+        public synchronized Payload parse() {
+            if (!parsed_) {
+                parsed_ = true;
+                final PayloadParser parser = factory_.createPayloadParser();
+                final XMLParser xmlParser = PlatformXMLParserFactory.createXMLParser(new XMLParserClient() {
+                    public void handleStartElement(String element, String ns, AttributeMap attributes) {
+                        parser.handleStartElement(element, ns, attributes);
+                    }
+
+                    public void handleEndElement(String element, String ns) {
+                        parser.handleEndElement(element, ns);
+                    }
+
+                    public void handleCharacterData(String data) {
+                        parser.handleCharacterData(data);
+                    }
+                });
+                if (xmlParser.parse(getRawXML())) {
+                    payload_ = parser.getPayload();
+                }
+            }
+            return payload_;
+        }
+    }
+
+    private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+    private final PayloadParserFactoryCollection parsers_;
+    private final Map<String, Set<String>> eagerPayloads_ = new HashMap<String, Set<String>>();
+    private final Map<PayloadParserFactory, Class<? extends Payload>> payloadClasses_ = new HashMap<PayloadParserFactory, Class<? extends Payload>>();
+}
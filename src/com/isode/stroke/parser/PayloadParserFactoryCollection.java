@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2010, Isode Limited, London, England.
+ * Copyright (c) 2010-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 /*
@@ -8,25 +8,152 @@
  */
 package com.isode.stroke.parser;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 /**
  * Collection of parser factories.
+ * <p>
+ * When more than one factory can parse an element, the one which was added
+ * first is used. Factories which only match on element name and namespace
+ * ({@link GenericPayloadParserFactory} and {@link GenericPayloadParserFactory2})
+ * are found with a hash lookup. Other factories are asked in turn whether
+ * they can parse the element.
  */
 public class PayloadParserFactoryCollection {
 
+    /**
+     * A factory, and its position in the order in which factories were added.
+     */
+    private static class Entry {
+        final int order;
+        final PayloadParserFactory factory;
+
+        Entry(int order, PayloadParserFactory factory) {
+            this.order = order;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the factories, rebuilt after they change, so
+     * that lookups don't need to lock.
+     */
+    private static class Index {
+        /* For each key, only the first factory added is kept, as later ones can never be chosen */
+        final Map<String, Map<String, Entry>> byNSAndElement = new HashMap<String, Map<String, Entry>>();
+        final Map<String, Entry> byElement = new HashMap<String, Entry>();
+        final Map<String, Entry> byNS = new HashMap<String, Entry>();
+        /* Factories which must be asked, in the order they were added */
+        final List<Entry> others = new ArrayList<Entry>();
+
+        Index(List<PayloadParserFactory> factories) {
+            for (int i = 0; i < factories.size(); i++) {
+                final PayloadParserFactory factory = factories.get(i);
+                final Entry entry = new Entry(i, factory);
+                String tag = null;
+                String xmlns = null;
+                if (factory instanceof GenericPayloadParserFactory
+                        && ((GenericPayloadParserFactory<?>) factory).hasDefaultCanParse()) {
+                    tag = ((GenericPayloadParserFactory<?>) factory).getTag();
+                    xmlns = ((GenericPayloadParserFactory<?>) factory).getXMLNS();
+                }
+                else if (factory instanceof GenericPayloadParserFactory2
+                        && ((GenericPayloadParserFactory2<?>) factory).hasDefaultCanParse()) {
+                    tag = ((GenericPayloadParserFactory2<?>) factory).tag_;
+                    xmlns = ((GenericPayloadParserFactory2<?>) factory).xmlns_;
+                }
+
+                if (tag == null || (tag.isEmpty() && xmlns.isEmpty())) {
+                    others.add(entry);
+                }
+                else if (tag.isEmpty()) {
+                    putIfAbsent(byNS, xmlns, entry);
+                }
+                else if (xmlns.isEmpty()) {
+                    putIfAbsent(byElement, tag, entry);
+                }
+                else {
+                    Map<String, Entry> byElementInNS = byNSAndElement.get(xmlns);
+                    if (byElementInNS == null) {
+                        byElementInNS = new HashMap<String, Entry>();
+                        byNSAndElement.put(xmlns, byElementInNS);
+                    }
+                    putIfAbsent(byElementInNS, tag, entry);
+                }
+            }
+        }
+
+        private static void putIfAbsent(Map<String, Entry> map, String key, Entry entry) {
+            if (!map.containsKey(key)) {
+                map.put(key, entry);
+            }
+        }
+
+        PayloadParserFactory find(String element, String ns, AttributeMap attributes) {
+            Entry best = null;
+            final Map<String, Entry> byElementInNS = byNSAndElement.get(ns);
+            if (byElementInNS != null) {
+                best = byElementInNS.get(element);
+            }
+            best = earliest(best, byElement.get(element));
+            best = earliest(best, byNS.get(ns));
+            for (Entry entry : others) {
+                if (best != null && entry.order > best.order) {
+                    break;
+                }
+                if (entry.factory.canParse(element, ns, attributes)) {
+                    best = entry;
+                    break;
+                }
+            }
+            return best != null ? best.factory : null;
+        }
+
+        private static Entry earliest(Entry a, Entry b) {
+            if (a == null) {
+                return b;
+            }
+            if (b == null) {
+                return a;
+            }
+            return a.order <= b.order ? a : b;
+        }
+    }
+
+    /**
+     * @return true if the implementation of canParse used by factoryClass is
+     * the one in baseClass
+     */
+    static boolean declaresCanParse(Class<?> factoryClass, Class<?> baseClass) {
+        try {
+            return factoryClass.getMethod("canParse", String.class, String.class, AttributeMap.class).getDeclaringClass() == baseClass;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     private final Vector<PayloadParserFactory> factories_ = new Vector<PayloadParserFactory>();
+    /* Built when first needed after the factories change */
+    private volatile Index index_ = null;
     private PayloadParserFactory defaultFactory_ = null;
 
     public void addFactory(PayloadParserFactory factory) {
         synchronized (factories_) {
             factories_.add(factory);
+            index_ = null;
         }
     }
 
     public void removeFactory(PayloadParserFactory factory) {
-        while(factories_.contains(factory)) {
-            factories_.remove(factory);
+        synchronized (factories_) {
+            while(factories_.contains(factory)) {
+                factories_.remove(factory);
+            }
+            index_ = null;
         }
     }
 
@@ -35,13 +162,16 @@ public class PayloadParserFactoryCollection {
     }
 
     public PayloadParserFactory getPayloadParserFactory(String element, String ns, AttributeMap attributes) {
-        synchronized(factories_) {
-            for (PayloadParserFactory factory : factories_) {
-                if (factory.canParse(element, ns, attributes)) {
-                    return factory;
+        Index index = index_;
+        if (index == null) {
+            synchronized (factories_) {
+                if (index_ == null) {
+                    index_ = new Index(factories_);
                 }
+                index = index_;
             }
         }
-        return defaultFactory_;
+        final PayloadParserFactory factory = index.find(element, ns, attributes);
+        return factory != null ? factory : defaultFactory_;
     }
 }
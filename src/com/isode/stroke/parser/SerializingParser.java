@@ -20,8 +20,8 @@ public class SerializingParser {
     public void handleStartElement(String tag, String ns, AttributeMap attributes) {
         XMLElement element = new XMLElement(tag, ns);
         //FIXME: Ignoring attribute namespace
-        for (AttributeMap.Entry e : attributes.getEntries()) {
-            element.setAttribute(e.getAttribute().getName(), e.getValue());
+        for (int i = 0; i < attributes.getSize(); i++) {
+            element.setAttribute(attributes.getName(i), attributes.getValue(i));
         }
 
         if (elementStack_.isEmpty()) {
@@ -9,6 +9,8 @@
 
 package com.isode.stroke.parser;
 
+import java.nio.charset.Charset;
+
 public abstract class XMLParser {
     private final XMLParserClient client_;
 
@@ -18,6 +20,34 @@ public abstract class XMLParser {
 
     public abstract boolean parse(String data);
 
+    /**
+     * Parse UTF-8 encoded data. Implementations which can consume bytes
+     * directly should override this, to avoid decoding the data to a String
+     * first.
+     * @param data array containing the data, not null. It is not modified,
+     * and is not referenced after the call returns.
+     * @param offset offset of the first byte to parse
+     * @param length number of bytes to parse
+     * @return false if the data could not be parsed
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        return parse(new String(data, offset, length, UTF8));
+    }
+
+    /**
+     * Called by the client while it is handling an event, to find out how
+     * far through the data the event ends. Parsers which can't tell
+     * return -1, which is what this implementation does.
+     * @return the number of bytes of UTF-8 data given to this parser, from
+     * the first call to parse onwards, up to the end of the event being
+     * handled, or -1 if this isn't known
+     */
+    public long getCurrentByteOffset() {
+        return -1;
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     protected XMLParserClient getClient() {
         return client_;
     }
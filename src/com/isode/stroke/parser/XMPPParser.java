@@ -4,7 +4,9 @@
  */
 package com.isode.stroke.parser;
 
+import com.isode.stroke.base.ByteArray;
 import com.isode.stroke.elements.ProtocolHeader;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 public class XMPPParser implements XMLParserClient {
@@ -19,6 +21,17 @@ public class XMPPParser implements XMLParserClient {
     private final int TopLevel = 0;
     private final int StreamLevel = 1;
     private final int ElementLevel = 2;
+    private XMPPParserLimits limits_ = new XMPPParserLimits();
+    /* Bytes given to the XML parser so far */
+    private long bytesParsed_ = 0;
+    /* Offset at which the last event handled ended */
+    private long lastEventOffset_ = 0;
+    /* Offset at which the current top-level element started */
+    private long elementStartOffset_ = 0;
+    /* Characters of character data in each open element, by level */
+    private int[] characterData_ = new int[16];
+    /* Level of the payload being skipped, or -1 if none is */
+    private int skipLevel_ = -1;
 
     public XMPPParser(XMPPParserClient parserClient,
             PayloadParserFactoryCollection payloadParserFactories) {
@@ -31,13 +44,110 @@ public class XMPPParser implements XMLParserClient {
         xmlParser_ = PlatformXMLParserFactory.createXMLParser(this);
     }
     
+    /**
+     * Set the limits to apply to the elements parsed from now on.
+     * @param limits limits, not null
+     */
+    public void setLimits(XMPPParserLimits limits) {
+        limits_ = limits;
+    }
+
     public boolean parse(String data) {
-        boolean xmlParseResult = xmlParser_.parse(data);
+        if (data.isEmpty()) {
+            return xmlParser_.parse(data) && !parseErrorOccurred_;
+        }
+        final byte[] bytes = new ByteArray(data).getData();
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parse UTF-8 encoded data, without first converting it to a String.
+     * @param data array containing the data, not null. It is not modified.
+     * @param offset offset of the first byte to parse
+     * @param length number of bytes to parse
+     * @return false if an error has occurred
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        bytesParsed_ += length;
+        boolean xmlParseResult = xmlParser_.parse(data, offset, length);
+        /* Anything not yet reported in an event belongs to the element in
+         * progress, or to the start tag of the next one */
+        if (level_ == StreamLevel) {
+            elementStartOffset_ = lastEventOffset_;
+        }
+        if (level_ >= StreamLevel) {
+            checkStanzaBytes(bytesParsed_);
+        }
         return xmlParseResult && !parseErrorOccurred_;
     }
+
+    /**
+     * @return the offset at which the event being handled ends; if the XML
+     * parser can't tell, the end of the data being parsed is used, so that
+     * elements are only checked once a parse call has finished
+     */
+    private long getEventOffset() {
+        final long offset = xmlParser_.getCurrentByteOffset();
+        return offset >= 0 ? offset : bytesParsed_;
+    }
+
+    /**
+     * Check the size of the top-level element which is in progress.
+     * @param offset the offset up to which the element has been received
+     */
+    private void checkStanzaBytes(long offset) {
+        if (limits_.maxStanzaBytes > 0 && !parseErrorOccurred_
+                && offset - elementStartOffset_ > limits_.maxStanzaBytes) {
+            handleLimitExceeded("stanza size");
+        }
+    }
+
+    private void handleLimitExceeded(String limit) {
+        logger_.fine("Parser " + limit + " limit exceeded");
+        parseErrorOccurred_ = true;
+        // Release whatever has been parsed so far
+        currentElementParser_ = null;
+    }
+
+    /**
+     * Start counting the character data of an element which has just
+     * been opened.
+     * @param level the level of the element's content
+     */
+    private void startCharacterData(int level) {
+        if (level >= characterData_.length) {
+            characterData_ = Arrays.copyOf(characterData_, Math.max(level + 1, characterData_.length * 2));
+        }
+        characterData_[level] = 0;
+    }
+
+    private void checkElementLimits(AttributeMap attributes) {
+        if (limits_.maxDepth > 0 && level_ - StreamLevel >= limits_.maxDepth) {
+            handleLimitExceeded("depth");
+        }
+        else if (limits_.maxAttributes > 0 && attributes.getSize() > limits_.maxAttributes) {
+            handleLimitExceeded("attribute count");
+        }
+    }
     
     public void handleStartElement(String element, String ns,
             AttributeMap attributes) {
+        final long offset = getEventOffset();
+        if (level_ == StreamLevel) {
+            elementStartOffset_ = lastEventOffset_;
+        }
+        lastEventOffset_ = offset;
+        if (level_ >= StreamLevel) {
+            checkStanzaBytes(offset);
+        }
+        if (skipLevel_ >= 0) {
+            ++level_;
+            return;
+        }
+        startCharacterData(level_ + 1);
+        if (!parseErrorOccurred_ && level_ > TopLevel) {
+            checkElementLimits(attributes);
+        }
         if (!parseErrorOccurred_) {
             if (level_ == TopLevel) {
                 if (element.equals("stream") && ns.equals("http://etherx.jabber.org/streams")) {
@@ -57,6 +167,12 @@ public class XMPPParser implements XMLParserClient {
                     assert(currentElementParser_ == null);
                     currentElementParser_ = createElementParser(element, ns);
                 }
+                else if (level_ == ElementLevel && currentElementParser_ instanceof StanzaParser
+                        && limits_.droppedPayloadNamespaces.contains(ns)) {
+                    skipLevel_ = level_;
+                    ++level_;
+                    return;
+                }
                 currentElementParser_.handleStartElement(element, ns, attributes);
             }
         }
@@ -65,7 +181,18 @@ public class XMPPParser implements XMLParserClient {
     
     public void handleEndElement(String element, String ns) {
         assert(level_ > TopLevel);
+        final long offset = getEventOffset();
+        lastEventOffset_ = offset;
+        if (level_ > StreamLevel) {
+            checkStanzaBytes(offset);
+        }
         --level_;
+        if (skipLevel_ >= 0) {
+            if (level_ == skipLevel_) {
+                skipLevel_ = -1;
+            }
+            return;
+        }
         if (!parseErrorOccurred_) {
             if (level_ == TopLevel) {
                 assert(element.equals("stream"));
@@ -83,6 +210,20 @@ public class XMPPParser implements XMLParserClient {
     }
     
     public void handleCharacterData(String data) {
+        final long offset = getEventOffset();
+        lastEventOffset_ = offset;
+        if (level_ > StreamLevel) {
+            checkStanzaBytes(offset);
+        }
+        if (skipLevel_ >= 0) {
+            return;
+        }
+        if (limits_.maxCharacterData > 0 && !parseErrorOccurred_ && level_ > StreamLevel) {
+            characterData_[level_] += data.length();
+            if (characterData_[level_] > limits_.maxCharacterData) {
+                handleLimitExceeded("character data");
+            }
+        }
         if (!parseErrorOccurred_) {
             if (currentElementParser_ != null) {
                 currentElementParser_.handleCharacterData(data);
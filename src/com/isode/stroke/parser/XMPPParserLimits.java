@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.parser;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits which an {@link XMPPParser} applies to the elements it receives.
+ * Exceeding any of them is treated as a parse error, so that a peer can't
+ * make the parser build an arbitrarily large element.
+ * <p>
+ * A limit of 0 means no limit, which is the default for all of them.
+ */
+public class XMPPParserLimits {
+
+    /**
+     * Maximum size of a top-level element (such as a stanza), in bytes.
+     * Input is checked a read at a time, so an element is measured to within
+     * the size of one read.
+     */
+    public long maxStanzaBytes;
+
+    /**
+     * Maximum nesting depth of elements within a top-level element. The
+     * top-level element itself has depth 1.
+     */
+    public int maxDepth;
+
+    /**
+     * Maximum number of attributes on any element.
+     */
+    public int maxAttributes;
+
+    /**
+     * Maximum number of characters of character data directly within any
+     * one element of a top-level element, counting all of its text, not
+     * just a single run between child elements. Character data between
+     * top-level elements (such as whitespace keepalives) isn't counted.
+     */
+    public int maxCharacterData;
+
+    /**
+     * Namespaces of stanza payloads which are to be ignored. Such payloads
+     * are skipped as they are parsed, without creating any objects for them,
+     * so the stanza is delivered as if they had not been present.
+     */
+    public Set<String> droppedPayloadNamespaces = new HashSet<String>();
+
+    public XMPPParserLimits() {
+        maxStanzaBytes = 0;
+        maxDepth = 0;
+        maxAttributes = 0;
+        maxCharacterData = 0;
+    }
+
+    @Override
+    public String toString() {
+        return
+            "maxStanzaBytes:" + maxStanzaBytes +
+            "; maxDepth:" + maxDepth +
+            "; maxAttributes:" + maxAttributes +
+            "; maxCharacterData:" + maxCharacterData +
+            "; droppedPayloadNamespaces:" + droppedPayloadNamespaces;
+    }
+}
@@ -13,7 +13,11 @@ import com.isode.stroke.parser.GenericPayloadParserFactory;
 public class BodyParserFactory extends GenericPayloadParserFactory<BodyParser> {
 
     public BodyParserFactory() {
-        super("body", BodyParser.class);
+        super("body", new Creator<BodyParser>() {
+            public BodyParser create() {
+                return new BodyParser();
+            }
+        });
     }
 
 }
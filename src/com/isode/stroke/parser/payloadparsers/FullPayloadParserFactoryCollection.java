@@ -11,80 +11,304 @@ import com.isode.stroke.parser.PayloadParserFactoryCollection;
 
 public class FullPayloadParserFactoryCollection extends PayloadParserFactoryCollection {
     public FullPayloadParserFactoryCollection() {
-        addFactory(new GenericPayloadParserFactory<IBBParser>("", "http://jabber.org/protocol/ibb", IBBParser.class));
-        addFactory(new GenericPayloadParserFactory<StatusShowParser>("show", StatusShowParser.class));
-        addFactory(new GenericPayloadParserFactory<StatusParser>("status", StatusParser.class));
-        addFactory(new GenericPayloadParserFactory<ReplaceParser>("replace", "http://swift.im/protocol/replace", ReplaceParser.class));
-        addFactory(new GenericPayloadParserFactory<ReplaceParser>("replace", "urn:xmpp:message-correct:0", ReplaceParser.class));
-        addFactory(new GenericPayloadParserFactory<LastParser>("query", "jabber:iq:last", LastParser.class));
-        addFactory(new GenericPayloadParserFactory<BodyParser>("body", BodyParser.class));
-        addFactory(new GenericPayloadParserFactory<SubjectParser>("subject", SubjectParser.class));
-        addFactory(new GenericPayloadParserFactory<ThreadParser>("thread", ThreadParser.class));
-        addFactory(new GenericPayloadParserFactory<PriorityParser>("priority", PriorityParser.class));
+        addFactory(new GenericPayloadParserFactory<IBBParser>("", "http://jabber.org/protocol/ibb", new GenericPayloadParserFactory.Creator<IBBParser>() {
+            public IBBParser create() {
+                return new IBBParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<StatusShowParser>("show", new GenericPayloadParserFactory.Creator<StatusShowParser>() {
+            public StatusShowParser create() {
+                return new StatusShowParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<StatusParser>("status", new GenericPayloadParserFactory.Creator<StatusParser>() {
+            public StatusParser create() {
+                return new StatusParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<ReplaceParser>("replace", "http://swift.im/protocol/replace", new GenericPayloadParserFactory.Creator<ReplaceParser>() {
+            public ReplaceParser create() {
+                return new ReplaceParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<ReplaceParser>("replace", "urn:xmpp:message-correct:0", new GenericPayloadParserFactory.Creator<ReplaceParser>() {
+            public ReplaceParser create() {
+                return new ReplaceParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<LastParser>("query", "jabber:iq:last", new GenericPayloadParserFactory.Creator<LastParser>() {
+            public LastParser create() {
+                return new LastParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<BodyParser>("body", new GenericPayloadParserFactory.Creator<BodyParser>() {
+            public BodyParser create() {
+                return new BodyParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<SubjectParser>("subject", new GenericPayloadParserFactory.Creator<SubjectParser>() {
+            public SubjectParser create() {
+                return new SubjectParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<ThreadParser>("thread", new GenericPayloadParserFactory.Creator<ThreadParser>() {
+            public ThreadParser create() {
+                return new ThreadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<PriorityParser>("priority", new GenericPayloadParserFactory.Creator<PriorityParser>() {
+            public PriorityParser create() {
+                return new PriorityParser();
+            }
+        }));
         addFactory(new ErrorParserFactory(this));
-        addFactory(new GenericPayloadParserFactory<DelayParser>("delay", "urn:xmpp:delay", DelayParser.class));
+        addFactory(new GenericPayloadParserFactory<DelayParser>("delay", "urn:xmpp:delay", new GenericPayloadParserFactory.Creator<DelayParser>() {
+            public DelayParser create() {
+                return new DelayParser();
+            }
+        }));
         addFactory(new SoftwareVersionParserFactory());
-        addFactory(new GenericPayloadParserFactory<StorageParser>("storage", "storage:bookmarks", StorageParser.class));
-        addFactory(new GenericPayloadParserFactory<RosterItemExchangeParser>("x", "http://jabber.org/protocol/rosterx", RosterItemExchangeParser.class));
+        addFactory(new GenericPayloadParserFactory<StorageParser>("storage", "storage:bookmarks", new GenericPayloadParserFactory.Creator<StorageParser>() {
+            public StorageParser create() {
+                return new StorageParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<RosterItemExchangeParser>("x", "http://jabber.org/protocol/rosterx", new GenericPayloadParserFactory.Creator<RosterItemExchangeParser>() {
+            public RosterItemExchangeParser create() {
+                return new RosterItemExchangeParser();
+            }
+        }));
         addFactory(new RosterParserFactory());
-        addFactory(new GenericPayloadParserFactory<DiscoInfoParser>("query", "http://jabber.org/protocol/disco#info", DiscoInfoParser.class));
-        addFactory(new GenericPayloadParserFactory<DiscoItemsParser>("query", "http://jabber.org/protocol/disco#items", DiscoItemsParser.class));
-        addFactory(new GenericPayloadParserFactory<CapsInfoParser> ("c", "http://jabber.org/protocol/caps", CapsInfoParser.class));
+        addFactory(new GenericPayloadParserFactory<DiscoInfoParser>("query", "http://jabber.org/protocol/disco#info", new GenericPayloadParserFactory.Creator<DiscoInfoParser>() {
+            public DiscoInfoParser create() {
+                return new DiscoInfoParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<DiscoItemsParser>("query", "http://jabber.org/protocol/disco#items", new GenericPayloadParserFactory.Creator<DiscoItemsParser>() {
+            public DiscoItemsParser create() {
+                return new DiscoItemsParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<CapsInfoParser>("c", "http://jabber.org/protocol/caps", new GenericPayloadParserFactory.Creator<CapsInfoParser>() {
+            public CapsInfoParser create() {
+                return new CapsInfoParser();
+            }
+        }));
         addFactory(new ResourceBindParserFactory());
         addFactory(new StartSessionParserFactory());
-        addFactory(new GenericPayloadParserFactory<BlockBlockPayloadParser>("block", "urn:xmpp:blocking", BlockBlockPayloadParser.class));
-        addFactory(new GenericPayloadParserFactory<BlockBlockListPayloadParser>("blocklist", "urn:xmpp:blocking", BlockBlockListPayloadParser.class));
-        addFactory(new GenericPayloadParserFactory<BlockUnblockPayloadPaser>("unblock", "urn:xmpp:blocking", BlockUnblockPayloadPaser.class));
+        addFactory(new GenericPayloadParserFactory<BlockBlockPayloadParser>("block", "urn:xmpp:blocking", new GenericPayloadParserFactory.Creator<BlockBlockPayloadParser>() {
+            public BlockBlockPayloadParser create() {
+                return new BlockBlockPayloadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<BlockBlockListPayloadParser>("blocklist", "urn:xmpp:blocking", new GenericPayloadParserFactory.Creator<BlockBlockListPayloadParser>() {
+            public BlockBlockListPayloadParser create() {
+                return new BlockBlockListPayloadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<BlockUnblockPayloadPaser>("unblock", "urn:xmpp:blocking", new GenericPayloadParserFactory.Creator<BlockUnblockPayloadPaser>() {
+            public BlockUnblockPayloadPaser create() {
+                return new BlockUnblockPayloadPaser();
+            }
+        }));
         addFactory(new SecurityLabelParserFactory());
-        addFactory(new GenericPayloadParserFactory<SecurityLabelsCatalogParser>("catalog", "urn:xmpp:sec-label:catalog:2", SecurityLabelsCatalogParser.class));
+        addFactory(new GenericPayloadParserFactory<SecurityLabelsCatalogParser>("catalog", "urn:xmpp:sec-label:catalog:2", new GenericPayloadParserFactory.Creator<SecurityLabelsCatalogParser>() {
+            public SecurityLabelsCatalogParser create() {
+                return new SecurityLabelsCatalogParser();
+            }
+        }));
         addFactory(new FormParserFactory());
-        addFactory(new GenericPayloadParserFactory<CommandParser>("command","http://jabber.org/protocol/commands", CommandParser.class));
-        addFactory(new GenericPayloadParserFactory<InBandRegistrationPayloadParser>("query", "jabber:iq:register", InBandRegistrationPayloadParser.class));
+        addFactory(new GenericPayloadParserFactory<CommandParser>("command","http://jabber.org/protocol/commands", new GenericPayloadParserFactory.Creator<CommandParser>() {
+            public CommandParser create() {
+                return new CommandParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<InBandRegistrationPayloadParser>("query", "jabber:iq:register", new GenericPayloadParserFactory.Creator<InBandRegistrationPayloadParser>() {
+            public InBandRegistrationPayloadParser create() {
+                return new InBandRegistrationPayloadParser();
+            }
+        }));
         addFactory(new SearchPayloadParserFactory());
-        addFactory(new GenericPayloadParserFactory<StreamInitiationParser>("si", "http://jabber.org/protocol/si", StreamInitiationParser.class)); 
-        addFactory(new GenericPayloadParserFactory<BytestreamsParser>("query", "http://jabber.org/protocol/bytestreams", BytestreamsParser.class));
-        addFactory(new GenericPayloadParserFactory<VCardUpdateParser>("x", "vcard-temp:x:update", VCardUpdateParser.class));
-        addFactory(new GenericPayloadParserFactory<VCardParser>("vCard", "vcard-temp", VCardParser.class));
+        addFactory(new GenericPayloadParserFactory<StreamInitiationParser>("si", "http://jabber.org/protocol/si", new GenericPayloadParserFactory.Creator<StreamInitiationParser>() {
+            public StreamInitiationParser create() {
+                return new StreamInitiationParser();
+            }
+        })); 
+        addFactory(new GenericPayloadParserFactory<BytestreamsParser>("query", "http://jabber.org/protocol/bytestreams", new GenericPayloadParserFactory.Creator<BytestreamsParser>() {
+            public BytestreamsParser create() {
+                return new BytestreamsParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<VCardUpdateParser>("x", "vcard-temp:x:update", new GenericPayloadParserFactory.Creator<VCardUpdateParser>() {
+            public VCardUpdateParser create() {
+                return new VCardUpdateParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<VCardParser>("vCard", "vcard-temp", new GenericPayloadParserFactory.Creator<VCardParser>() {
+            public VCardParser create() {
+                return new VCardParser();
+            }
+        }));
         addFactory(new PrivateStorageParserFactory(this));
         addFactory(new ChatStateParserFactory());
         addFactory(new MUCUserPayloadParserFactory(this));
         addFactory(new MUCOwnerPayloadParserFactory(this));
-        addFactory(new GenericPayloadParserFactory<MUCInvitationPayloadParser>("x","jabber:x:conference",MUCInvitationPayloadParser.class));
-        addFactory(new GenericPayloadParserFactory<MUCAdminPayloadParser>("query","http://jabber.org/protocol/muc#admin",MUCAdminPayloadParser.class));
-        addFactory(new GenericPayloadParserFactory<MUCDestroyPayloadParser>("destroy","http://jabber.org/protocol/muc#user",MUCDestroyPayloadParser.class));
-        addFactory(new GenericPayloadParserFactory<MUCDestroyPayloadParser>("destroy","http://jabber.org/protocol/muc#owner",MUCDestroyPayloadParser.class));
-        addFactory(new GenericPayloadParserFactory<NicknameParser>("nick", "http://jabber.org/protocol/nick", NicknameParser.class));
+        addFactory(new GenericPayloadParserFactory<MUCInvitationPayloadParser>("x","jabber:x:conference", new GenericPayloadParserFactory.Creator<MUCInvitationPayloadParser>() {
+            public MUCInvitationPayloadParser create() {
+                return new MUCInvitationPayloadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<MUCAdminPayloadParser>("query","http://jabber.org/protocol/muc#admin", new GenericPayloadParserFactory.Creator<MUCAdminPayloadParser>() {
+            public MUCAdminPayloadParser create() {
+                return new MUCAdminPayloadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<MUCDestroyPayloadParser>("destroy","http://jabber.org/protocol/muc#user", new GenericPayloadParserFactory.Creator<MUCDestroyPayloadParser>() {
+            public MUCDestroyPayloadParser create() {
+                return new MUCDestroyPayloadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<MUCDestroyPayloadParser>("destroy","http://jabber.org/protocol/muc#owner", new GenericPayloadParserFactory.Creator<MUCDestroyPayloadParser>() {
+            public MUCDestroyPayloadParser create() {
+                return new MUCDestroyPayloadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<NicknameParser>("nick", "http://jabber.org/protocol/nick", new GenericPayloadParserFactory.Creator<NicknameParser>() {
+            public NicknameParser create() {
+                return new NicknameParser();
+            }
+        }));
         addFactory(new JingleParserFactory(this));
-        addFactory(new GenericPayloadParserFactory<JingleReasonParser>("reason", "urn:xmpp:jingle:1", JingleReasonParser.class));
+        addFactory(new GenericPayloadParserFactory<JingleReasonParser>("reason", "urn:xmpp:jingle:1", new GenericPayloadParserFactory.Creator<JingleReasonParser>() {
+            public JingleReasonParser create() {
+                return new JingleReasonParser();
+            }
+        }));
         addFactory(new JingleContentPayloadParserFactory(this));
-        addFactory(new GenericPayloadParserFactory<JingleIBBTransportMethodPayloadParser>("transport", "urn:xmpp:jingle:transports:ibb:1", JingleIBBTransportMethodPayloadParser.class));
-        addFactory(new GenericPayloadParserFactory<JingleS5BTransportMethodPayloadParser>("transport", "urn:xmpp:jingle:transports:s5b:1", JingleS5BTransportMethodPayloadParser.class));
+        addFactory(new GenericPayloadParserFactory<JingleIBBTransportMethodPayloadParser>("transport", "urn:xmpp:jingle:transports:ibb:1", new GenericPayloadParserFactory.Creator<JingleIBBTransportMethodPayloadParser>() {
+            public JingleIBBTransportMethodPayloadParser create() {
+                return new JingleIBBTransportMethodPayloadParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<JingleS5BTransportMethodPayloadParser>("transport", "urn:xmpp:jingle:transports:s5b:1", new GenericPayloadParserFactory.Creator<JingleS5BTransportMethodPayloadParser>() {
+            public JingleS5BTransportMethodPayloadParser create() {
+                return new JingleS5BTransportMethodPayloadParser();
+            }
+        }));
         addFactory(new JingleFileTransferDescriptionParserFactory(this));
-        addFactory(new GenericPayloadParserFactory<StreamInitiationFileInfoParser>("file", "http://jabber.org/protocol/si/profile/file-transfer", StreamInitiationFileInfoParser.class));
-        addFactory(new GenericPayloadParserFactory<JingleFileTransferFileInfoParser>("file", JingleFileTransferFileInfoParser.class));
-        addFactory(new GenericPayloadParserFactory<JingleFileTransferHashParser>("checksum", JingleFileTransferHashParser.class));
-        addFactory(new GenericPayloadParserFactory<S5BProxyRequestParser>("query", "http://jabber.org/protocol/bytestreams",S5BProxyRequestParser.class));
-        addFactory(new GenericPayloadParserFactory<WhiteboardParser>("wb","http://swift.im/whiteboard",WhiteboardParser.class));
-        addFactory(new GenericPayloadParserFactory<UserLocationParser>("geoloc", "http://jabber.org/protocol/geoloc", UserLocationParser.class));
-        addFactory(new GenericPayloadParserFactory<UserTuneParser>("tune", "http://jabber.org/protocol/tune", UserTuneParser.class));
+        addFactory(new GenericPayloadParserFactory<StreamInitiationFileInfoParser>("file", "http://jabber.org/protocol/si/profile/file-transfer", new GenericPayloadParserFactory.Creator<StreamInitiationFileInfoParser>() {
+            public StreamInitiationFileInfoParser create() {
+                return new StreamInitiationFileInfoParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<JingleFileTransferFileInfoParser>("file", new GenericPayloadParserFactory.Creator<JingleFileTransferFileInfoParser>() {
+            public JingleFileTransferFileInfoParser create() {
+                return new JingleFileTransferFileInfoParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<JingleFileTransferHashParser>("checksum", new GenericPayloadParserFactory.Creator<JingleFileTransferHashParser>() {
+            public JingleFileTransferHashParser create() {
+                return new JingleFileTransferHashParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<S5BProxyRequestParser>("query", "http://jabber.org/protocol/bytestreams", new GenericPayloadParserFactory.Creator<S5BProxyRequestParser>() {
+            public S5BProxyRequestParser create() {
+                return new S5BProxyRequestParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<WhiteboardParser>("wb","http://swift.im/whiteboard", new GenericPayloadParserFactory.Creator<WhiteboardParser>() {
+            public WhiteboardParser create() {
+                return new WhiteboardParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<UserLocationParser>("geoloc", "http://jabber.org/protocol/geoloc", new GenericPayloadParserFactory.Creator<UserLocationParser>() {
+            public UserLocationParser create() {
+                return new UserLocationParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<UserTuneParser>("tune", "http://jabber.org/protocol/tune", new GenericPayloadParserFactory.Creator<UserTuneParser>() {
+            public UserTuneParser create() {
+                return new UserTuneParser();
+            }
+        }));
         addFactory(new DeliveryReceiptParserFactory());
         addFactory(new DeliveryReceiptRequestParserFactory());
-        addFactory(new GenericPayloadParserFactory<IdleParser>("idle", "urn:xmpp:idle:1",IdleParser.class));
-        addFactory(new GenericPayloadParserFactory2<PubSubParser>("pubsub", "http://jabber.org/protocol/pubsub", this, PubSubParser.class));
-        addFactory(new GenericPayloadParserFactory2<PubSubOwnerPubSubParser>("pubsub", "http://jabber.org/protocol/pubsub#owner", this, PubSubOwnerPubSubParser.class));
-        addFactory(new GenericPayloadParserFactory2<PubSubEventParser>("event", "http://jabber.org/protocol/pubsub#event", this, PubSubEventParser.class));
+        addFactory(new GenericPayloadParserFactory<IdleParser>("idle", "urn:xmpp:idle:1", new GenericPayloadParserFactory.Creator<IdleParser>() {
+            public IdleParser create() {
+                return new IdleParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory2<PubSubParser>("pubsub", "http://jabber.org/protocol/pubsub", this, new GenericPayloadParserFactory2.Creator<PubSubParser>() {
+            public PubSubParser create(PayloadParserFactoryCollection parsers) {
+                return new PubSubParser(parsers);
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory2<PubSubOwnerPubSubParser>("pubsub", "http://jabber.org/protocol/pubsub#owner", this, new GenericPayloadParserFactory2.Creator<PubSubOwnerPubSubParser>() {
+            public PubSubOwnerPubSubParser create(PayloadParserFactoryCollection parsers) {
+                return new PubSubOwnerPubSubParser(parsers);
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory2<PubSubEventParser>("event", "http://jabber.org/protocol/pubsub#event", this, new GenericPayloadParserFactory2.Creator<PubSubEventParser>() {
+            public PubSubEventParser create(PayloadParserFactoryCollection parsers) {
+                return new PubSubEventParser(parsers);
+            }
+        }));
         addFactory(new PubSubErrorParserFactory());
-        addFactory(new GenericPayloadParserFactory<ResultSetParser>("set", "http://jabber.org/protocol/rsm", ResultSetParser.class));
-        addFactory(new GenericPayloadParserFactory2<ForwardedParser>("forwarded", "urn:xmpp:forward:0", this, ForwardedParser.class));
-        addFactory(new GenericPayloadParserFactory2<MAMResultParser>("result", "urn:xmpp:mam:0", this, MAMResultParser.class));
-        addFactory(new GenericPayloadParserFactory<MAMQueryParser>("query", "urn:xmpp:mam:0", MAMQueryParser.class));
-        addFactory(new GenericPayloadParserFactory<MAMFinParser>("fin", "urn:xmpp:mam:0", MAMFinParser.class));
-        addFactory(new GenericPayloadParserFactory<IsodeIQDelegationParser>("delegate", "http://isode.com/iq_delegation", IsodeIQDelegationParser.class));
-        addFactory(new GenericPayloadParserFactory<CarbonsEnableParser>("enable", "urn:xmpp:carbons:2", CarbonsEnableParser.class));
-        addFactory(new GenericPayloadParserFactory<CarbonsDisableParser>("disable", "urn:xmpp:carbons:2", CarbonsDisableParser.class));
-        addFactory(new GenericPayloadParserFactory2<CarbonsReceivedParser>("received", "urn:xmpp:carbons:2", this, CarbonsReceivedParser.class));
-        addFactory(new GenericPayloadParserFactory2<CarbonsSentParser>("sent", "urn:xmpp:carbons:2", this, CarbonsSentParser.class));
-        addFactory(new GenericPayloadParserFactory<CarbonsPrivateParser>("private", "urn:xmpp:carbons:2", CarbonsPrivateParser.class));
+        addFactory(new GenericPayloadParserFactory<ResultSetParser>("set", "http://jabber.org/protocol/rsm", new GenericPayloadParserFactory.Creator<ResultSetParser>() {
+            public ResultSetParser create() {
+                return new ResultSetParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory2<ForwardedParser>("forwarded", "urn:xmpp:forward:0", this, new GenericPayloadParserFactory2.Creator<ForwardedParser>() {
+            public ForwardedParser create(PayloadParserFactoryCollection parsers) {
+                return new ForwardedParser(parsers);
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory2<MAMResultParser>("result", "urn:xmpp:mam:0", this, new GenericPayloadParserFactory2.Creator<MAMResultParser>() {
+            public MAMResultParser create(PayloadParserFactoryCollection parsers) {
+                return new MAMResultParser(parsers);
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<MAMQueryParser>("query", "urn:xmpp:mam:0", new GenericPayloadParserFactory.Creator<MAMQueryParser>() {
+            public MAMQueryParser create() {
+                return new MAMQueryParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<MAMFinParser>("fin", "urn:xmpp:mam:0", new GenericPayloadParserFactory.Creator<MAMFinParser>() {
+            public MAMFinParser create() {
+                return new MAMFinParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<IsodeIQDelegationParser>("delegate", "http://isode.com/iq_delegation", new GenericPayloadParserFactory.Creator<IsodeIQDelegationParser>() {
+            public IsodeIQDelegationParser create() {
+                return new IsodeIQDelegationParser(FullPayloadParserFactoryCollection.this);
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<CarbonsEnableParser>("enable", "urn:xmpp:carbons:2", new GenericPayloadParserFactory.Creator<CarbonsEnableParser>() {
+            public CarbonsEnableParser create() {
+                return new CarbonsEnableParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<CarbonsDisableParser>("disable", "urn:xmpp:carbons:2", new GenericPayloadParserFactory.Creator<CarbonsDisableParser>() {
+            public CarbonsDisableParser create() {
+                return new CarbonsDisableParser();
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory2<CarbonsReceivedParser>("received", "urn:xmpp:carbons:2", this, new GenericPayloadParserFactory2.Creator<CarbonsReceivedParser>() {
+            public CarbonsReceivedParser create(PayloadParserFactoryCollection parsers) {
+                return new CarbonsReceivedParser(parsers);
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory2<CarbonsSentParser>("sent", "urn:xmpp:carbons:2", this, new GenericPayloadParserFactory2.Creator<CarbonsSentParser>() {
+            public CarbonsSentParser create(PayloadParserFactoryCollection parsers) {
+                return new CarbonsSentParser(parsers);
+            }
+        }));
+        addFactory(new GenericPayloadParserFactory<CarbonsPrivateParser>("private", "urn:xmpp:carbons:2", new GenericPayloadParserFactory.Creator<CarbonsPrivateParser>() {
+            public CarbonsPrivateParser create() {
+                return new CarbonsPrivateParser();
+            }
+        }));
 
         PayloadParserFactory defaultFactory = new RawXMLPayloadParserFactory();
         setDefaultFactory(defaultFactory);
@@ -14,7 +14,11 @@ import com.isode.stroke.parser.GenericPayloadParserFactory;
 class ResourceBindParserFactory extends GenericPayloadParserFactory<ResourceBindParser> {
 
     public ResourceBindParserFactory() {
-        super("bind", "urn:ietf:params:xml:ns:xmpp-bind", ResourceBindParser.class);
+        super("bind", "urn:ietf:params:xml:ns:xmpp-bind", new Creator<ResourceBindParser>() {
+            public ResourceBindParser create() {
+                return new ResourceBindParser();
+            }
+        });
     }
 
 }
@@ -13,7 +13,11 @@ import com.isode.stroke.parser.GenericPayloadParserFactory;
 public class RosterParserFactory extends GenericPayloadParserFactory<RosterParser> {
 
     public RosterParserFactory() {
-        super("query", "jabber:iq:roster", RosterParser.class);
+        super("query", "jabber:iq:roster", new Creator<RosterParser>() {
+            public RosterParser create() {
+                return new RosterParser();
+            }
+        });
     }
 
 }
@@ -10,7 +10,11 @@ import com.isode.stroke.parser.GenericPayloadParserFactory;
 public class SearchPayloadParserFactory extends GenericPayloadParserFactory<SearchPayloadParser> {
 
     public SearchPayloadParserFactory() {
-        super("query", "jabber:iq:search", SearchPayloadParser.class);
+        super("query", "jabber:iq:search", new Creator<SearchPayloadParser>() {
+            public SearchPayloadParser create() {
+                return new SearchPayloadParser();
+            }
+        });
     }
 
 }
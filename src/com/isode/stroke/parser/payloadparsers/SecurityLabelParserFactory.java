@@ -9,7 +9,11 @@ import com.isode.stroke.parser.GenericPayloadParserFactory;
 public class SecurityLabelParserFactory extends GenericPayloadParserFactory<SecurityLabelParser> {
 
     public SecurityLabelParserFactory() {
-        super("securitylabel", "urn:xmpp:sec-label:0", SecurityLabelParser.class);
+        super("securitylabel", "urn:xmpp:sec-label:0", new Creator<SecurityLabelParser>() {
+            public SecurityLabelParser create() {
+                return new SecurityLabelParser();
+            }
+        });
     }
 
 }
@@ -14,7 +14,11 @@ import com.isode.stroke.parser.GenericPayloadParserFactory;
 public class SoftwareVersionParserFactory extends GenericPayloadParserFactory<SoftwareVersionParser> {
 
     public SoftwareVersionParserFactory() {
-        super("query", "jabber:iq:version", SoftwareVersionParser.class);
+        super("query", "jabber:iq:version", new Creator<SoftwareVersionParser>() {
+            public SoftwareVersionParser create() {
+                return new SoftwareVersionParser();
+            }
+        });
     }
 
 }
@@ -13,7 +13,11 @@ import com.isode.stroke.parser.GenericPayloadParserFactory;
 class StartSessionParserFactory extends GenericPayloadParserFactory<StartSessionParser> {
 
     public StartSessionParserFactory() {
-        super("session", "urn:ietf:params:xml:ns:xmpp-session", StartSessionParser.class);
+        super("session", "urn:ietf:params:xml:ns:xmpp-session", new Creator<StartSessionParser>() {
+            public StartSessionParser create() {
+                return new StartSessionParser();
+            }
+        });
     }
 
 }
@@ -10,13 +10,22 @@
 package com.isode.stroke.serializer;
 
 import com.isode.stroke.elements.Payload;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 public abstract class GenericPayloadSerializer<T extends Payload> extends PayloadSerializer {
 
-    private final Class class_;
+    private final Class<? extends T> class_;
+    private final boolean hasDefaultCanSerialize_;
 
-    public GenericPayloadSerializer(Class c) {
+    public GenericPayloadSerializer(Class<? extends T> c) {
         class_ = c;
+        boolean hasDefaultCanSerialize;
+        try {
+            hasDefaultCanSerialize = getClass().getMethod("canSerialize", Payload.class).getDeclaringClass() == GenericPayloadSerializer.class;
+        } catch (NoSuchMethodException e) {
+            hasDefaultCanSerialize = false;
+        }
+        hasDefaultCanSerialize_ = hasDefaultCanSerialize;
     }
 
     @Override
@@ -24,11 +33,39 @@ public abstract class GenericPayloadSerializer<T extends Payload> extends Payloa
         return class_.isAssignableFrom(payload.getClass());
     }
 
+    /**
+     * @return true if {@link #canSerialize} only looks at the payload's
+     * class, so that {@link PayloadSerializerCollection} can cache it by
+     * class
+     */
+    boolean hasDefaultCanSerialize() {
+        return hasDefaultCanSerialize_;
+    }
+
     @Override
     public String serialize(Payload payload) {
-        return serializePayload((T)payload);
+        return serializePayload(class_.cast(payload));
+    }
+
+    @Override
+    public void serialize(Payload payload, XMLWriter writer) {
+        serializePayload(class_.cast(payload), writer);
     }
 
     protected abstract String serializePayload(T payload);
 
+    protected void serializePayload(T payload, XMLWriter writer) {
+        writer.raw(serializePayload(payload));
+    }
+
+    /**
+     * For serialisers which override {@link #serializePayload(Payload, XMLWriter)},
+     * to implement {@link #serializePayload(Payload)} in terms of it.
+     */
+    protected String serializePayloadWithWriter(T payload) {
+        XMLWriter writer = new XMLWriter();
+        serializePayload(payload, writer);
+        return writer.toString();
+    }
+
 }
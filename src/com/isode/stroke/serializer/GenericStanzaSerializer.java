@@ -11,16 +11,17 @@ package com.isode.stroke.serializer;
 import com.isode.stroke.elements.Element;
 import com.isode.stroke.elements.Stanza;
 import com.isode.stroke.serializer.xml.XMLElement;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 public abstract class GenericStanzaSerializer<T extends Stanza> extends StanzaSerializer {
 
-    private final Class stanzaClass_;
+    private final Class<? extends T> stanzaClass_;
 
-    public GenericStanzaSerializer(Class stanzaClass, String tag, PayloadSerializerCollection payloadSerializers) {
+    public GenericStanzaSerializer(Class<? extends T> stanzaClass, String tag, PayloadSerializerCollection payloadSerializers) {
         this(stanzaClass, tag, payloadSerializers, null);
     }
 
-    public GenericStanzaSerializer(Class stanzaClass, String tag, PayloadSerializerCollection payloadSerializers, String explicitNS) {
+    public GenericStanzaSerializer(Class<? extends T> stanzaClass, String tag, PayloadSerializerCollection payloadSerializers, String explicitNS) {
         super(tag, payloadSerializers, explicitNS);
         stanzaClass_ = stanzaClass;
     }
@@ -30,8 +31,27 @@ public abstract class GenericStanzaSerializer<T extends Stanza> extends StanzaSe
     }
 
     public void setStanzaSpecificAttributes(Element stanza, XMLElement element) {
-        setStanzaSpecificAttributesGeneric((T)stanza, element);
+        setStanzaSpecificAttributesGeneric(stanzaClass_.cast(stanza), element);
     }
 
     abstract void setStanzaSpecificAttributesGeneric(T stanza, XMLElement element);
+
+    @Override
+    protected boolean canWriteStanzaSpecificAttributes() {
+        return true;
+    }
+
+    @Override
+    protected void writeStanzaSpecificAttributes(Element stanza, XMLWriter writer) {
+        String type = getTypeAttribute(stanzaClass_.cast(stanza));
+        if (type != null) {
+            writer.attribute("type", type);
+        }
+    }
+
+    /**
+     * @return the value of the stanza's "type" attribute, or null if it
+     * doesn't have one
+     */
+    abstract String getTypeAttribute(T stanza);
 }
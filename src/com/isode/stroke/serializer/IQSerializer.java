@@ -23,19 +23,24 @@ public class IQSerializer extends GenericStanzaSerializer<IQ> {
 
     @Override
     void setStanzaSpecificAttributesGeneric(IQ iq, XMLElement element) {
+        String type = getTypeAttribute(iq);
+        if (type != null) {
+            element.setAttribute("type", type);
+        }
+    }
+
+    @Override
+    String getTypeAttribute(IQ iq) {
         switch (iq.getType()) {
             case Get:
-                element.setAttribute("type", "get");
-                break;
+                return "get";
             case Set:
-                element.setAttribute("type", "set");
-                break;
+                return "set";
             case Result:
-                element.setAttribute("type", "result");
-                break;
+                return "result";
             case Error:
-                element.setAttribute("type", "error");
-                break;
+                return "error";
         }
+        return null;
     }
 }
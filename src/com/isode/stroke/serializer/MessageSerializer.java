@@ -20,18 +20,27 @@ public class MessageSerializer extends GenericStanzaSerializer<Message>{
 
     @Override
     void setStanzaSpecificAttributesGeneric(Message message, XMLElement element) {
+        String type = getTypeAttribute(message);
+        if (type != null) {
+            element.setAttribute("type", type);
+        }
+    }
+
+    @Override
+    String getTypeAttribute(Message message) {
         if (message.getType().equals(Message.Type.Chat)) {
-		element.setAttribute("type", "chat");
+		return "chat";
 	}
 	else if (message.getType().equals(Message.Type.Groupchat)) {
-		element.setAttribute("type", "groupchat");
+		return "groupchat";
 	}
 	else if (message.getType().equals(Message.Type.Headline)) {
-		element.setAttribute("type", "headline");
+		return "headline";
 	}
 	else if (message.getType().equals(Message.Type.Error)) {
-		element.setAttribute("type", "error");
+		return "error";
 	}
+        return null;
     }
     
 }
@@ -10,6 +10,7 @@
 package com.isode.stroke.serializer;
 
 import com.isode.stroke.elements.Payload;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 /**
  * Serialise a particular payload.
@@ -17,4 +18,15 @@ import com.isode.stroke.elements.Payload;
 public abstract class PayloadSerializer {
     public abstract boolean canSerialize(Payload payload);
     public abstract String serialize(Payload payload);
+
+    /**
+     * Serialise the payload into a writer. By default this writes the result
+     * of {@link #serialize(Payload)}; serialisers of common payloads
+     * override it to write straight into the writer.
+     * @param payload payload, not null
+     * @param writer writer positioned where the payload belongs, not null
+     */
+    public void serialize(Payload payload, XMLWriter writer) {
+        writer.raw(serialize(payload));
+    }
 }
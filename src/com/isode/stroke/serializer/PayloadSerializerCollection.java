@@ -9,30 +9,73 @@
 package com.isode.stroke.serializer;
 
 import com.isode.stroke.elements.Payload;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Collection of payload serializers. The serializer for a payload is the
+ * first one added which can serialize it.
+ * <p>
+ * Lookups are cached by payload class, so each class is only matched
+ * against the serializers once. This relies on the serializers which are
+ * tried before the one found deciding by class alone, as
+ * {@link GenericPayloadSerializer} does by default; a lookup which passes
+ * any other serializer isn't cached, and is done by trying each serializer
+ * in turn every time.
+ */
 public class PayloadSerializerCollection {
 
     private final Vector<PayloadSerializer> serializers_ = new Vector<PayloadSerializer>();
+    /* Serializer for each payload class, or NO_SERIALIZER. Only changed with serializers_ locked. */
+    private final Map<Class<?>, PayloadSerializer> serializersByClass_ = new ConcurrentHashMap<Class<?>, PayloadSerializer>();
+
+    private static final PayloadSerializer NO_SERIALIZER = new PayloadSerializer() {
+        public boolean canSerialize(Payload payload) {
+            return false;
+        }
+
+        public String serialize(Payload payload) {
+            throw new UnsupportedOperationException();
+        }
+    };
 
     public void addSerializer(PayloadSerializer serializer) {
         synchronized (serializers_) {
             serializers_.add(serializer);
+            serializersByClass_.clear();
         }
     }
 
     public void removeSerializer(PayloadSerializer serializer) {
-        while(serializers_.contains(serializer)) {
-            serializers_.remove(serializer);
+        synchronized (serializers_) {
+            while(serializers_.contains(serializer)) {
+                serializers_.remove(serializer);
+            }
+            serializersByClass_.clear();
         }
     }
 
     public PayloadSerializer getPayloadSerializer(Payload payload) {
+        PayloadSerializer cached = serializersByClass_.get(payload.getClass());
+        if (cached != null) {
+            return cached != NO_SERIALIZER ? cached : null;
+        }
         synchronized (serializers_) {
+            boolean cacheable = true;
             for (PayloadSerializer serializer : serializers_) {
+                boolean byClass = serializer instanceof GenericPayloadSerializer
+                        && ((GenericPayloadSerializer<?>) serializer).hasDefaultCanSerialize();
                 if (serializer.canSerialize(payload)) {
+                    if (cacheable && byClass) {
+                        serializersByClass_.put(payload.getClass(), serializer);
+                    }
                     return serializer;
                 }
+                cacheable &= byClass;
+            }
+            if (cacheable) {
+                serializersByClass_.put(payload.getClass(), NO_SERIALIZER);
             }
         }
         return null;
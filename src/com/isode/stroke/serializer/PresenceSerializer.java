@@ -20,16 +20,25 @@ public PresenceSerializer(PayloadSerializerCollection payloadSerializers, String
 
     @Override
     void setStanzaSpecificAttributesGeneric(Presence presence, XMLElement element) {
+        String type = getTypeAttribute(presence);
+        if (type != null) {
+            element.setAttribute("type", type);
+        }
+    }
+
+    @Override
+    String getTypeAttribute(Presence presence) {
         switch (presence.getType()) {
-		case Unavailable: element.setAttribute("type","unavailable"); break;
-		case Probe: element.setAttribute("type","probe"); break;
-		case Subscribe: element.setAttribute("type","subscribe"); break;
-		case Subscribed: element.setAttribute("type","subscribed"); break;
-		case Unsubscribe: element.setAttribute("type","unsubscribe"); break;
-		case Unsubscribed: element.setAttribute("type","unsubscribed"); break;
-		case Error: element.setAttribute("type","error"); break;
+		case Unavailable: return "unavailable";
+		case Probe: return "probe";
+		case Subscribe: return "subscribe";
+		case Subscribed: return "subscribed";
+		case Unsubscribe: return "unsubscribe";
+		case Unsubscribed: return "unsubscribed";
+		case Error: return "error";
 		case Available: break;
 	}
+        return null;
     }
 
 
@@ -9,6 +9,7 @@ import com.isode.stroke.elements.Payload;
 import com.isode.stroke.elements.Stanza;
 import com.isode.stroke.serializer.xml.XMLElement;
 import com.isode.stroke.serializer.xml.XMLRawTextNode;
+import com.isode.stroke.serializer.xml.XMLWriter;
 import java.util.logging.Logger;
 import com.isode.stroke.base.SafeByteArray;
 
@@ -18,6 +19,7 @@ public abstract class StanzaSerializer implements ElementSerializer {
     private final PayloadSerializerCollection payloadSerializers_;
     private String explicitDefaultNS_;
     private final Logger logger_ = Logger.getLogger(this.getClass().getName());
+    private final XMLWriter writer_ = new XMLWriter();
 
     public StanzaSerializer(String tag, PayloadSerializerCollection payloadSerializers) {
         this(tag, payloadSerializers, null);
@@ -38,9 +40,56 @@ public abstract class StanzaSerializer implements ElementSerializer {
         }
     }
 
+    /**
+     * Serialize the stanza. Subclasses which can write their stanza-specific
+     * attributes with an {@link XMLWriter} have the stanza written straight
+     * into a buffer which is reused for each stanza, so like the rest of the
+     * serializer this isn't thread-safe. Others are serialized via an
+     * {@link XMLElement}.
+     */
     public SafeByteArray serialize(Element element, String xmlns) {
         assert element != null;
         assert payloadSerializers_ != null;
+        if (!canWriteStanzaSpecificAttributes()) {
+            return serializeWithXMLElement(element, xmlns);
+        }
+        Stanza stanza = (Stanza) element;
+        XMLWriter writer = writer_;
+        writer.reset();
+        writer.startElement(tag_);
+        // Attributes in the same (sorted) order as XMLElement would write them
+        if (stanza.getFrom() != null && stanza.getFrom().isValid()) {
+            writer.attribute("from", stanza.getFrom().toString());
+        }
+        if (stanza.getID() != null && (stanza.getID().length()!=0)) {
+            writer.attribute("id", stanza.getID());
+        }
+        if (stanza.getTo() != null && stanza.getTo().isValid()) {
+            writer.attribute("to", stanza.getTo().toString());
+        }
+        writeStanzaSpecificAttributes(stanza, writer);
+        String ns = (explicitDefaultNS_ != null) ? explicitDefaultNS_ : xmlns;
+        if (ns.length() != 0) {
+            writer.attribute("xmlns", ns);
+        }
+
+        for (Payload payload : stanza.getPayloads()) {
+            PayloadSerializer serializer = payloadSerializers_.getPayloadSerializer(payload);
+            if (serializer != null) {
+                serializer.serialize(payload, writer);
+            } else {
+                assert false;
+                throw new UnsupportedOperationException("No serializer for payload: " + payload.getClass().getSimpleName());
+            }
+        }
+        writer.endElement();
+        SafeByteArray result = writer.toSafeByteArray();
+        // Don't hold on to the buffer of an unusually large stanza
+        writer.reset();
+        return result;
+    }
+
+    private SafeByteArray serializeWithXMLElement(Element element, String xmlns) {
         Stanza stanza = (Stanza) element;
         XMLElement stanzaElement = new XMLElement(tag_, (explicitDefaultNS_ != null) ? explicitDefaultNS_ : xmlns);
         if (stanza.getFrom() != null && stanza.getFrom().isValid()) {
@@ -73,4 +122,21 @@ public abstract class StanzaSerializer implements ElementSerializer {
     }
 
     public abstract void setStanzaSpecificAttributes(Element element, XMLElement xmlElement);
+
+    /**
+     * @return true if {@link #writeStanzaSpecificAttributes} is implemented,
+     * false (the default) if stanzas have to be serialized via an XMLElement
+     */
+    protected boolean canWriteStanzaSpecificAttributes() {
+        return false;
+    }
+
+    /**
+     * Write the attributes which {@link #setStanzaSpecificAttributes} would
+     * set. They are written after "from", "id" and "to", and before "xmlns".
+     * Only called if {@link #canWriteStanzaSpecificAttributes} returns true.
+     */
+    protected void writeStanzaSpecificAttributes(Element element, XMLWriter writer) {
+        throw new UnsupportedOperationException();
+    }
 }
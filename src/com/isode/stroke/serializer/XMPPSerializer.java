@@ -11,6 +11,8 @@ package com.isode.stroke.serializer;
 import com.isode.stroke.elements.Element;
 import com.isode.stroke.elements.ProtocolHeader;
 import com.isode.stroke.elements.StreamType;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 import com.isode.stroke.base.SafeByteArray;
 
@@ -18,6 +20,8 @@ public class XMPPSerializer {
 
     private final Vector<ElementSerializer> serializers_ = new Vector<ElementSerializer>();
     private final StreamType type_;
+    /* All of the serializers decide by element class alone, so the one found can be cached by class */
+    private final Map<Class<?>, ElementSerializer> serializersByClass_ = new HashMap<Class<?>, ElementSerializer>();
 
     public XMPPSerializer(PayloadSerializerCollection payloadSerializers, StreamType type, boolean setExplictNSonTopLevelElements) {
         type_ = type;
@@ -82,8 +86,13 @@ public class XMPPSerializer {
     }
 
     public SafeByteArray serializeElement(Element element) {
+        ElementSerializer cached = serializersByClass_.get(element.getClass());
+        if (cached != null) {
+            return cached.serialize(element);
+        }
         for (ElementSerializer serializer : serializers_) {
             if (serializer.canSerialize(element)) {
+                serializersByClass_.put(element.getClass(), serializer);
                 return serializer.serialize(element);
             }
         }
@@ -10,7 +10,7 @@ package com.isode.stroke.serializer.payloadserializers;
 
 import com.isode.stroke.elements.Body;
 import com.isode.stroke.serializer.GenericPayloadSerializer;
-import com.isode.stroke.serializer.xml.XMLTextNode;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 /**
  * Body to String.
@@ -23,7 +23,11 @@ public class BodySerializer extends GenericPayloadSerializer<Body> {
 
     @Override
     protected String serializePayload(Body body) {
-        XMLTextNode textNode = new XMLTextNode(body.getText());
-        return "<body>" + textNode.serialize() + "</body>";
+        return serializePayloadWithWriter(body);
+    }
+
+    @Override
+    protected void serializePayload(Body body, XMLWriter writer) {
+        writer.startElement("body").text(body.getText()).endElement();
     }
 }
@@ -14,7 +14,7 @@ package com.isode.stroke.serializer.payloadserializers;
 import com.isode.stroke.serializer.GenericPayloadSerializer;
 import com.isode.stroke.elements.CapsInfo;
 import com.isode.stroke.base.NotNull;
-import com.isode.stroke.serializer.xml.XMLElement;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 public class CapsInfoSerializer extends GenericPayloadSerializer<CapsInfo> {
 
@@ -27,11 +27,18 @@ public class CapsInfoSerializer extends GenericPayloadSerializer<CapsInfo> {
 
 	@Override
 	protected String serializePayload(CapsInfo capsInfo) {
+		return serializePayloadWithWriter(capsInfo);
+	}
+
+	@Override
+	protected void serializePayload(CapsInfo capsInfo, XMLWriter writer) {
 		NotNull.exceptIfNull(capsInfo, "capsInfo");
-		XMLElement capsElement = new XMLElement("c", "http://jabber.org/protocol/caps");
-		capsElement.setAttribute("node", capsInfo.getNode());
-		capsElement.setAttribute("hash", capsInfo.getHash());
-		capsElement.setAttribute("ver", capsInfo.getVersion());
-		return capsElement.serialize();
+		// Attributes in the same (sorted) order as XMLElement would write them
+		writer.startElement("c");
+		writer.attribute("hash", capsInfo.getHash());
+		writer.attribute("node", capsInfo.getNode());
+		writer.attribute("ver", capsInfo.getVersion());
+		writer.attribute("xmlns", "http://jabber.org/protocol/caps");
+		writer.endElement();
 	}
 } 
@@ -14,6 +14,7 @@ package com.isode.stroke.serializer.payloadserializers;
 import com.isode.stroke.serializer.GenericPayloadSerializer;
 import com.isode.stroke.elements.ChatState;
 import com.isode.stroke.base.NotNull;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 public class ChatStateSerializer extends GenericPayloadSerializer<ChatState> {
 
@@ -29,21 +30,29 @@ public class ChatStateSerializer extends GenericPayloadSerializer<ChatState> {
 	*/
 	@Override
 	protected String serializePayload(ChatState chatState) {
+		return serializePayloadWithWriter(chatState);
+	}
+
+	/**
+	* @param chatState, notnull
+	* @param writer, notnull
+	*/
+	@Override
+	protected void serializePayload(ChatState chatState, XMLWriter writer) {
 		NotNull.exceptIfNull(chatState, "chatState");
-		String result = "<";
+		String tag = "";
 		ChatState.ChatStateType state = chatState.getChatState();
 		if (state == ChatState.ChatStateType.Active) {
-			result = result.concat("active");
+			tag = "active";
 		} else if (state == ChatState.ChatStateType.Composing) {
-			result = result.concat("composing");
+			tag = "composing";
 		} else if (state == ChatState.ChatStateType.Paused) {
-			result = result.concat("paused");
+			tag = "paused";
 		} else if (state == ChatState.ChatStateType.Inactive) {
-			result = result.concat("inactive");	
+			tag = "inactive";
 		} else if (state == ChatState.ChatStateType.Gone) {
-			result = result.concat("gone");
+			tag = "gone";
 		}
-		result = result.concat(" xmlns=\"http://jabber.org/protocol/chatstates\"/>");
-		return result;
+		writer.startElement(tag, "http://jabber.org/protocol/chatstates").endElement();
 	}
 } 
\ No newline at end of file
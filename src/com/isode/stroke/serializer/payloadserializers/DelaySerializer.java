@@ -13,7 +13,7 @@ package com.isode.stroke.serializer.payloadserializers;
 import com.isode.stroke.base.DateTime;
 import com.isode.stroke.elements.Delay;
 import com.isode.stroke.serializer.GenericPayloadSerializer;
-import com.isode.stroke.serializer.xml.XMLElement;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 public class DelaySerializer extends GenericPayloadSerializer<Delay> {
     public DelaySerializer() {
@@ -21,12 +21,18 @@ public class DelaySerializer extends GenericPayloadSerializer<Delay> {
     }
 
     protected String serializePayload(Delay delay) {
-        XMLElement delayElement = new XMLElement("delay", "urn:xmpp:delay");
+        return serializePayloadWithWriter(delay);
+    }
+
+    @Override
+    protected void serializePayload(Delay delay, XMLWriter writer) {
+        writer.startElement("delay");
         if (delay.getFrom() != null && delay.getFrom().isValid()) {
-            delayElement.setAttribute("from", delay.getFrom().toString());
+            writer.attribute("from", delay.getFrom().toString());
         }
         if(delay.getStamp() != null)
-            delayElement.setAttribute("stamp", DateTime.dateToString(delay.getStamp()));
-        return delayElement.serialize();
+            writer.attribute("stamp", DateTime.dateToString(delay.getStamp()));
+        writer.attribute("xmlns", "urn:xmpp:delay");
+        writer.endElement();
     }
 }
@@ -12,7 +12,7 @@ package com.isode.stroke.serializer.payloadserializers;
 
 import com.isode.stroke.elements.DeliveryReceiptRequest;
 import com.isode.stroke.serializer.GenericPayloadSerializer;
-import com.isode.stroke.serializer.xml.XMLElement;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 class DeliveryReceiptRequestSerializer extends GenericPayloadSerializer<DeliveryReceiptRequest> {
 
@@ -22,7 +22,12 @@ class DeliveryReceiptRequestSerializer extends GenericPayloadSerializer<Delivery
 
     @Override
     protected String serializePayload(DeliveryReceiptRequest payload) {
-        return new XMLElement("request", "urn:xmpp:receipts").serialize();
+        return serializePayloadWithWriter(payload);
+    }
+
+    @Override
+    protected void serializePayload(DeliveryReceiptRequest payload, XMLWriter writer) {
+        writer.startElement("request", "urn:xmpp:receipts").endElement();
     }
 
 }
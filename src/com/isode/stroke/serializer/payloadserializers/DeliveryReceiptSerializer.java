@@ -12,7 +12,7 @@ package com.isode.stroke.serializer.payloadserializers;
 
 import com.isode.stroke.elements.DeliveryReceipt;
 import com.isode.stroke.serializer.GenericPayloadSerializer;
-import com.isode.stroke.serializer.xml.XMLElement;
+import com.isode.stroke.serializer.xml.XMLWriter;
 
 class DeliveryReceiptSerializer extends GenericPayloadSerializer<DeliveryReceipt> {
 
@@ -22,9 +22,15 @@ class DeliveryReceiptSerializer extends GenericPayloadSerializer<DeliveryReceipt
 
     @Override
     protected String serializePayload(DeliveryReceipt receipt) {
-        XMLElement received = new XMLElement("received", "urn:xmpp:receipts");
-        received.setAttribute("id", receipt.getReceivedID());
-        return received.serialize();
+        return serializePayloadWithWriter(receipt);
+    }
+
+    @Override
+    protected void serializePayload(DeliveryReceipt receipt, XMLWriter writer) {
+        writer.startElement("received");
+        writer.attribute("id", receipt.getReceivedID());
+        writer.attribute("xmlns", "urn:xmpp:receipts");
+        writer.endElement();
     }
 
 }
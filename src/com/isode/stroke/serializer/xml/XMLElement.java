@@ -56,13 +56,7 @@ public class XMLElement implements XMLNode {
     }
 
     public void setAttribute(String attribute, String value) {
-        String escapedValue = value;
-        escapedValue = escapedValue.replaceAll("&", "&amp;");
-        escapedValue = escapedValue.replaceAll("<", "&lt;");
-        escapedValue = escapedValue.replaceAll(">", "&gt;");
-        escapedValue = escapedValue.replaceAll("'", "&apos;");
-        escapedValue = escapedValue.replaceAll("\"", "&quot;");
-        attributes_.put(attribute, escapedValue);
+        attributes_.put(attribute, XMLEscaper.escapeAttribute(value));
     }
 
     public void addNode(XMLNode node) {
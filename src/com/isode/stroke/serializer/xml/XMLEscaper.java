@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.serializer.xml;
+
+/**
+ * Escapes text for inclusion in XML, in a single pass over the input.
+ * Strings which need no escaping, which is most of them, are returned
+ * as they are without anything being allocated.
+ */
+public final class XMLEscaper {
+
+    private XMLEscaper() {
+    }
+
+    /**
+     * Escape character data, replacing {@code & < >}.
+     * @param text text, not null
+     * @return the escaped text, which is {@code text} itself if nothing
+     * needed escaping
+     */
+    public static String escapeText(String text) {
+        return escape(text, false);
+    }
+
+    /**
+     * Escape an attribute value, replacing {@code & < > ' "}.
+     * @param value value, not null
+     * @return the escaped value, which is {@code value} itself if nothing
+     * needed escaping
+     */
+    public static String escapeAttribute(String value) {
+        return escape(value, true);
+    }
+
+    private static String escape(String s, boolean attribute) {
+        final int length = s.length();
+        int i = 0;
+        while (i < length && getEntity(s.charAt(i), attribute) == null) {
+            i++;
+        }
+        if (i == length) {
+            return s;
+        }
+
+        final StringBuilder result = new StringBuilder(length + 16);
+        result.append(s, 0, i);
+        int copyFrom = i;
+        for (; i < length; i++) {
+            final String entity = getEntity(s.charAt(i), attribute);
+            if (entity != null) {
+                result.append(s, copyFrom, i).append(entity);
+                copyFrom = i + 1;
+            }
+        }
+        result.append(s, copyFrom, length);
+        return result.toString();
+    }
+
+    /**
+     * @return the entity reference to write in place of c, or null if c
+     * doesn't need escaping
+     */
+    private static String getEntity(char c, boolean attribute) {
+        if (c > '>') {
+            return null;
+        }
+        switch (c) {
+            case '&': return "&amp;";
+            case '<': return "&lt;";
+            case '>': return "&gt;";
+            case '\'': return attribute ? "&apos;" : null;
+            case '"': return attribute ? "&quot;" : null;
+            default: return null;
+        }
+    }
+}
@@ -9,10 +9,7 @@ public class XMLTextNode implements XMLNode {
     private String text_;
 
     public XMLTextNode(String text) {
-        text_ = text != null ? text : "";
-        text_ = text_.replaceAll("&", "&amp;"); // Should come first
-        text_ = text_.replaceAll("<", "&lt;");
-        text_ = text_.replaceAll(">", "&gt;");
+        text_ = text != null ? XMLEscaper.escapeText(text) : "";
     }
 
     public String serialize() {
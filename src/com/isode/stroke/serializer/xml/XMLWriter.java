@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+
+package com.isode.stroke.serializer.xml;
+
+import java.io.UnsupportedEncodingException;
+
+import com.isode.stroke.base.SafeByteArray;
+
+/**
+ * Writes XML as UTF-8 straight into a byte buffer, escaping text and
+ * attribute values as it goes. This avoids building an {@link XMLElement}
+ * tree and then flattening it, and the buffer can be reused by calling
+ * {@link #reset()}.
+ * <p>
+ * Escaping is the same as that done by {@link XMLEscaper}, which is used by
+ * {@link XMLTextNode} and {@link XMLElement#setAttribute}, so the output is
+ * the same as that of the equivalent XMLElement, provided that attributes
+ * are written in the order XMLElement would write them (sorted by name).
+ * <p>
+ * Not thread-safe.
+ */
+public class XMLWriter {
+
+    public XMLWriter() {
+        buffer_ = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Discard everything written so far, keeping the buffer for reuse unless
+     * it has grown unusually large.
+     */
+    public void reset() {
+        if (buffer_.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer_ = new byte[INITIAL_BUFFER_SIZE];
+        }
+        length_ = 0;
+        depth_ = 0;
+        startTagOpen_ = false;
+    }
+
+    /**
+     * Start an element. Its attributes may then be written, up until any
+     * content is written.
+     * @param tag element name, not null
+     * @return this writer
+     */
+    public XMLWriter startElement(String tag) {
+        closeStartTag();
+        if (depth_ == tags_.length) {
+            final String[] tags = new String[tags_.length * 2];
+            System.arraycopy(tags_, 0, tags, 0, tags_.length);
+            tags_ = tags;
+        }
+        tags_[depth_++] = tag;
+        writeByte('<');
+        writeRaw(tag);
+        startTagOpen_ = true;
+        return this;
+    }
+
+    /**
+     * Start an element, with an xmlns attribute if the namespace isn't empty.
+     * @param tag element name, not null
+     * @param xmlns namespace, not null
+     * @return this writer
+     */
+    public XMLWriter startElement(String tag, String xmlns) {
+        startElement(tag);
+        if (xmlns.length() != 0) {
+            attribute("xmlns", xmlns);
+        }
+        return this;
+    }
+
+    /**
+     * Write an attribute of the element which has just been started.
+     * @param name attribute name, not null
+     * @param value attribute value, not null. This is escaped.
+     * @return this writer
+     */
+    public XMLWriter attribute(String name, String value) {
+        if (!startTagOpen_) {
+            throw new IllegalStateException("Attribute '" + name + "' written outside a start tag");
+        }
+        writeByte(' ');
+        writeRaw(name);
+        writeByte('=');
+        writeByte('"');
+        writeEscaped(value, true);
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Write character data.
+     * @param text text, which is escaped. Null is treated as "", as it is
+     * by {@link XMLTextNode}.
+     * @return this writer
+     */
+    public XMLWriter text(String text) {
+        closeStartTag();
+        if (text != null) {
+            writeEscaped(text, false);
+        }
+        return this;
+    }
+
+    /**
+     * Write a string which is already XML, such as the output of a serializer.
+     * Writing an empty string has no effect.
+     * @param xml XML, not null. This is not escaped.
+     * @return this writer
+     */
+    public XMLWriter raw(String xml) {
+        if (xml.length() != 0) {
+            closeStartTag();
+            writeRaw(xml);
+        }
+        return this;
+    }
+
+    /**
+     * End the most recently started element which has not been ended. An
+     * element with no content is written as an empty-element tag.
+     * @return this writer
+     */
+    public XMLWriter endElement() {
+        if (depth_ == 0) {
+            throw new IllegalStateException("No element to end");
+        }
+        final String tag = tags_[--depth_];
+        tags_[depth_] = null;
+        if (startTagOpen_) {
+            writeByte('/');
+            writeByte('>');
+            startTagOpen_ = false;
+        }
+        else {
+            writeByte('<');
+            writeByte('/');
+            writeRaw(tag);
+            writeByte('>');
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public int getLength() {
+        return length_;
+    }
+
+    /**
+     * @return a copy of the bytes written, not null
+     */
+    public SafeByteArray toSafeByteArray() {
+        return new SafeByteArray().append(buffer_, length_);
+    }
+
+    /**
+     * @return the XML written, not null
+     */
+    @Override
+    public String toString() {
+        try {
+            return new String(buffer_, 0, length_, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("JVM has no 'UTF-8' encoding");
+        }
+    }
+
+    private void closeStartTag() {
+        if (startTagOpen_) {
+            writeByte('>');
+            startTagOpen_ = false;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length_ + extra > buffer_.length) {
+            final byte[] buffer = new byte[Math.max(buffer_.length * 2, length_ + extra)];
+            System.arraycopy(buffer_, 0, buffer, 0, length_);
+            buffer_ = buffer;
+        }
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer_[length_++] = (byte) c;
+    }
+
+    private void writeRaw(String s) {
+        final int length = s.length();
+        // Enough for the worst case of three bytes per char
+        ensureCapacity(length * 3);
+        for (int i = 0; i < length; i++) {
+            i = writeChar(s, i);
+        }
+    }
+
+    private void writeEscaped(String s, boolean attribute) {
+        final int length = s.length();
+        // Enough for the worst case of "&quot;" for each char
+        ensureCapacity(length * 6);
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '&': writeASCII("&amp;"); break;
+                case '<': writeASCII("&lt;"); break;
+                case '>': writeASCII("&gt;"); break;
+                case '\'':
+                    if (attribute) {
+                        writeASCII("&apos;");
+                    }
+                    else {
+                        buffer_[length_++] = (byte) c;
+                    }
+                    break;
+                case '"':
+                    if (attribute) {
+                        writeASCII("&quot;");
+                    }
+                    else {
+                        buffer_[length_++] = (byte) c;
+                    }
+                    break;
+                default:
+                    i = writeChar(s, i);
+            }
+        }
+    }
+
+    /* Capacity must already have been ensured */
+    private void writeASCII(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer_[length_++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Write the UTF-8 encoding of the char at index i, for which there must
+     * already be room.
+     * @return the index of the last char used, which is i + 1 for a
+     * surrogate pair, and i otherwise
+     */
+    private int writeChar(String s, int i) {
+        final char c = s.charAt(i);
+        if (c < 0x80) {
+            buffer_[length_++] = (byte) c;
+        }
+        else if (c < 0x800) {
+            buffer_[length_++] = (byte) (0xC0 | (c >> 6));
+            buffer_[length_++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            final int codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer_[length_++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer_[length_++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer_[length_++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer_[length_++] = (byte) (0x80 | (codePoint & 0x3F));
+            return i + 1;
+        }
+        else if (c >= '\uD800' && c <= '\uDFFF') {
+            // Unpaired surrogate, which String.getBytes would also replace
+            buffer_[length_++] = (byte) '?';
+        }
+        else {
+            buffer_[length_++] = (byte) (0xE0 | (c >> 12));
+            buffer_[length_++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer_[length_++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /* Buffers larger than this aren't kept by reset() */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private byte[] buffer_;
+    private int length_ = 0;
+    private String[] tags_ = new String[8];
+    private int depth_ = 0;
+    private boolean startTagOpen_ = false;
+}
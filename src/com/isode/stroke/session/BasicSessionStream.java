@@ -14,9 +14,11 @@ import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.elements.Element;
 import com.isode.stroke.elements.ProtocolHeader;
 import com.isode.stroke.elements.StreamType;
+import com.isode.stroke.eventloop.EventLoop;
 import com.isode.stroke.network.Connection;
 import com.isode.stroke.network.TimerFactory;
 import com.isode.stroke.parser.PayloadParserFactoryCollection;
+import com.isode.stroke.parser.XMPPParserLimits;
 import com.isode.stroke.serializer.PayloadSerializerCollection;
 import com.isode.stroke.signals.Slot;
 import com.isode.stroke.signals.Slot1;
@@ -95,6 +97,7 @@ public class BasicSessionStream extends SessionStream {
                 handleConnectionFinished(p1);
             }
         });
+        onWritableConnection = connection.onWritable.connect(onWritable);
         connectionLayer = new ConnectionLayer(connection);
 
         streamStack = new StreamStack(xmppLayer, connectionLayer);
@@ -111,11 +114,17 @@ public class BasicSessionStream extends SessionStream {
     	if(tlsLayer != null) {
             onErrorConnection.disconnect();
             onConnectedConnection.disconnect();
+            tlsLayer.close();
             tlsLayer = null;
         }
+        if (compressionLayer != null) {
+            compressionLayer.close();
+            compressionLayer = null;
+        }
         whitespacePingLayer = null;
         streamStack =  null;
         onDisconnectedConnection.disconnect();
+        onWritableConnection.disconnect();
         connectionLayer = null;
         onStreamStartConnection.disconnect();
         onElementConnection.disconnect();
@@ -135,6 +144,11 @@ public class BasicSessionStream extends SessionStream {
         xmppLayer.writeElement(element);
     }
 
+    @Override
+    public boolean isWriteQueueFull() {
+        return connection.isWriteQueueFull();
+    }
+
     public void writeFooter() {
         assert available;
         xmppLayer.writeFooter();
@@ -146,6 +160,9 @@ public class BasicSessionStream extends SessionStream {
     }
 
     public void close() {
+        if (streamStack != null) {
+            streamStack.flush();
+        }
         connection.disconnect();
     }
 
@@ -176,7 +193,7 @@ public class BasicSessionStream extends SessionStream {
                     handleTLSConnected();
                 }
             });
-            tlsLayer.connect();
+            tlsLayer.connect(connection.getRemoteAddress());
         }
     }
 
@@ -227,6 +244,26 @@ public class BasicSessionStream extends SessionStream {
         xmppLayer.resetParser();
     }
 
+    /**
+     * Set the limits to apply to elements received on this stream.
+     * @param limits limits, not null
+     */
+    public void setParserLimits(XMPPParserLimits limits) {
+        xmppLayer.setParserLimits(limits);
+    }
+
+    /**
+     * Have everything written during a turn of the event loop sent as a
+     * single write at the end of the turn. This saves compressing,
+     * encrypting and sending each element separately when several are sent
+     * at once.
+     * @param eventLoop event loop whose turns to use, or null to write each
+     * element as it is sent (the default)
+     */
+    public void setWriteCorking(EventLoop eventLoop) {
+        streamStack.setAutoCork(eventLoop);
+    }
+
     private void handleStreamStartReceived(ProtocolHeader header) {
         onStreamStartReceived.emit(header);
     }
@@ -292,6 +329,7 @@ public class BasicSessionStream extends SessionStream {
     private SignalConnection onErrorConnection;
     private SignalConnection onConnectedConnection;
     private SignalConnection onDisconnectedConnection;
+    private SignalConnection onWritableConnection;
     private SignalConnection onStreamStartConnection;
     private SignalConnection onElementConnection;
     private SignalConnection onDataReadConnection;
@@ -92,12 +92,22 @@ public abstract class SessionStream {
 
     public abstract ByteArray getTLSFinishMessage();
 
+    /**
+     * @return true if data written to the stream is backing up in the
+     * underlying connection, in which case writers of large amounts of data
+     * should wait for {@link #onWritable} before writing more.
+     */
+    public boolean isWriteQueueFull() {
+        return false;
+    }
+
     public final Signal1<ProtocolHeader> onStreamStartReceived = new Signal1<ProtocolHeader>();
     public final Signal1<Element> onElementReceived = new Signal1<Element>();
     public final Signal1<Error> onClosed = new Signal1<Error>();
     public final Signal onTLSEncrypted = new Signal();
     public final Signal1<SafeByteArray> onDataRead = new Signal1<SafeByteArray>();
     public final Signal1<SafeByteArray> onDataWritten = new Signal1<SafeByteArray>();
+    public final Signal onWritable = new Signal();
     protected CertificateWithKey getTLSCertificate() {
         return certificate;
     }
@@ -4,12 +4,13 @@
  * See Documentation/Licenses/GPLv3.txt for more information.
  */
 /*
- * Copyright (c) 2011, Isode Limited, London, England.
+ * Copyright (c) 2011-2016, Isode Limited, London, England.
  * All rights reserved.
  */
 package com.isode.stroke.streamstack;
 
 import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.compress.ZLibCodecompressor;
 import com.isode.stroke.compress.ZLibCompressor;
 import com.isode.stroke.compress.ZLibDecompressor;
 import com.isode.stroke.compress.ZLibException;
@@ -17,6 +18,24 @@ import com.isode.stroke.signals.Signal;
 
 public class CompressionLayer extends StreamLayer {
 
+    /**
+     * Create a layer using JZlib.
+     */
+    public CompressionLayer() {
+        this(ZLibCodecompressor.Backend.JZlib);
+    }
+
+    /**
+     * Create a layer.
+     * @param backend the zlib implementation to use, not null
+     * @throws IllegalArgumentException if the backend isn't available on
+     * this JVM
+     */
+    public CompressionLayer(ZLibCodecompressor.Backend backend) {
+        compressor_ = new ZLibCompressor(backend);
+        decompressor_ = new ZLibDecompressor(backend);
+    }
+
     public void writeData(SafeByteArray data) {
         try {
             writeDataToChildLayer(compressor_.process(data));
@@ -35,9 +54,18 @@ public class CompressionLayer extends StreamLayer {
         }
     }
 
+    /**
+     * Free the memory used by the compressor and decompressor. The layer
+     * must not be used afterwards.
+     */
+    public void close() {
+        compressor_.end();
+        decompressor_.end();
+    }
+
     public Signal onError = new Signal();
 
-    private ZLibCompressor compressor_ = new ZLibCompressor();
-    private ZLibDecompressor decompressor_ = new ZLibDecompressor();
+    private final ZLibCompressor compressor_;
+    private final ZLibDecompressor decompressor_;
 
 }
@@ -12,6 +12,8 @@ package com.isode.stroke.streamstack;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.isode.stroke.eventloop.EventLoop;
+
 public class StreamStack {
 
     public StreamStack(XMPPLayer xmppLayer, LowLayer physicalLayer) {
@@ -22,6 +24,8 @@ public class StreamStack {
     }
 
     public void addLayer(final StreamLayer newLayer) {
+        // Data written before the layer was added mustn't go through it
+        xmppLayer_.flush();
         final LowLayer lowLayer = (layers_.isEmpty() ? physicalLayer_ : layers_.get(layers_.size() - 1));
 
 	xmppLayer_.setChildLayer(newLayer);
@@ -33,6 +37,42 @@ public class StreamStack {
 	layers_.add(newLayer);
     }
 
+    /**
+     * Hold back data written to the stack until {@link #uncork} is called
+     * as many times as this has been, and then write it all at once, so
+     * that it goes through each layer (and to the connection) as a single
+     * write.
+     */
+    public void cork() {
+        xmppLayer_.cork();
+    }
+
+    /**
+     * Undo one call to {@link #cork}, writing any data held back if there
+     * are no more.
+     */
+    public void uncork() {
+        xmppLayer_.uncork();
+    }
+
+    /**
+     * Write any data which has been held back, whether or not the stack is
+     * still corked. This must be done before the connection is closed.
+     */
+    public void flush() {
+        xmppLayer_.flush();
+    }
+
+    /**
+     * Cork the stack automatically for each turn of the event loop, so that
+     * everything written during a turn is written at the end of it in one go.
+     * @param eventLoop event loop whose turns to use, or null to have data
+     * written straight away (the default)
+     */
+    public void setAutoCork(EventLoop eventLoop) {
+        xmppLayer_.setAutoCork(eventLoop);
+    }
+
     public XMPPLayer getXMPPLayer() {
         return xmppLayer_;
     }
@@ -12,6 +12,7 @@ package com.isode.stroke.streamstack;
 import java.util.List;
 
 import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.network.HostAddressPort;
 import com.isode.stroke.signals.Signal;
 import com.isode.stroke.signals.Signal1;
 import com.isode.stroke.signals.Slot1;
@@ -47,6 +48,21 @@ public class TLSLayer extends StreamLayer {
         context.connect();
     }
 
+    /**
+     * Start the handshake with a peer at a known address, so that a session
+     * previously established with it may be resumed.
+     * @param remoteAddress peer address; if null or invalid, this is the same
+     * as {@link #connect()}
+     */
+    public void connect(HostAddressPort remoteAddress) {
+        if (remoteAddress == null || !remoteAddress.getAddress().isValid()) {
+            context.connect();
+        }
+        else {
+            context.connect(remoteAddress.getAddress().toString(), remoteAddress.getPort());
+        }
+    }
+
     public void writeData(SafeByteArray data) {
         context.handleDataFromApplication(data);
     }
@@ -75,6 +91,13 @@ public class TLSLayer extends StreamLayer {
         return context;
     }
 
+    /**
+     * Close the layer's context, once the layer is no longer needed.
+     */
+    public void close() {
+        context.close();
+    }
+
     public final Signal1<TLSError> onError = new Signal1<TLSError>();
     public final Signal onConnected = new Signal();
 
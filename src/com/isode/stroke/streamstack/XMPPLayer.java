@@ -4,12 +4,16 @@
  */
 package com.isode.stroke.streamstack;
 
+import com.isode.stroke.base.ByteArray;
 import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.elements.Element;
 import com.isode.stroke.elements.ProtocolHeader;
 import com.isode.stroke.elements.StreamType;
+import com.isode.stroke.eventloop.Event;
+import com.isode.stroke.eventloop.EventLoop;
 import com.isode.stroke.parser.PayloadParserFactoryCollection;
 import com.isode.stroke.parser.XMPPParser;
+import com.isode.stroke.parser.XMPPParserLimits;
 import com.isode.stroke.parser.XMPPParserClient;
 import com.isode.stroke.serializer.PayloadSerializerCollection;
 import com.isode.stroke.serializer.XMPPSerializer;
@@ -36,6 +40,11 @@ public class XMPPLayer implements HighLayer, XMPPParserClient {
     private boolean resetParserAfterParse_;
     private boolean inParser_;
     private boolean setExplictNSonTopLevelElements_;
+    private XMPPParserLimits parserLimits_ = new XMPPParserLimits();
+    private int corkCount_ = 0;
+    private SafeByteArray corkedData_ = null;
+    private EventLoop autoCorkEventLoop_ = null;
+    private boolean autoCorked_ = false;
 
     public XMPPLayer(
             PayloadParserFactoryCollection payloadParserFactories,
@@ -67,13 +76,69 @@ public class XMPPLayer implements HighLayer, XMPPParserClient {
     }
 
     public void writeElement(Element element) {
-        writeDataInternal(new SafeByteArray(xmppSerializer_.serializeElement(element)));
+        writeDataInternal(xmppSerializer_.serializeElement(element));
     }
 
     public void writeData(String data) {
         writeDataInternal(new SafeByteArray(data));
     }
 
+    /**
+     * Set the limits to apply to received elements. These also apply after
+     * the parser is reset.
+     * @param limits limits, not null
+     */
+    public void setParserLimits(XMPPParserLimits limits) {
+        parserLimits_ = limits;
+        xmppParser_.setLimits(limits);
+    }
+
+    /**
+     * Hold back data written from here on, until {@link #uncork} is called
+     * as many times as this has been, and then pass it to the lower layers
+     * in a single write.
+     */
+    public void cork() {
+        corkCount_++;
+    }
+
+    /**
+     * Undo one call to {@link #cork}, writing any data held back if there
+     * are no more.
+     */
+    public void uncork() {
+        if (corkCount_ == 0) {
+            throw new IllegalStateException("uncork() without cork()");
+        }
+        corkCount_--;
+        if (corkCount_ == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Write any data held back by {@link #cork}, whether or not the layer is
+     * still corked.
+     */
+    public void flush() {
+        if (corkedData_ != null) {
+            SafeByteArray data = corkedData_;
+            corkedData_ = null;
+            writeDataToChildLayer(data);
+        }
+    }
+
+    /**
+     * Have data written during a turn of the event loop held back until
+     * the end of the turn, so that it is passed to the lower layers in a
+     * single write.
+     * @param eventLoop event loop whose turns to use, or null to have data
+     * written straight away (the default)
+     */
+    public void setAutoCork(EventLoop eventLoop) {
+        autoCorkEventLoop_ = eventLoop;
+    }
+
     public void resetParser() {
         if (inParser_) {
             resetParserAfterParse_ = true;
@@ -93,7 +158,26 @@ public class XMPPLayer implements HighLayer, XMPPParserClient {
 
     protected void writeDataInternal(SafeByteArray data) {
         onWriteData.emit(data);
-        writeDataToChildLayer(data);
+        if (autoCorkEventLoop_ != null && !autoCorked_) {
+            autoCorked_ = true;
+            cork();
+            autoCorkEventLoop_.postEventAtEndOfTurn(new Event.Callback() {
+                public void run() {
+                    autoCorked_ = false;
+                    uncork();
+                }
+            });
+        }
+        if (corkCount_ > 0) {
+            if (corkedData_ == null) {
+                corkedData_ = new SafeByteArray();
+            }
+            // As a ByteArray, so that data's chunks are shared, not copied
+            corkedData_.append((ByteArray) data);
+        }
+        else {
+            writeDataToChildLayer(data);
+        }
     }
 
     public void handleStreamStart(ProtocolHeader header) {
@@ -109,6 +193,7 @@ public class XMPPLayer implements HighLayer, XMPPParserClient {
 
     private void doResetParser() {
         xmppParser_ = new XMPPParser(this, payloadParserFactories_);
+        xmppParser_.setLimits(parserLimits_);
         resetParserAfterParse_ = false;
     }
     
@@ -127,7 +212,8 @@ public class XMPPLayer implements HighLayer, XMPPParserClient {
     private void handleDataReadInternal(SafeByteArray data) {
         onDataRead.emit(data);
         inParser_ = true;
-        if(!xmppParser_.parse(data.toString())) {
+        final byte[] bytes = data.getData();
+        if(!xmppParser_.parse(bytes, 0, bytes.length)) {
             inParser_ = false;
             onError.emit();
             return;
@@ -8,11 +8,25 @@
  */
 package com.isode.stroke.tls;
 
+import com.isode.stroke.eventloop.EventLoop;
 import com.isode.stroke.tls.java.JSSEContextFactory;
 
 public class PlatformTLSFactories {
-    private final JSSEContextFactory contextFactory = new JSSEContextFactory();
+    private final JSSEContextFactory contextFactory;
     private final CertificateFactory certificateFactory = new JavaCertificateFactory();
+
+    public PlatformTLSFactories() {
+        contextFactory = new JSSEContextFactory();
+    }
+
+    /**
+     * @param eventLoop the EventLoop on which TLS contexts will be used,
+     * which allows the expensive parts of TLS handshakes to be done on 
+     * other threads. Should not be null.
+     */
+    public PlatformTLSFactories(EventLoop eventLoop) {
+        contextFactory = new JSSEContextFactory(eventLoop);
+    }
     
     public TLSContextFactory getTLSContextFactory() {        
         return contextFactory;
@@ -21,6 +21,17 @@ public abstract class TLSContext {
 
     public abstract void connect();
 
+    /**
+     * Start the handshake with a peer whose address is known. Implementations
+     * may use this to resume a session previously established with the same
+     * peer. By default this is the same as {@link #connect()}.
+     * @param host peer host name or address, not null
+     * @param port peer port
+     */
+    public void connect(String host, int port) {
+        connect();
+    }
+
     public abstract boolean setClientCertificate(CertificateWithKey cert);
 
     public abstract void handleDataFromNetwork(SafeByteArray data);
@@ -40,6 +51,14 @@ public abstract class TLSContext {
 
     public abstract ByteArray getFinishMessage();
 
+    /**
+     * Called when the context is no longer needed, to release anything it
+     * holds. Nothing is emitted by the context after this. By default this
+     * does nothing.
+     */
+    public void close() {
+    }
+
     public Signal1<SafeByteArray> onDataForNetwork = new Signal1<SafeByteArray>();
     public Signal1<SafeByteArray> onDataForApplication = new Signal1<SafeByteArray>();
     public Signal1<TLSError> onError = new Signal1<TLSError>();
@@ -13,7 +13,6 @@ package com.isode.stroke.tls.java;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
@@ -42,10 +41,14 @@ import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.X509ExtendedKeyManager;
 
 import com.isode.stroke.base.ByteArray;
 import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.eventloop.Event;
+import com.isode.stroke.eventloop.EventOwner;
 import com.isode.stroke.tls.CAPICertificate;
 import com.isode.stroke.tls.Certificate;
 import com.isode.stroke.tls.CertificateVerificationError;
@@ -122,6 +125,7 @@ public class JSSEContext extends TLSContext {
          */
         logger_.log(Level.WARNING, jsseContextError.toString(), e);
         errorsEmitted.add(jsseContextError);
+        verificationHolder_.take();
         onError.emit(null);
     }
     
@@ -135,17 +139,48 @@ public class JSSEContext extends TLSContext {
         }       
     }
 
+    /**
+     * Start the handshake. The SSLEngine is told the peer's host and port,
+     * which allows a session previously established with the same peer by 
+     * another JSSEContext from the same JSSEContextFactory to be resumed.
+     */
+    @Override
+    public void connect(String host, int port) {
+        peerHost_ = host;
+        peerPort_ = port;
+        connect();
+    }
+
+    /**
+     * @return <em>true</em> if the handshake has completed by resuming a
+     * previous session, <em>false</em> if it established a new session or
+     * hasn't completed
+     */
+    public boolean isSessionResumed() {
+        return sessionResumed_;
+    }
+
 
     private void doSetup() throws SSLException {
-        SSLContext sslContext = getSSLContext();
-        
-        if (sslContext == null) {
-            throw new SSLException("Could not create SSLContext");
+        KeyManager keyManager = (clientCertificate_ == null ? null : myKeyManager_);
+        SSLContext sslContext;
+        if (factory_ != null) {
+            trustManager_ = factory_.getTrustManager();
+            sslContext = factory_.getSSLContext(clientCertificate_, keyManager);
+        }
+        else {
+            trustManager_ = new JavaTrustManager();
+            sslContext = createSSLContext(keyManager, trustManager_);
         }
         
         sslEngine = null;
         try {
-            sslEngine = sslContext.createSSLEngine();
+            if (peerHost_ != null) {
+                sslEngine = sslContext.createSSLEngine(peerHost_, peerPort_);
+            }
+            else {
+                sslEngine = sslContext.createSSLEngine();
+            }
         }
         catch (UnsupportedOperationException e) {
             /* "the underlying provider does not implement the operation" */
@@ -216,156 +251,365 @@ public class JSSEContext extends TLSContext {
          * empty buffer will prompt the SSLEngine into doing the handshake.
          */
         
+        handshakeStartTime_ = System.currentTimeMillis();
+        handshakeStartNanos_ = System.nanoTime();
         sslEngine.beginHandshake();
         wrapAndSendData();
                 
     }
 
+    /**
+     * Called when the handshake has finished, before telling the caller.
+     * Looks up the verification result of the server's certificates. If
+     * they were checked by the trust manager during this handshake, the
+     * result is taken from this context's holder; if the session was
+     * resumed, the result kept with it when it was established is used;
+     * failing both, the certificates are checked again. The result is
+     * kept with the session.
+     */
+    private void handleHandshakeFinished() {
+        handshakeCompleted = true;
+
+        SSLSession session = sslEngine.getSession();
+        /* A resumed session is one that was created before this handshake
+         * started
+         */
+        sessionResumed_ = (session.getCreationTime() < handshakeStartTime_);
+        if (factory_ != null) {
+            factory_.handleHandshakeCompleted(sessionResumed_, 
+                    System.nanoTime() - handshakeStartNanos_);
+        }
+
+        java.security.cert.Certificate[] certs;
+        try {
+            certs = session.getPeerCertificates();
+        }
+        catch (SSLPeerUnverifiedException e) {
+            return;
+        }
+        List<X509Certificate> x509Certs = new ArrayList<X509Certificate>(certs.length);
+        for (java.security.cert.Certificate cert : certs) {
+            if (cert instanceof X509Certificate) {
+                x509Certs.add((X509Certificate) cert);
+            }
+        }
+        if (x509Certs.isEmpty()) {
+            return;
+        }
+        X509Certificate[] chain = x509Certs.toArray(new X509Certificate[x509Certs.size()]);
+        JavaTrustManager.VerificationResult result = verificationHolder_.take();
+        if (result == null) {
+            result = (JavaTrustManager.VerificationResult) session.getValue(VERIFICATION_RESULT_KEY);
+        }
+        if (result == null) {
+            /* The check wasn't made on a thread with the holder bound, so
+             * make it again
+             */
+            result = trustManager_.verify(chain, 
+                    JavaTrustManager.getAuthType(session.getCipherSuite()));
+        }
+        session.putValue(VERIFICATION_RESULT_KEY, result);
+        setPeerCertificateInfo(chain, result.certificateException);
+    }
+
     
     /**
-     * Unwrap any data in the "encryptedReceived" buffer and put it into
-     * the "unwrappedReceived" buffer. An event will be generated to the
-     * end-user's listener if there's anything pending in the 
-     * unwrappedReceived buffer.  Caller should check handshake status
-     * after this returns
+     * Unwrap any data in the "encryptedReceived" buffer. An event will be
+     * generated to the end-user's listener if anything was unwrapped.  
+     * Caller should check handshake status after this returns
      * 
      * @return the number of bytes that SSLEngine consumed
      */
     private int unwrapPendingData()
     {
+        SafeByteArray byteArray = null;
+        int bytesConsumed;
+
+        synchronized(recvMutex) {
+            encryptedReceived.flip();
+            try {
+                UnwrapResult result = unwrap(encryptedReceived);
+                bytesConsumed = result.bytesConsumed;
+                byteArray = result.unwrapped;
+            }
+            finally {
+                encryptedReceived.compact();
+            }
+        }
+
+        /* Now out of synchronized block */
+        if (byteArray != null) {
+            onDataForApplication.emit(byteArray);
+        }
+        return bytesConsumed;
+    }
+
+    /**
+     * Unwrap data received from the network. If nothing is waiting in the
+     * "encryptedReceived" buffer, the data is unwrapped where it is, and 
+     * only what can't yet be unwrapped (such as an incomplete record) is 
+     * copied into "encryptedReceived". Otherwise as much as will fit is 
+     * added to "encryptedReceived" behind what's there, and that is 
+     * unwrapped. An event will be generated to the end-user's listener if 
+     * anything was unwrapped. Caller should check handshake status after 
+     * this returns, and call again if <em>data</em> has anything remaining.
+     * 
+     * @param data data from the network, whose position is advanced past
+     * what has been dealt with
+     * @return the number of bytes that SSLEngine consumed
+     */
+    private int unwrapPendingData(ByteBuffer data)
+    {
+        SafeByteArray byteArray = null;
+        int bytesConsumed;
+
+        synchronized(recvMutex) {
+            if (encryptedReceived.position() == 0) {
+                UnwrapResult result = unwrap(data);
+                bytesConsumed = result.bytesConsumed;
+                byteArray = result.unwrapped;
+                if (!hasError()) {
+                    putAsMuchAsFits(encryptedReceived, data);
+                }
+            }
+            else {
+                if (!encryptedReceived.hasRemaining()) {
+                    encryptedReceived = getLargerBuffer(
+                            "encryptedReceived", encryptedReceived, netBufferSize);
+                }
+                putAsMuchAsFits(encryptedReceived, data);
+                encryptedReceived.flip();
+                try {
+                    UnwrapResult result = unwrap(encryptedReceived);
+                    bytesConsumed = result.bytesConsumed;
+                    byteArray = result.unwrapped;
+                }
+                finally {
+                    encryptedReceived.compact();
+                }
+            }
+        }
+
+        /* Now out of synchronized block */
+        if (byteArray != null) {
+            onDataForApplication.emit(byteArray);
+        }
+        return bytesConsumed;
+    }
+
+    /**
+     * What came of a call to {@link JSSEContext#unwrap(ByteBuffer)}
+     */
+    private static class UnwrapResult {
+        /** The number of bytes consumed from the source */
+        int bytesConsumed = 0;
+        /** The data unwrapped, or null if there was none */
+        SafeByteArray unwrapped = null;
+    }
+
+    /**
+     * Unwrap as much as possible from a buffer, using the "unwrappedReceived"
+     * buffer for the output. Must be called while holding recvMutex. 
+     * 
+     * @param source encrypted data, in "read" mode; its position is advanced
+     * past what the SSLEngine consumed
+     * @return the number of bytes consumed, and a copy of everything that
+     * was unwrapped, which the caller should pass on to the end-user's 
+     * listener. If an error occurs it is emitted, and the result says what 
+     * was done before the error.
+     */
+    private UnwrapResult unwrap(ByteBuffer source)
+    {
+        UnwrapResult unwrapResult = new UnwrapResult();
         SSLEngineResult sslEngineResult;
         Status status;   
-        int bytesProduced = 0;
-        int bytesConsumed = 0;
         int bytesToUnwrap = 0;
         int lastConsumed = 0;
         HandshakeStatus handshakeStatus = null;
-        SafeByteArray byteArray = null;
 
-        synchronized(recvMutex) {
-            try {
-                encryptedReceived.flip();
-                
-                boolean unwrapDone = false;
-                do {
-                    int positionBeforeUnwrap = encryptedReceived.position();
-                    bytesToUnwrap = encryptedReceived.remaining();
-                    sslEngineResult = sslEngine.unwrap(encryptedReceived, unwrappedReceived);
-                    status = sslEngineResult.getStatus();
-                    handshakeStatus = sslEngineResult.getHandshakeStatus();
-                    /*
-                     * This should match sslEngineResult.bytesConsumed(), but we can't use this
-                     * due to Android Lollipop bug: https://code.google.com/p/android/issues/detail?id=93740
-                     */
-                    lastConsumed = encryptedReceived.position() - positionBeforeUnwrap;
+        try {
+            boolean unwrapDone = false;
+            do {
+                int positionBeforeUnwrap = source.position();
+                bytesToUnwrap = source.remaining();
+                sslEngineResult = unwrapWithHolder(source, unwrappedReceived);
+                status = sslEngineResult.getStatus();
+                handshakeStatus = sslEngineResult.getHandshakeStatus();
+                /*
+                 * This should match sslEngineResult.bytesConsumed(), but we can't use this
+                 * due to Android Lollipop bug: https://code.google.com/p/android/issues/detail?id=93740
+                 */
+                lastConsumed = source.position() - positionBeforeUnwrap;
 
-                    /* A call to unwrap can generate a status of FINISHED, which
-                     * you won't get from SSLEngine.getHandshakeStatus.  Such
-                     * a status is an indication that we need to re-check whether
-                     * anything's pending to be written
+                /* A call to unwrap can generate a status of FINISHED, which
+                 * you won't get from SSLEngine.getHandshakeStatus.  Such
+                 * a status is an indication that we need to re-check whether
+                 * anything's pending to be written
+                 */
+                if (handshakeStatus == HandshakeStatus.FINISHED ||
+                    (!handshakeCompleted &&
+                     handshakeStatus == HandshakeStatus.NOT_HANDSHAKING)) {
+                    /* Special case will happen when the handshake completes following
+                     * an unwrap.  The first time we tried wrapping some plain stuff,
+                     * it triggers the handshake but won't itself have been dealt with.
+                     * So now the handshake has finished, we have to try sending it
+                     * again
+                     * The second checking clause is necessary for certain
+                     * SSLEngine implementations (notably Apache Harmony
+                     * used on Android) which never return FINISHED
                      */
-                    if (handshakeStatus == HandshakeStatus.FINISHED ||
-                        (!handshakeCompleted &&
-                         handshakeStatus == HandshakeStatus.NOT_HANDSHAKING)) {
-                        /* Special case will happen when the handshake completes following
-                         * an unwrap.  The first time we tried wrapping some plain stuff,
-                         * it triggers the handshake but won't itself have been dealt with.
-                         * So now the handshake has finished, we have to try sending it
-                         * again
-                         * The second checking clause is necessary for certain
-                         * SSLEngine implementations (notably Apache Harmony
-                         * used on Android) which never return FINISHED
-                         */
 
-                        handshakeCompleted = true;
-                        wrapAndSendData();
-                        onConnected.emit();
-                        status = sslEngineResult.getStatus();
+                    handleHandshakeFinished();
+                    wrapAndSendData();
+                    onConnected.emit();
+                    status = sslEngineResult.getStatus();
+                }
+
+                
+                switch (status) {
+                case BUFFER_OVERFLOW :
+                    /* Usually this just means that earlier records have
+                     * filled the buffer, in which case take a copy of what's
+                     * there and start again with it empty. The buffer only
+                     * needs to grow if a single record doesn't fit.
+                     */
+                    if (unwrappedReceived.position() > 0) {
+                        unwrapResult.unwrapped = appendUnwrapped(unwrapResult.unwrapped);
                     }
+                    else {
+                        unwrappedReceived = getLargerBuffer("unwrappedReceived",unwrappedReceived,appBufferSize);
+                    }
+                    unwrapResult.bytesConsumed += lastConsumed;
+                    lastConsumed = 0;
+                    unwrapDone = false;
+                    break;
+                    
+                case BUFFER_UNDERFLOW:
+                    /* There's not enough data yet for engine to be able to decode
+                     * a full message. Not a problem; assume that more will come
+                     * in to the socket eventually
+                     */
+                    unwrapDone = true;
+                    break;
+                case CLOSED:
+                    /* This is taken to mean that the server end has
+                     * sent "SSL close notify alert".  Once it sees this,
+                     * ths SSLEngine will respond by generating an
+                     * appropriate handshake response that should be
+                     * sent to the server (as per RFC 2246 7.2.1).  
+                     * In this case, the SSLEngine will move into a
+                     * NEED_WRAP state, and we should emit whatever data
+                     * it's generated over the network.
+                     */
+                    closeNotifyReceived = true;
+
+                    /* Tell the SSLEngine that the application won't be
+                     * sending any more data (this probably has no effect
+                     * but it does no harm).
+                     */
+                    sslEngine.closeOutbound();
+                    unwrapResult.unwrapped = appendUnwrapped(unwrapResult.unwrapped);
+                    return unwrapResult;
 
+                case OK:
+                    /* Some stuff was unwrapped. */
+                    unwrapResult.bytesConsumed += lastConsumed;
                     
-                    switch (status) {
-                    case BUFFER_OVERFLOW :
-                        unwrappedReceived = getLargerBuffer("unwrappedReceived",unwrappedReceived,appBufferSize);
-                        unwrapDone = false;
-                        break;
-                        
-                    case BUFFER_UNDERFLOW:
-                        /* There's not enough data yet for engine to be able to decode
-                         * a full message. Not a problem; assume that more will come
-                         * in to the socket eventually
-                         */
+                    /* It may be that the unwrap consumed some, but not all of
+                     * the data. In which case, the loop continues to give it
+                     * another chance to process whatever's remaining
+                     */
+                    if (lastConsumed == 0) {
+                        /* No point looping around again */
                         unwrapDone = true;
-                        break;
-		    case CLOSED:
-			/* This is taken to mean that the server end has
-			 * sent "SSL close notify alert".  Once it sees this,
-			 * ths SSLEngine will respond by generating an
-			 * appropriate handshake response that should be
-			 * sent to the server (as per RFC 2246 7.2.1).  
-			 * In this case, the SSLEngine will move into a
-			 * NEED_WRAP state, and we should emit whatever data
-			 * it's generated over the network.
-			 */
-			closeNotifyReceived = true;
-
-			/* Tell the SSLEngine that the application won't be
-			 * sending any more data (this probably has no effect
-			 * but it does no harm).
-			 */
-			sslEngine.closeOutbound();
-			return bytesConsumed;
-
-		    case OK:
-                        /* Some stuff was unwrapped. */
-                        bytesConsumed += lastConsumed;
-                        bytesProduced = sslEngineResult.bytesProduced();
-                        
-                        /* It may be that the unwrap consumed some, but not all of
-                         * the data. In which case, the loop continues to give it
-                         * another chance to process whatever's remaining
-                         */
-                        if (lastConsumed == 0) {
-                            /* No point looping around again */
-                            unwrapDone = true;
-                        }
-                        else {
-                            /* It consumed some bytes, but perhaps not everything */
-                            unwrapDone = (lastConsumed == bytesToUnwrap);
-                        }
-                        // At this stage "lastConsumed" has already been added to 
-                        // "bytesConsumed"; don't do it again after exiting the while loop
-                        lastConsumed = 0;
-                        break;
                     }
-                } while (!unwrapDone);
-                
-                encryptedReceived.compact();
+                    else {
+                        /* It consumed some bytes, but perhaps not everything */
+                        unwrapDone = (lastConsumed == bytesToUnwrap);
+                    }
+                    // At this stage "lastConsumed" has already been added to 
+                    // "bytesConsumed"; don't do it again after exiting the while loop
+                    lastConsumed = 0;
+                    break;
+                }
+            } while (!unwrapDone);
+            
+            unwrapResult.bytesConsumed += lastConsumed;
+        }
+        catch (SSLException e) {
+            emitError(e, "unwrap failed");
+        }
 
-                bytesConsumed += lastConsumed;
-                bytesProduced = sslEngineResult.bytesProduced();
-            }
-            catch (SSLException e) {
-                emitError(e, "unwrap failed");
-                return bytesConsumed;
-            }
+        unwrapResult.unwrapped = appendUnwrapped(unwrapResult.unwrapped);
+        return unwrapResult;
+    }
 
-            if (bytesProduced > 0) {
-                unwrappedReceived.flip();
-                byte[] result = new byte[unwrappedReceived.remaining()];
-                unwrappedReceived.get(result);
-                unwrappedReceived.compact();
-                byteArray = new SafeByteArray(result);
-            }
+    /**
+     * Take a copy of anything in the "unwrappedReceived" buffer, leaving
+     * it empty. Must be called while holding recvMutex.
+     * @param unwrapped data unwrapped previously, or null if there was none
+     * @return <em>unwrapped</em> with the copy appended to it, or a new
+     * SafeByteArray if <em>unwrapped</em> was null, or null if there was
+     * nothing to copy and <em>unwrapped</em> was null
+     */
+    /**
+     * Call SSLEngine.unwrap, with this context's verification holder bound,
+     * in case the server's certificates are checked
+     */
+    private SSLEngineResult unwrapWithHolder(ByteBuffer source, ByteBuffer destination)
+            throws SSLException {
+        JavaTrustManager.VerificationHolder previous = trustManager_.bindHolder(verificationHolder_);
+        try {
+            return sslEngine.unwrap(source, destination);
+        }
+        finally {
+            trustManager_.unbindHolder(previous);
+        }
+    }
 
+    /**
+     * Call SSLEngine.wrap, with this context's verification holder bound
+     */
+    private SSLEngineResult wrapWithHolder(ByteBuffer[] sources, ByteBuffer destination)
+            throws SSLException {
+        JavaTrustManager.VerificationHolder previous = trustManager_.bindHolder(verificationHolder_);
+        try {
+            return sslEngine.wrap(sources, destination);
         }
-        
-        /* Now out of synchronized block */
-        if (byteArray != null) {
-            onDataForApplication.emit(byteArray);
+        finally {
+            trustManager_.unbindHolder(previous);
         }
-        return bytesConsumed;
+    }
 
+    private SafeByteArray appendUnwrapped(SafeByteArray unwrapped) {
+        unwrappedReceived.flip();
+        if (unwrappedReceived.hasRemaining()) {
+            if (unwrapped == null) {
+                unwrapped = new SafeByteArray();
+            }
+            /* Exactly one copy, which is handed on to the next layer */
+            unwrapped.append(unwrappedReceived);
+        }
+        unwrappedReceived.clear();
+        return unwrapped;
+    }
+
+    /**
+     * Copy bytes from one buffer to another, as many as will fit.
+     * @param destination buffer in "write" mode
+     * @param source buffer in "read" mode, whose position is advanced past
+     * the bytes copied
+     */
+    private static void putAsMuchAsFits(ByteBuffer destination, ByteBuffer source) {
+        if (source.remaining() <= destination.remaining()) {
+            destination.put(source);
+        }
+        else {
+            ByteBuffer part = source.duplicate();
+            part.limit(part.position() + destination.remaining());
+            destination.put(part);
+            source.position(part.position());
+        }
     }
 
     /**
@@ -377,147 +621,187 @@ public class JSSEContext extends TLSContext {
      * 
      */
     private int wrapAndSendData() {
+        return wrapAndSendData(NO_DATA);
+    }
+
+    /**
+     * Use the SSLEngine to wrap everything that we've so far got in 
+     * "plainToSend", followed by new data from the application, and then 
+     * send all of that to the socket.  The new data is wrapped where it is,
+     * and only what the SSLEngine doesn't consume (for example, because the
+     * handshake hasn't finished) is copied into "plainToSend". Caller
+     * is responsible for checking the handshake status on return
+     * 
+     * @param data new data from the application, in "read" mode
+     * @return the number of bytes that were sent out to the network
+     * 
+     */
+    private int wrapAndSendData(ByteBuffer[] data) {
 
-        int bytesSentToSocket = 0;
         SafeByteArray byteArray = null;
         SSLEngineResult sslEngineResult = null;
         Status status = null;
         HandshakeStatus handshakeStatus = null;
         boolean handshakeFinished = false;
         
-        synchronized(sendMutex) {
-            /* Check if there's anything outstanding to be sent at the
-             * top of the loop, so that we clear the "wrappedToSend"
-             * buffer before asking the engine to encrypt anything
-             * TODO: is this required? I don't think anything gets put in
-             * wrappedToSend apart from in here?
-             */
-            wrappedToSend.flip();
-            if (wrappedToSend.hasRemaining()) {
-                byte[] b = new byte[(wrappedToSend.remaining())];
-                wrappedToSend.get(b);
-                byteArray = new SafeByteArray(b);
-            }
-            wrappedToSend.compact();
-        } /* end synchronized */
-
-        if (byteArray != null ) {
-            int s =  byteArray.getSize();
-            onDataForNetwork.emit(byteArray);
-            bytesSentToSocket += s;
-            byteArray = null;
-        }
-
-        /* There's nothing waiting to be sent. Now see what new data needs 
-         * encrypting
-         */
         synchronized(sendMutex) {
             plainToSend.flip();
-	    /* It does no harm to call SSLEngine.wrap if there is nothing in
-	     * "plainToSend" and this will be required in at least two
-	     * cases:
-	     * - during the initial handshake, when the application hasn't
-	     *   yet sent anything, but wrap() must be called to generate
-	     *   the TLS handshake data
-	     * - during closure, when wrap() will generate the response to
-	     *   the server's close notify message
-	     */
-	    try {
+            ByteBuffer[] sources = new ByteBuffer[data.length + 1];
+            sources[0] = plainToSend;
+            System.arraycopy(data, 0, sources, 1, data.length);
+
+            /* It does no harm to call SSLEngine.wrap if there is nothing to
+             * wrap, and this will be required in at least two cases:
+             * - during the initial handshake, when the application hasn't
+             *   yet sent anything, but wrap() must be called to generate
+             *   the TLS handshake data
+             * - during closure, when wrap() will generate the response to
+             *   the server's close notify message
+             *
+             * Each call to wrap() produces at most one record, so keep
+             * going for as long as it consumes data.
+             */
+            try {
                 boolean wrapDone = false;
                 do {
-                    sslEngineResult = sslEngine.wrap(plainToSend, wrappedToSend);
+                    sslEngineResult = wrapWithHolder(sources, wrappedToSend);
                     handshakeStatus = sslEngineResult.getHandshakeStatus();
                     status = sslEngineResult.getStatus();
-                    
-                    
-                    if (status == Status.BUFFER_OVERFLOW) {
+
+                    /* FINISHED can only come back for wrap() or unwrap(); so 
+                     * check to see if we just had it.
+                     * The second checking clause is necessary for certain
+                     * SSLEngine implementations (notably Apache Harmony
+                     * used on Android) which never return FINISHED
+                     */
+                    boolean finishedNow = (handshakeStatus == HandshakeStatus.FINISHED ||
+                        (!handshakeCompleted &&
+                         handshakeStatus == HandshakeStatus.NOT_HANDSHAKING));
+                    if (finishedNow) {
+                        handshakeFinished = true;
+                    }
+
+                    switch (status) {
+                    case BUFFER_OVERFLOW:
+                        /* Nothing is left in "wrappedToSend" between records,
+                         * so this means a single record doesn't fit
+                         */
                         wrappedToSend = getLargerBuffer(
                                 "wrappedToSend", wrappedToSend, netBufferSize);
-                    }
-                    else {
+                        break;
+
+                    case CLOSED :
+                        /* Engine closed - this is expected if a close notify has
+                         * been sent by the server, and the SSLEngine has finished
+                         * generating the response to that message.
+                         */
+                        if (!closeNotifyReceived) {
+                            emitError(null, "SSLEngine.wrap returned " + status);
+                            return 0;
+                        }
+                        /* CLOSED was expected, so send the close response
+                         * back to the server
+                         */
                         wrapDone = true;
+                        byteArray = appendWrapped(byteArray);
+                        break;
+
+                    case OK:
+                        /* This is the status we expect here. It means data
+                         * was successfully wrapped and that there's something
+                         * to be sent.
+                         */  
+                        byteArray = appendWrapped(byteArray);
+                        /* If this wrap finished the handshake (as it does 
+                         * when a session is resumed), anything the application
+                         * sent during the handshake can be wrapped now
+                         */
+                        wrapDone = ((sslEngineResult.bytesConsumed() == 0 && !finishedNow) || 
+                                !hasRemaining(sources));
+                        break;
+
+                    case BUFFER_UNDERFLOW:
+                        /* Can't happen for a wrap */
+                        emitError(null, "SSLEngine.wrap returned " + status);
+                        return 0;
                     }
                 }
                 while (!wrapDone);
             }
-            
             catch (SSLException e) {
                 /* This could result from the "enlargeBuffer" running out of space */
                 emitError(e,"SSLEngine.wrap failed");
-                return bytesSentToSocket;
-            }
-            plainToSend.compact();
-
-            /* FINISHED can only come back for wrap() or unwrap(); so check to 
-             * see if we just had it.
-	     * The second checking clause is necessary for certain
-	     * SSLEngine implementations (notably Apache Harmony
-	     * used on Android) which never return FINISHED
-             */
-            if (handshakeStatus == HandshakeStatus.FINISHED ||
-		(!handshakeCompleted &&
-		 handshakeStatus == HandshakeStatus.NOT_HANDSHAKING)) {
-                handshakeFinished = true;
+                return 0;
             }
-
-            switch (status) {
-            case CLOSED :
-                /* Engine closed - this is expected if a close notify has
-		 * been sent by the server, and the SSLEngine has finished
-		 * generating the response to that message.
-		 */
-		if (!closeNotifyReceived) {
-		    emitError(null, "SSLEngine.wrap returned " + status);
-		    return (bytesSentToSocket);
-		}
-		/* CLOSED was expected, so fall through to OK, in order
-		 * to send the close response back to the server
-		 */
-            case OK:
-                /* This is the status we expect here. It means data
-                 * was successfully wrapped and that there's something
-                 * to be sent.
-                 */  
-                wrappedToSend.flip();
-                if (wrappedToSend.hasRemaining()) {
-                    byte[] b = new byte[(wrappedToSend.remaining())];
-                    wrappedToSend.get(b);
-                    byteArray = new SafeByteArray(b);
+            finally {
+                /* Keep whatever hasn't yet been consumed */
+                plainToSend.compact();
+                for (ByteBuffer buffer : data) {
+                    if (buffer.remaining() > plainToSend.remaining()) {
+                        plainToSend = getLargerBuffer("plainToSend", plainToSend, 
+                                Math.max(appBufferSize, buffer.remaining()));
+                    }
+                    plainToSend.put(buffer);
                 }
-                wrappedToSend.compact();
-                break;
-
-            case BUFFER_UNDERFLOW:
-                /* Can't happen for a wrap */
-            case BUFFER_OVERFLOW:
-                /* We already dealt with this, so don't expect to come here
-                 */
-                emitError(null, "SSLEngine.wrap returned " + status);
-                return bytesSentToSocket;
-
             }
         } /* end synchronized */
         
         if (handshakeFinished) {
-            handshakeCompleted = true;
+            handleHandshakeFinished();
             onConnected.emit();
         }
         
-        if (byteArray != null) {
-            int s = byteArray.getSize();
-
-            onDataForNetwork.emit(byteArray);
-            bytesSentToSocket += s;
-            byteArray = null;
+        if (byteArray == null) {
+            return 0;
         }
+        int bytesSentToSocket = byteArray.getSize();
+        onDataForNetwork.emit(byteArray);
 
-        /* Note that there may still be stuff in "plainToSend" that hasn't
-         * yet been consumed
-         */
         return bytesSentToSocket;
 
     }
 
+    /**
+     * Take a copy of anything in the "wrappedToSend" buffer, leaving
+     * it empty. Must be called while holding sendMutex.
+     * @param wrapped data wrapped previously, or null if there was none
+     * @return <em>wrapped</em> with the copy appended to it, or a new
+     * SafeByteArray if <em>wrapped</em> was null, or null if there was
+     * nothing to copy and <em>wrapped</em> was null
+     */
+    private SafeByteArray appendWrapped(SafeByteArray wrapped) {
+        wrappedToSend.flip();
+        if (wrappedToSend.hasRemaining()) {
+            if (wrapped == null) {
+                wrapped = new SafeByteArray();
+            }
+            /* Exactly one copy, which is handed on to the next layer */
+            wrapped.append(wrappedToSend);
+        }
+        wrappedToSend.clear();
+        return wrapped;
+    }
+
+    /**
+     * @return <em>true</em> if any of the buffers has bytes remaining
+     */
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final ByteBuffer[] NO_DATA = new ByteBuffer[0];
+
+    /**
+     * Name under which the result of checking the server's certificates is
+     * kept with the SSLSession, for when the session is resumed
+     */
+    private static final String VERIFICATION_RESULT_KEY = JavaTrustManager.VerificationResult.class.getName();
+
     
     /**
      * Process the current handshake status. 
@@ -535,6 +819,11 @@ public class JSSEContext extends TLSContext {
              */
             return false;
         case NEED_TASK:
+            if (factory_ != null && factory_.hasDelegatedTaskExecutor()) {
+                /* The handshake carries on once the tasks have finished */
+                runDelegatedTasksOnExecutor();
+                return false;
+            }
             runDelegatedTasks(false); /* false==don't create separate threads */ 
             
             /* after tasks have run, need to come back here and check
@@ -601,7 +890,7 @@ public class JSSEContext extends TLSContext {
         Runnable nextTask = sslEngine.getDelegatedTask();
         
         while (nextTask != null) {
-            final Runnable task = nextTask;
+            final Runnable task = trustManager_.withHolder(verificationHolder_, nextTask);
             Thread delegatedTaskThread = new Thread() {
                 public void run() {
                     task.run();
@@ -619,6 +908,68 @@ public class JSSEContext extends TLSContext {
         } 
     }
     
+    /**
+     * Pass all pending delegated tasks to the factory's executor, unless 
+     * some are already running. While they run, the SSLEngine won't make
+     * progress, and anything received from the network or application is
+     * kept until {@link #handleDelegatedTasksFinished()} is called on the
+     * EventLoop.
+     */
+    private void runDelegatedTasksOnExecutor() {
+        if (delegatedTasksRunning_) {
+            return;
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        Runnable task = sslEngine.getDelegatedTask();
+        while (task != null) {
+            tasks.add(trustManager_.withHolder(verificationHolder_, task));
+            task = sslEngine.getDelegatedTask();
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        delegatedTasksRunning_ = true;
+        factory_.runDelegatedTasks(tasks, new Event.Callback() {
+            public void run() {
+                handleDelegatedTasksFinished();
+            }
+        }, delegatedTaskEventOwner_);
+    }
+
+    /**
+     * Carry on with the handshake after delegated tasks have been run by the
+     * factory's executor, dealing with anything that was received from the
+     * network while they ran.
+     */
+    private void handleDelegatedTasksFinished() {
+        delegatedTasksRunning_ = false;
+        if (closed_ || hasError()) {
+            return;
+        }
+
+        do {
+            /* */
+        } while (processHandshakeStatus());
+
+        /* The handshake may not need any more data, but records which
+         * followed the handshake messages could still be waiting
+         */
+        boolean pendingData;
+        synchronized(recvMutex) {
+            pendingData = (encryptedReceived.position() > 0);
+        }
+        if (pendingData && !delegatedTasksRunning_ && !hasError()) {
+            unwrapPendingData();
+            do {
+                /* */
+            } while (processHandshakeStatus());
+        }
+
+        if (closeNotifyReceived && !hasError()) {
+            emitError(null, "SSL Close notify received");
+        }
+    }
+
     /**
      * This method must be called to inform the JSSEContext object of the 
      * certificate(s) which were presented by the peer during the handshake.
@@ -644,6 +995,7 @@ public class JSSEContext extends TLSContext {
         for (X509Certificate x509:certs) {
             peerCertificateChain.add(new JavaCertificate(x509));
         }
+        peerCertificateException = certificateException;
         
         /* Swiften uses SSL_get_verify_result() for this, and the documentation
          * for that says it "while the verification of a certificate can fail
@@ -901,20 +1253,23 @@ public class JSSEContext extends TLSContext {
         }
         
         /* Use subclass-specific method depending on what subclass it is */
+        boolean result = false;
         if (cert instanceof PKCS12Certificate) {
-            return setClientCertificatePKCS12((PKCS12Certificate)cert);
+            result = setClientCertificatePKCS12((PKCS12Certificate)cert);
         }
-        
-        if (cert instanceof CAPICertificate) {
-            return setClientCertificateCAPI((CAPICertificate)cert);
+        else if (cert instanceof CAPICertificate) {
+            result = setClientCertificateCAPI((CAPICertificate)cert);
         }
-        
-        /* Not a type that is recognised 
-         */
-        emitError(null,"setClientCertificate cannot work with " 
-                + cert.getClass() + " objects");
-
-        return false;
+        else {
+            /* Not a type that is recognised 
+             */
+            emitError(null,"setClientCertificate cannot work with " 
+                    + cert.getClass() + " objects");
+        }
+        if (result) {
+            clientCertificate_ = cert;
+        }
+        return result;
 
     }
 
@@ -929,70 +1284,35 @@ public class JSSEContext extends TLSContext {
         /* Note that we need to deal with arbitrarily large ByteArrays here;
          * specifically it may be that the number of bytes from the network is
          * larger than the value of "netBufferMax" that was used to size the
-         * encryptedReceived buffer 
+         * encryptedReceived buffer. The data is not concatenated or copied
+         * up front: each part of it is unwrapped in turn where possible.
          */
-        byte[] b = data.getData();
-        
-        /* We need to deal with arbitrarily large ByteArrays here; specifically
-         * it may be that the number of bytes from the network is
-         * larger than the value of "netBufferMax" that was used to size the
-         * encryptedReceived buffer 
-         */
-        int remaining = b.length;
-        int chunkPos = 0;
-        while (remaining > 0) {                
-            synchronized(recvMutex) {
-                int chunkSize = encryptedReceived.remaining();
-                if (chunkSize == 0) {
-                    encryptedReceived = getLargerBuffer(
-                            "encryptedReceived", encryptedReceived, netBufferSize);
-                    /* We know that this will now give us a non-zero value */
-                    chunkSize = encryptedReceived.remaining();                    
-                }
-                if (remaining <= chunkSize) {
-                    /* There's room in the buffer for all remaining bytes */
-                    chunkSize = remaining;
-                }
-                try {
-                    encryptedReceived.put(b, chunkPos, chunkSize);
-                    remaining = (remaining - chunkSize);
-                    chunkPos = (chunkPos + chunkSize);
+        for (ByteBuffer buffer : data.toByteBuffers()) {
+            while (buffer.hasRemaining()) {
+                unwrapPendingData(buffer);
+                if (hasError()) {
+                    return;
                 }
-                catch (BufferOverflowException e) {
-                    /* We never expect buffer overflow, because we are being
-                     * careful not to write too much.  If this happens, 
-                     * then include info in the error that may help
-                     * diagnosis
+
+                /* Now keep checking SSLEngine until no more handshakes are required */
+                do {
+                    /* */
+                } while (processHandshakeStatus());
+                
+                if (closeNotifyReceived) {
+                    /* This is the only way to let the application know that close 
+                     * notify was received.  This check is done after finishing with
+                     * the handshake checks, so that the SSLEngine's response to 
+                     * the close notify has been dealt with.
                      */
-                    emitError(e, "Unexpected when writing encryptedReceived; remaining=" + 
-                            remaining + 
-                            "; chunkPos=" + chunkPos +
-                            "; chunkSize= " + chunkSize + 
-                            "; encryptedReceived=" + encryptedReceived);
+                    emitError(null, "SSL Close notify received");
                     return;
                 }
-            }
-
-            unwrapPendingData();
-
-            /* Now keep checking SSLEngine until no more handshakes are required */
-            do {
-                /* */
-            } while (processHandshakeStatus());
-            
-            if (closeNotifyReceived) {
-                /* This is the only way to let the application know that close 
-                 * notify was received.  This check is done after finishing with
-                 * the handshake checks, so that the SSLEngine's response to 
-                 * the close notify has been dealt with.
+                
+                /* Loop round so long as there are still bytes from the network
+                 * to be processed
                  */
-                emitError(null, "SSL Close notify received");
-                return;
             }
-            
-            /* Loop round so long as there are still bytes from the network
-             * to be processed
-             */
         }
     }
 
@@ -1010,60 +1330,16 @@ public class JSSEContext extends TLSContext {
 	    emitError(null,
 	      "handleDataFromApplication called after SSLEngine closed");
 	}
-        byte[] b = data.getData();
 
-        /* Need to cope in the case that the application sends a ByteArray
-         * with more data than will fit in the "plainToSend" buffer
+        /* The data is wrapped where it is, however large it is, and only
+         * copied if it can't be wrapped yet
          */
-        int remaining = b.length;
-        int chunkPos = 0;
-        while (remaining > 0) {
-            synchronized(sendMutex) {
-                int chunkSize = plainToSend.remaining();
-                if (chunkSize == 0) {              
-                    plainToSend = getLargerBuffer("plainToSend", plainToSend, appBufferSize);
-                    /* We know that this will now give us a non-zero value */
-                    chunkSize = plainToSend.remaining();
-                }
-                if (remaining <= chunkSize) {
-                    /* There's room in the buffer for all remaining bytes */
-                    chunkSize = remaining;
-                }
-                try {
-                    /* Note that "plainToSend" may not be empty, because it's possible
-                     * that calls to SSLEngine.wrap haven't yet consumed everything
-                     * in there
-                     */
-                    
-                    plainToSend.put(b, chunkPos, chunkSize);
-                    remaining = (remaining - chunkSize);
-                    chunkPos = (chunkPos + chunkSize);
-                }
-                catch (BufferOverflowException e) {
-                    /* We never expect buffer overflow, because we are being
-                     * careful not to write too much. If this happens, then
-                     * include info in the error that may help diagnosis
-                     */
-                    emitError(e, "Unexpected when writing to plainToSend; remaining=" +
-                            remaining +
-                            "; chunkPos=" + chunkPos +
-                            "; chunkSize=" + chunkSize +
-                            "; plainToSend=" + plainToSend);
-                    return;
-                }
-            }
-
-            int sentBytes = wrapAndSendData();
+        wrapAndSendData(data.toByteBuffers());
 
-            /* Now keep checking SSLEngine until no more handshakes are required */
-            do {
-                /* */
-            } while (processHandshakeStatus());
-
-            /* Loop round so long as there are still bytes from the application
-             * to be processed
-             */
-        }
+        /* Now keep checking SSLEngine until no more handshakes are required */
+        do {
+            /* */
+        } while (processHandshakeStatus());
     }
 
 
@@ -1084,6 +1360,14 @@ public class JSSEContext extends TLSContext {
         return peerCertificateVerificationError;
     }
 
+    /**
+     * @return the exception from which {@link #getPeerCertificateVerificationError()}
+     * was derived, or null if there was none
+     */
+    CertificateException getPeerCertificateException() {
+        return peerCertificateException;
+    }
+
     @Override
     public ByteArray getFinishMessage() {
         /* TODO: Doesn't appear to be an obvious way to get this
@@ -1092,6 +1376,19 @@ public class JSSEContext extends TLSContext {
         
         return null;
     }
+
+    /**
+     * Delegated tasks which are running on the factory's executor are left
+     * to finish, but the handshake isn't carried on afterwards.
+     */
+    @Override
+    public void close() {
+        closed_ = true;
+        verificationHolder_.take();
+        if (factory_ != null && factory_.hasDelegatedTaskExecutor()) {
+            factory_.removeDelegatedTaskEvents(delegatedTaskEventOwner_);
+        }
+    }
     
     @Override
     public String toString() {
@@ -1120,9 +1417,22 @@ public class JSSEContext extends TLSContext {
      * enabled for this context. Null means no restriction
      */
     public JSSEContext(Set<String> restrictedCipherSuites) {
+        this(restrictedCipherSuites, null);
+    }
+
+    /**
+     * Construct a new JSSEContext object which uses the SSLContext shared
+     * by other contexts from the same factory.
+     * @param restrictedCipherSuites a list of cipher suites that are to be
+     * enabled for this context. Null means no restriction
+     * @param factory the factory providing the SSLContext, or null for this 
+     * context to create its own
+     */
+    JSSEContext(Set<String> restrictedCipherSuites, JSSEContextFactory factory) {
         if (restrictedCipherSuites != null) {
             this.restrictedCipherSuites = new HashSet<String>(restrictedCipherSuites);
         }
+        factory_ = factory;
     }
     
 
@@ -1138,7 +1448,8 @@ public class JSSEContext extends TLSContext {
     private SSLEngine sslEngine;
     /**
      * Contains plaintext information supplied by the caller which is
-     * waiting to be encrypted and sent out over the socket. 
+     * waiting to be encrypted and sent out over the socket. Data is only
+     * copied in here if the SSLEngine couldn't wrap it straight away.
      */
     private ByteBuffer plainToSend;
     
@@ -1156,20 +1467,24 @@ public class JSSEContext extends TLSContext {
     private int netBufferSize;
     
     /**
-     * Contains encrypted information produced by the SSLEngine which is
-     * waiting to be sent over the socket
+     * Receives encrypted information produced by the SSLEngine, which is
+     * copied out to be sent over the socket after each record, so that
+     * the buffer is reused and is empty between calls
      */
     private ByteBuffer wrappedToSend;
     
     /**
      * Contains (presumably encrypted) information received from the socket
-     * which is waiting to be unwrapped by the SSLEngine. 
+     * which is waiting to be unwrapped by the SSLEngine, such as an
+     * incomplete record. Data is only copied in here if the SSLEngine 
+     * couldn't unwrap it straight away.
     */
     private ByteBuffer encryptedReceived;
     
     /**
-     * Contains data that the SSLEngine has unwrapped and is now waiting to
-     * be read by the caller
+     * Receives data that the SSLEngine has unwrapped, which is copied out
+     * for the caller, so that the buffer is reused and is empty between 
+     * calls
      */
     private ByteBuffer unwrappedReceived;
     /**
@@ -1191,31 +1506,97 @@ public class JSSEContext extends TLSContext {
      * may be null if no error was found.
      */
     private CertificateVerificationError peerCertificateVerificationError = null;
+
+    /**
+     * The exception from which peerCertificateVerificationError was derived
+     */
+    private CertificateException peerCertificateException = null;
               
     private final Logger logger_ = Logger.getLogger(this.getClass().getName());
     
     private KeyManager myKeyManager_ = null;
+
+    /**
+     * The client certificate for which {@link #myKeyManager_} was set up,
+     * or null if there is none
+     */
+    private CertificateWithKey clientCertificate_ = null;
+
+    /**
+     * The factory which provides the SSLContext, or null if this object
+     * creates its own
+     */
+    private final JSSEContextFactory factory_;
+
+    /**
+     * The trust manager used by the SSLContext, which knows the results
+     * of checking server certificates
+     */
+    private JavaTrustManager trustManager_ = null;
+
+    /**
+     * The host and port of the peer passed to {@link #connect(String, int)},
+     * or null and -1 if not known
+     */
+    private String peerHost_ = null;
+    private int peerPort_ = -1;
+
+    /**
+     * When the handshake was started, in milliseconds since the epoch
+     */
+    private long handshakeStartTime_ = 0;
+
+    /**
+     * When the handshake was started, as given by System.nanoTime()
+     */
+    private long handshakeStartNanos_ = 0;
+
+    /**
+     * Whether delegated tasks are being run by the factory's executor
+     */
+    private boolean delegatedTasksRunning_ = false;
+
+    /**
+     * Owner of the events posted when delegated tasks finish, so that they
+     * can be removed when the context is closed
+     */
+    private final EventOwner delegatedTaskEventOwner_ = new EventOwner() {};
+
+    /**
+     * Where the trust manager puts the result of checking the server's
+     * certificates during this context's handshake
+     */
+    private final JavaTrustManager.VerificationHolder verificationHolder_ =
+            new JavaTrustManager.VerificationHolder();
+
+    /**
+     * Whether {@link #close()} has been called
+     */
+    private volatile boolean closed_ = false;
+
+    /**
+     * Whether the completed handshake resumed a previous session
+     */
+    private boolean sessionResumed_ = false;
     
     /**
-     * Set up the SSLContext and JavaTrustManager that will be used for this
-     * JSSEContext.
+     * Create and initialise an SSLContext.
      * 
      * TODO: We probably want a way to allow callers to supply their own
      * values for SSLContext and TrustManager
      * 
-     * @return an SSLContext, or null if one cannot be created. In this case,
-     * an error will have been emitted.
+     * @param keyManager the KeyManager for the client certificate, or null
+     * to use the "default" implementation, which will be sufficient for 
+     * starting TLS with no client certificate
+     * @param trustManager the trust manager, not null
+     * @return an SSLContext, not null
+     * @throws SSLException if an SSLContext couldn't be created for any
+     * protocol
      */
-    private SSLContext getSSLContext()
+    static SSLContext createSSLContext(KeyManager keyManager, JavaTrustManager trustManager)
+            throws SSLException
     {
-        JavaTrustManager[] tm = null;
-        
-        try {
-            tm = new JavaTrustManager[] { new JavaTrustManager(this)};
-        }
-        catch (SSLException e) {
-            emitError(e, "Couldn't create JavaTrustManager");
-        }
+        JavaTrustManager[] tm = new JavaTrustManager[] { trustManager };
         
         /*
          * This is the list of protocols, in preference order, that will be
@@ -1249,14 +1630,9 @@ public class JSSEContext extends TLSContext {
             try {            	
 				sslContext = SSLContext.getInstance(protocol);
                 
-                /* If a KeyManager has been set up in setClientCertificate()
-                 * then use it; otherwise the "default" implementation will be 
-                 * used, which will be sufficient for starting TLS with no
-                 * client certificate
-                 */
                 KeyManager[] keyManagers = null;
-                if (myKeyManager_ != null) {
-                    keyManagers = new KeyManager[] { myKeyManager_ };
+                if (keyManager != null) {
+                    keyManagers = new KeyManager[] { keyManager };
                 }
                 try {
                     sslContext.init(
@@ -1281,8 +1657,7 @@ public class JSSEContext extends TLSContext {
         /* Fell through without being able to initialise using any
          * of the protocols
          */
-        emitError(lastException, problems);
-        return null;
+        throw new SSLException(problems, lastException);
        
     }
 }
@@ -11,8 +11,26 @@
 package com.isode.stroke.tls.java;
 
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+
+import com.isode.stroke.eventloop.Event;
+import com.isode.stroke.eventloop.EventLoop;
+import com.isode.stroke.eventloop.EventOwner;
+import com.isode.stroke.tls.CertificateWithKey;
 import com.isode.stroke.tls.TLSContext;
 import com.isode.stroke.tls.TLSOptions;
 import com.isode.stroke.tls.TLSContextFactory;
@@ -25,9 +43,93 @@ import com.isode.stroke.tls.TLSContextFactory;
  * <a href=http://docs.oracle.com/javase/7/docs/technotes/guides/security/StandardNames.html#ciphersuites>
  * Oracle's "Java Cryptography Architecture Standard Algorithm Name Documentation"</a>.
  * 
+ * <p>The TLSContexts created by one factory share an SSLContext for each
+ * client certificate (and one for no client certificate), so that the trust
+ * store is only loaded once, and so that the SSLContext's session cache
+ * allows sessions with a server to be resumed when reconnecting to it.
+ * 
+ * <p>The SSLEngine's "delegated tasks", which do the expensive parts of a
+ * handshake such as checking certificates and key exchange computations,
+ * are run as soon as they're needed by the thread using the context, unless
+ * the factory is given an EventLoop. In that case they're run by an
+ * Executor, and the handshake carries on in an event posted to the EventLoop
+ * once they've finished, so that many handshakes at once don't hold up the
+ * EventLoop's thread.
+ * 
  */
 public class JSSEContextFactory implements TLSContextFactory {
 
+    /**
+     * Holds the default executor for delegated tasks, which is only created 
+     * when first needed.
+     */
+    private static class DefaultDelegatedTaskExecutor {
+        static final Executor instance = createDefaultDelegatedTaskExecutor();
+    }
+
+    /**
+     * How many batches of delegated tasks the default executor queues before
+     * running more of them on the threads submitting them
+     */
+    private static final int MAX_QUEUED_DELEGATED_TASKS = 1024;
+
+    private static Executor createDefaultDelegatedTaskExecutor() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 
+                60, TimeUnit.SECONDS, 
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_DELEGATED_TASKS),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "JSSEContext delegated tasks");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                /* If the queue is full, fall back to running them inline */
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the bounded executor for delegated tasks shared by all 
+     * factories which are given an EventLoop but no executor, not null
+     */
+    public static Executor getDefaultDelegatedTaskExecutor() {
+        return DefaultDelegatedTaskExecutor.instance;
+    }
+
+    /**
+     * Create a factory whose contexts run delegated tasks inline.
+     */
+    public JSSEContextFactory() {
+        this(null, null);
+    }
+
+    /**
+     * Create a factory whose contexts run delegated tasks using the
+     * default executor.
+     * @param eventLoop the EventLoop on which the contexts are used, to 
+     * which the handshake returns after running delegated tasks. Should
+     * not be null.
+     */
+    public JSSEContextFactory(EventLoop eventLoop) {
+        this(eventLoop, getDefaultDelegatedTaskExecutor());
+    }
+
+    /**
+     * Create a factory.
+     * @param eventLoop the EventLoop on which the contexts are used, to 
+     * which the handshake returns after running delegated tasks, or null
+     * for delegated tasks to be run inline
+     * @param delegatedTaskExecutor runs delegated tasks; ignored if
+     * <em>eventLoop</em> is null, and must not be null otherwise
+     */
+    public JSSEContextFactory(EventLoop eventLoop, Executor delegatedTaskExecutor) {
+        eventLoop_ = eventLoop;
+        delegatedTaskExecutor_ = (eventLoop == null ? null : delegatedTaskExecutor);
+    }
+
     @Override
     public boolean canCreate() {
         return true;
@@ -35,8 +137,195 @@ public class JSSEContextFactory implements TLSContextFactory {
 
     @Override
     public TLSContext createTLSContext(TLSOptions tlsOptions) {
-        return new JSSEContext(restrictedCipherSuites);
+        /* None of the TLSOptions affect the SSLContext, so one SSLContext 
+         * is shared regardless of them
+         */
+        return new JSSEContext(restrictedCipherSuites, this);
+    }
+
+    /**
+     * @return the number of handshakes completed by TLSContexts created by
+     * this factory
+     */
+    public long getHandshakeCount() {
+        return handshakeCount_.get();
     }
+
+    /**
+     * @return the number of handshakes counted by {@link #getHandshakeCount()}
+     * which resumed a previous session rather than establishing a new one
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakeCount_.get();
+    }
+
+    /**
+     * @return the mean time taken by the handshakes counted by 
+     * {@link #getHandshakeCount()}, from starting until finishing, in 
+     * milliseconds; 0 if there have been none
+     */
+    public long getAverageHandshakeMillis() {
+        long count = handshakeCount_.get();
+        if (count == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(totalHandshakeNanos_.get() / count);
+    }
+
+    /**
+     * @return the longest time taken by any of the handshakes counted by
+     * {@link #getHandshakeCount()}, in milliseconds
+     */
+    public long getMaxHandshakeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxHandshakeNanos_.get());
+    }
+
+    /**
+     * @return the number of contexts whose delegated tasks have been passed
+     * to the executor and haven't yet finished, whether waiting or running
+     */
+    public int getDelegatedTaskQueueDepth() {
+        return delegatedTaskQueueDepth_.get();
+    }
+
+    /**
+     * @return the highest value that {@link #getDelegatedTaskQueueDepth()}
+     * has had
+     */
+    public int getMaxDelegatedTaskQueueDepth() {
+        return maxDelegatedTaskQueueDepth_.get();
+    }
+
+    /**
+     * @return whether contexts should pass delegated tasks to
+     * {@link #runDelegatedTasks} rather than running them inline
+     */
+    boolean hasDelegatedTaskExecutor() {
+        return delegatedTaskExecutor_ != null;
+    }
+
+    /**
+     * Run a context's delegated tasks, in order, on the executor, and then
+     * post an event to the EventLoop. Must only be called if 
+     * {@link #hasDelegatedTaskExecutor()}.
+     * @param tasks the tasks, not null
+     * @param whenFinished called on the EventLoop once the tasks have 
+     * finished, whether or not they succeeded; not null
+     * @param owner the owner of the event which calls <em>whenFinished</em>,
+     * for {@link #removeDelegatedTaskEvents}; not null
+     */
+    void runDelegatedTasks(final List<Runnable> tasks, final Event.Callback whenFinished, final EventOwner owner) {
+        int depth = delegatedTaskQueueDepth_.incrementAndGet();
+        int maxDepth;
+        while (depth > (maxDepth = maxDelegatedTaskQueueDepth_.get()) &&
+                !maxDelegatedTaskQueueDepth_.compareAndSet(maxDepth, depth)) {
+            /* Another thread changed the maximum; try again */
+        }
+        delegatedTaskExecutor_.execute(new Runnable() {
+            public void run() {
+                try {
+                    for (Runnable task : tasks) {
+                        task.run();
+                    }
+                }
+                finally {
+                    delegatedTaskQueueDepth_.decrementAndGet();
+                    eventLoop_.postEvent(whenFinished, owner);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove events posted by {@link #runDelegatedTasks} which have not yet
+     * been processed. Tasks which are still running will post their event
+     * when they finish.
+     * @param owner the owner passed to runDelegatedTasks, not null
+     */
+    void removeDelegatedTaskEvents(EventOwner owner) {
+        eventLoop_.removeEventsFromOwner(owner);
+    }
+
+    /**
+     * Get the SSLContext to be shared by contexts using a client certificate,
+     * creating it if necessary.
+     * @param certificate the client certificate, or null for none. SSLContexts
+     * for client certificates are kept for as long as the certificate object
+     * is in use.
+     * @param keyManager the KeyManager for <em>certificate</em>, which is
+     * used if the SSLContext has to be created; null if <em>certificate</em>
+     * is null.
+     * @return an initialised SSLContext, not null
+     * @throws SSLException if an SSLContext couldn't be created
+     */
+    synchronized SSLContext getSSLContext(CertificateWithKey certificate, KeyManager keyManager) 
+            throws SSLException {
+        SSLContext sslContext = (certificate == null ? 
+                sslContext_ : clientCertificateSSLContexts_.get(certificate));
+        if (sslContext == null) {
+            sslContext = JSSEContext.createSSLContext(keyManager, getTrustManager());
+            if (certificate == null) {
+                sslContext_ = sslContext;
+            }
+            else {
+                clientCertificateSSLContexts_.put(certificate, sslContext);
+            }
+        }
+        return sslContext;
+    }
+
+    /**
+     * @return the JavaTrustManager shared by all of this factory's SSLContexts
+     * @throws SSLException if it couldn't be created
+     */
+    synchronized JavaTrustManager getTrustManager() throws SSLException {
+        if (trustManager_ == null) {
+            trustManager_ = new JavaTrustManager();
+        }
+        return trustManager_;
+    }
+
+    /**
+     * Called by a context created by this factory when its handshake finishes
+     * @param resumed whether a previous session was resumed
+     * @param handshakeNanos how long the handshake took, in nanoseconds
+     */
+    void handleHandshakeCompleted(boolean resumed, long handshakeNanos) {
+        totalHandshakeNanos_.addAndGet(handshakeNanos);
+        long maxNanos;
+        while (handshakeNanos > (maxNanos = maxHandshakeNanos_.get()) &&
+                !maxHandshakeNanos_.compareAndSet(maxNanos, handshakeNanos)) {
+            /* Another thread changed the maximum; try again */
+        }
+        handshakeCount_.incrementAndGet();
+        if (resumed) {
+            resumedHandshakeCount_.incrementAndGet();
+        }
+    }
+
+    private JavaTrustManager trustManager_ = null;
+
+    /**
+     * The SSLContext used without a client certificate
+     */
+    private SSLContext sslContext_ = null;
+
+    /**
+     * SSLContexts used with client certificates. Certificates are compared
+     * by identity, as CertificateWithKey doesn't override equals().
+     */
+    private final Map<CertificateWithKey, SSLContext> clientCertificateSSLContexts_ = 
+            new WeakHashMap<CertificateWithKey, SSLContext>();
+
+    private final AtomicLong handshakeCount_ = new AtomicLong();
+    private final AtomicLong resumedHandshakeCount_ = new AtomicLong();
+    private final AtomicLong totalHandshakeNanos_ = new AtomicLong();
+    private final AtomicLong maxHandshakeNanos_ = new AtomicLong();
+    private final AtomicInteger delegatedTaskQueueDepth_ = new AtomicInteger();
+    private final AtomicInteger maxDelegatedTaskQueueDepth_ = new AtomicInteger();
+
+    private final EventLoop eventLoop_;
+    private final Executor delegatedTaskExecutor_;
     
     private static Set<String> restrictedCipherSuites = null;
     
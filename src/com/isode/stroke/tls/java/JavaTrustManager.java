@@ -24,22 +24,58 @@ import javax.net.ssl.X509TrustManager;
 /**
  * A concrete X509TrustManager implementation which provides a trust manager 
  * based on the default java "pkcs12" keystore.
+ *
+ * <p>One object may be shared by the SSLContext used for many connections,
+ * and the SSLEngine doesn't say which connection a check is for. So while a
+ * JSSEContext is using its SSLEngine, or running the SSLEngine's delegated
+ * tasks, it binds its {@link VerificationHolder} to the thread doing so,
+ * and the result of any check made on that thread is put in the holder.
+ * The JSSEContext takes the result once the handshake has finished, and
+ * keeps it with the session, for when the session is resumed and no check
+ * is made. A check made on a thread with no holder bound is not recorded.
  */
 public class JavaTrustManager implements X509TrustManager {
     
+    /**
+     * The result of checking a server certificate chain
+     */
+    static class VerificationResult {
+        /**
+         * The problem found with the chain, or null if it was trusted
+         */
+        final CertificateException certificateException;
+
+        VerificationResult(CertificateException certificateException) {
+            this.certificateException = certificateException;
+        }
+    }
+
+    /**
+     * Receives the result of checking the server's certificates during one
+     * connection's handshake. The holder belongs to the connection, so a
+     * result which is never taken goes when the connection does.
+     */
+    static class VerificationHolder {
+        private volatile VerificationResult result;
+
+        /**
+         * @return the result, which is then forgotten, or null if there
+         * isn't one
+         */
+        VerificationResult take() {
+            VerificationResult taken = result;
+            result = null;
+            return taken;
+        }
+    }
+
     /**
      * Construct a new object
-     * @param jsseContext reference to JSSEContext; must not be null.
      * 
      * @throws SSLException if it was not possible to initialise the
      * TrustManager or KeyStore
      */
-    JavaTrustManager(JSSEContext jsseContext) throws SSLException {
-
-        if (jsseContext == null) {
-            throw new NullPointerException("JSSEContext may not be null");
-        }
-        this.jsseContext = jsseContext;
+    JavaTrustManager() throws SSLException {
 
         try {
             TrustManagerFactory tmf =
@@ -85,6 +121,21 @@ public class JavaTrustManager implements X509TrustManager {
     @Override
     public void checkServerTrusted(X509Certificate[] chain, String authType)
     		throws CertificateException {
+        VerificationResult result = verify(chain, authType);
+        VerificationHolder holder = currentHolder.get();
+        if (holder != null && chain != null && chain.length > 0) {
+            holder.result = result;
+        }
+    }
+
+    /**
+     * Check a server certificate chain, without recording the result.
+     * @param chain the chain, first certificate first
+     * @param authType the key exchange algorithm, as passed to
+     * {@link #checkServerTrusted}
+     * @return the result, not null
+     */
+    VerificationResult verify(X509Certificate[] chain, String authType) {
     	CertificateException certificateException = null;         
 
     	try {
@@ -102,8 +153,67 @@ public class JavaTrustManager implements X509TrustManager {
     		}
     	}
 
-    	jsseContext.setPeerCertificateInfo(chain, certificateException);
-        
+    	return new VerificationResult(certificateException);
+    }
+
+    /**
+     * Make checks on the current thread put their results in a holder,
+     * until {@link #unbindHolder} is called.
+     * @param holder the holder, not null
+     * @return the holder which was bound before, to be passed to unbindHolder
+     */
+    VerificationHolder bindHolder(VerificationHolder holder) {
+        VerificationHolder previous = currentHolder.get();
+        currentHolder.set(holder);
+        return previous;
+    }
+
+    /**
+     * @param previous the value returned by the matching call to
+     * {@link #bindHolder}
+     */
+    void unbindHolder(VerificationHolder previous) {
+        if (previous == null) {
+            currentHolder.remove();
+        }
+        else {
+            currentHolder.set(previous);
+        }
+    }
+
+    /**
+     * @param holder the holder for checks made by the task, not null
+     * @param task a delegated task, not null
+     * @return a task which runs <em>task</em> with <em>holder</em> bound
+     */
+    Runnable withHolder(final VerificationHolder holder, final Runnable task) {
+        return new Runnable() {
+            public void run() {
+                VerificationHolder previous = bindHolder(holder);
+                try {
+                    task.run();
+                }
+                finally {
+                    unbindHolder(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Work out the "authType" which JSSE would have passed to
+     * {@link #checkServerTrusted} from a session's cipher suite.
+     * @param cipherSuite the name of the cipher suite, e.g.
+     * "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", not null
+     * @return the key exchange algorithm, e.g. "ECDHE_RSA", or "UNKNOWN"
+     * if the cipher suite doesn't name one, as for TLS 1.3
+     */
+    static String getAuthType(String cipherSuite) {
+        int with = cipherSuite.indexOf("_WITH_");
+        if (with < 0 || !(cipherSuite.startsWith("TLS_") || cipherSuite.startsWith("SSL_"))) {
+            return "UNKNOWN";
+        }
+        return cipherSuite.substring(4, with);
     }
 
     @Override
@@ -119,7 +229,7 @@ public class JavaTrustManager implements X509TrustManager {
     X509TrustManager pkixTrustManager;
     
     /**
-     * The object who wants to know what server certificates appear 
+     * The holder for checks made on each thread, if any
      */
-    JSSEContext jsseContext;
+    private final ThreadLocal<VerificationHolder> currentHolder = new ThreadLocal<VerificationHolder>();
 }
@@ -5,6 +5,7 @@
 package com.isode.stroke.base;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -62,6 +63,25 @@ public class ByteArrayTest {
         assertArrayEquals(target, new ByteArray(string).getData());
     }
 
+    @Test
+    public void testToByteBuffers() {
+        ByteArray testling = new ByteArray("abc");
+        testling.append(new ByteArray("de"));
+        testling.append((byte)'f');
+
+        ByteBuffer[] buffers = testling.toByteBuffers();
+
+        assertEquals(3, buffers.length);
+        StringBuilder result = new StringBuilder();
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                result.append((char)buffer.get());
+            }
+        }
+        assertEquals("abcdef", result.toString());
+        assertEquals("abcdef", testling.toString());
+    }
+
     private byte[] byteify(int[] ints) {
         byte[] bytes = new byte[ints.length];
         for (int i = 0; i < ints.length; i++) {
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.compress;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.isode.stroke.base.SafeByteArray;
+
+/**
+ * Compares the {@link ZLibCodecompressor.Backend}s, compressing and then
+ * decompressing a stream of typical stanzas one at a time, as
+ * {@link com.isode.stroke.streamstack.CompressionLayer} does. This isn't a
+ * unit test; run it with
+ * {@code java com.isode.stroke.compress.ZLibBenchmark [iterations [rounds]]}.
+ * The best of the rounds is reported. Where the JVM can say how much memory
+ * the thread has allocated, the bytes allocated for each byte of
+ * uncompressed data are also reported.
+ */
+public class ZLibBenchmark {
+
+    private static final String[] STANZAS = {
+        "<presence from='juliet@capulet.lit/balcony' to='romeo@montague.lit' id='p1'>"
+            + "<show>away</show><status>Wherefore art thou?</status><priority>1</priority>"
+            + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='http://swift.im'"
+            + " ver='QgayPKawpkPSDYmwT/WM94uAlu0='/></presence>",
+        "<message from='romeo@montague.lit/orchard' to='juliet@capulet.lit/balcony'"
+            + " type='chat' id='m1'><body>But soft, what light through yonder window breaks?"
+            + "</body><active xmlns='http://jabber.org/protocol/chatstates'/></message>",
+        "<message from='juliet@capulet.lit/balcony' to='romeo@montague.lit/orchard'"
+            + " type='chat' id='m2'><composing xmlns='http://jabber.org/protocol/chatstates'/>"
+            + "</message>",
+        "<iq type='get' id='i1' to='capulet.lit'><query xmlns='http://jabber.org/protocol/disco#info'/></iq>",
+        "<iq type='result' id='i1' from='capulet.lit'><query xmlns='http://jabber.org/protocol/disco#info'>"
+            + "<identity category='server' type='im' name='Capulet'/>"
+            + "<feature var='http://jabber.org/protocol/disco#info'/>"
+            + "<feature var='http://jabber.org/protocol/disco#items'/>"
+            + "<feature var='urn:xmpp:ping'/><feature var='vcard-temp'/>"
+            + "<feature var='jabber:iq:roster'/><feature var='urn:xmpp:carbons:2'/>"
+            + "</query></iq>",
+        "<r xmlns='urn:xmpp:sm:3'/>",
+        "<a xmlns='urn:xmpp:sm:3' h='42'/>",
+    };
+
+    /* Number of contacts in the roster sent at the start of each iteration */
+    private static final int ROSTER_SIZE = 300;
+
+    public static void main(String[] args) throws ZLibException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<SafeByteArray> corpus = createCorpus();
+        long corpusSize = 0;
+        for (SafeByteArray stanza : corpus) {
+            corpusSize += stanza.getSize();
+        }
+
+        for (ZLibCodecompressor.Backend backend : ZLibCodecompressor.Backend.values()) {
+            // Warm up
+            new ZLibBenchmark(backend).run(corpus, iterations / 10);
+
+            ZLibBenchmark best = null;
+            for (int i = 0; i < rounds; i++) {
+                ZLibBenchmark benchmark = new ZLibBenchmark(backend);
+                benchmark.run(corpus, iterations);
+                if (best == null || benchmark.compressNanos_ < best.compressNanos_) {
+                    best = benchmark;
+                }
+                if (benchmark.decompressNanos_ < best.decompressNanos_) {
+                    best.decompressNanos_ = benchmark.decompressNanos_;
+                }
+            }
+            long bytes = corpusSize * iterations;
+            System.out.println(backend + ":");
+            System.out.println("  Compressed:   " + megabytesPerSecond(bytes, best.compressNanos_) + " MB/s");
+            System.out.println("  Decompressed: " + megabytesPerSecond(bytes, best.decompressNanos_) + " MB/s");
+            System.out.println("  Compressed size: " + (best.compressedBytes_ * 100 / bytes) + "%");
+            if (best.compressAllocation_ >= 0) {
+                System.out.println("  Allocated per byte compressed:   " + best.compressAllocation_);
+                System.out.println("  Allocated per byte decompressed: " + best.decompressAllocation_);
+            }
+        }
+    }
+
+    private ZLibBenchmark(ZLibCodecompressor.Backend backend) {
+        backend_ = backend;
+    }
+
+    private void run(List<SafeByteArray> corpus, int iterations) throws ZLibException {
+        ZLibCompressor compressor = new ZLibCompressor(backend_);
+        List<SafeByteArray> compressed = new ArrayList<SafeByteArray>(corpus.size() * iterations);
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (SafeByteArray stanza : corpus) {
+                SafeByteArray output = compressor.process(stanza);
+                compressed.add(output);
+                compressedBytes_ += output.getSize();
+                bytes += stanza.getSize();
+            }
+        }
+        compressNanos_ = System.nanoTime() - start;
+        compressAllocation_ = getAllocationPerByte(allocated, bytes);
+
+        ZLibDecompressor decompressor = new ZLibDecompressor(backend_);
+        allocated = getAllocatedBytes();
+        start = System.nanoTime();
+        long decompressedBytes = 0;
+        for (SafeByteArray data : compressed) {
+            decompressedBytes += decompressor.process(data).getSize();
+        }
+        decompressNanos_ = System.nanoTime() - start;
+        decompressAllocation_ = getAllocationPerByte(allocated, bytes);
+        if (decompressedBytes != bytes) {
+            throw new IllegalStateException("Decompressed " + decompressedBytes + " of " + bytes);
+        }
+    }
+
+    /**
+     * Create the stanzas of a session: a roster, followed by a mix of
+     * presence, messages and other traffic.
+     */
+    private static List<SafeByteArray> createCorpus() {
+        List<SafeByteArray> corpus = new ArrayList<SafeByteArray>();
+        StringBuilder roster = new StringBuilder("<iq type='result' id='roster1'><query xmlns='jabber:iq:roster' ver='ver42'>");
+        for (int i = 0; i < ROSTER_SIZE; i++) {
+            roster.append("<item jid='contact").append(i).append("@example").append(i % 7)
+                .append(".lit' name='Contact ").append(i).append("' subscription='both'>")
+                .append("<group>").append(i % 3 == 0 ? "Friends" : "Work").append("</group></item>");
+        }
+        roster.append("</query></iq>");
+        corpus.add(new SafeByteArray(roster.toString()));
+        for (int i = 0; i < 20; i++) {
+            for (String stanza : STANZAS) {
+                corpus.add(new SafeByteArray(stanza.replace("id='", "id='" + i + "-")));
+            }
+        }
+        return corpus;
+    }
+
+    /**
+     * @return the number of bytes allocated by this thread so far, or -1 if
+     * the JVM can't say
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static double getAllocationPerByte(long allocatedBefore, long bytes) {
+        if (allocatedBefore < 0) {
+            return -1;
+        }
+        return (double) Math.round((getAllocatedBytes() - allocatedBefore) * 100.0 / bytes) / 100;
+    }
+
+    private static long megabytesPerSecond(long bytes, long nanos) {
+        return (bytes * 1000000000L / nanos) / (1024 * 1024);
+    }
+
+    private final ZLibCodecompressor.Backend backend_;
+    private long compressedBytes_ = 0;
+    private long compressNanos_ = 0;
+    private long decompressNanos_ = 0;
+    private double compressAllocation_ = -1;
+    private double decompressAllocation_ = -1;
+}
@@ -41,6 +41,68 @@ public class ZLibCompressorTest {
         assertEquals("4a4a2c02000000ffff", Hexify.hexify(result));
     }
 
+    @Test
+    public void testProcess_JavaUtilZip() throws Exception {
+        ZLibCompressor testling = new ZLibCompressor(ZLibCodecompressor.Backend.JavaUtilZip);
+        SafeByteArray result = testling.process(new SafeByteArray("foo"));
+
+        assertEquals("78da4acbcf07000000ffff", Hexify.hexify(result));
+    }
+
+    @Test
+    public void testProcess_JavaUtilZipTwice() throws ZLibException {
+        ZLibCompressor testling = new ZLibCompressor(ZLibCodecompressor.Backend.JavaUtilZip);
+        testling.process(new SafeByteArray("foo"));
+        SafeByteArray result = testling.process(new SafeByteArray("bar"));
+
+        assertEquals("4a4a2c02000000ffff", Hexify.hexify(result));
+    }
+
+    @Test
+    public void testJavaUtilZipIsAvailable() {
+        assertTrue(ZLibCodecompressor.Backend.JZlib.isAvailable());
+        assertTrue(ZLibCodecompressor.Backend.JavaUtilZip.isAvailable());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testProcess_AfterEnd() throws ZLibException {
+        ZLibCompressor testling = new ZLibCompressor();
+        testling.process(new SafeByteArray("foo"));
+        testling.end();
+        testling.end();
+
+        testling.process(new SafeByteArray("bar"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testProcess_JavaUtilZipAfterEnd() throws ZLibException {
+        ZLibCompressor testling = new ZLibCompressor(ZLibCodecompressor.Backend.JavaUtilZip);
+        testling.process(new SafeByteArray("foo"));
+        testling.end();
+        testling.end();
+
+        testling.process(new SafeByteArray("bar"));
+    }
+
+    @Test
+    public void testProcess_MultipleParts() throws ZLibException {
+        ZLibCompressor testling = new ZLibCompressor();
+        SafeByteArray input = new SafeByteArray("fo");
+        input.append(new SafeByteArray("o").toByteBuffers()[0]);
+        SafeByteArray result = testling.process(input);
+
+        assertEquals(new SafeByteArray("foo"), new ZLibDecompressor().process(result));
+    }
+
+    @Test
+    public void testProcess_Empty() throws ZLibException {
+        ZLibCompressor testling = new ZLibCompressor();
+        testling.process(new SafeByteArray("foo"));
+        SafeByteArray result = testling.process(new SafeByteArray());
+
+        assertTrue(result.isEmpty());
+    }
+
     public static SafeByteArray unhex(String string) {
         HexBinaryAdapter adaptor = new HexBinaryAdapter();
         return new SafeByteArray(adaptor.unmarshal(string));
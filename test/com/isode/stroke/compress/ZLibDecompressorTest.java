@@ -69,4 +69,48 @@ public class ZLibDecompressorTest {
 
         assertEquals(original, decompressed);
     }
+
+    @Test
+    public void testProcess_JavaUtilZipTwice() throws ZLibException {
+        ZLibDecompressor testling = new ZLibDecompressor(ZLibCodecompressor.Backend.JavaUtilZip);
+        assertEquals(new SafeByteArray("foo"), testling.process(ZLibCompressorTest.unhex("78da4acbcf07000000ffff")));
+        SafeByteArray result = testling.process(ZLibCompressorTest.unhex("4a4a2c02000000ffff"));
+
+        assertEquals(new SafeByteArray("bar"), result);
+    }
+
+    @Test(expected = ZLibException.class)
+    public void testProcess_JavaUtilZipInvalid() throws ZLibException {
+        ZLibDecompressor testling = new ZLibDecompressor(ZLibCodecompressor.Backend.JavaUtilZip);
+        testling.process(new SafeByteArray("invalid"));
+    }
+
+    @Test
+    public void testProcess_HugeAfterSmall() throws ZLibException {
+        for (ZLibCodecompressor.Backend backend : ZLibCodecompressor.Backend.values()) {
+            ZLibCompressor compressor = new ZLibCompressor(backend);
+            ZLibDecompressor decompressor = new ZLibDecompressor(backend);
+            assertEquals(new SafeByteArray("foo"), decompressor.process(compressor.process(new SafeByteArray("foo"))));
+
+            // Compresses far better than anything before it, so the output
+            // buffer has to grow
+            SafeByteArray original = new SafeByteArray();
+            for (int i = 0; i < 100000; ++i) {
+                original.append((byte) 'a');
+            }
+            SafeByteArray decompressed = decompressor.process(compressor.process(original));
+
+            assertEquals(original, decompressed);
+        }
+    }
+
+    @Test
+    public void testProcess_BetweenBackends() throws ZLibException {
+        ZLibCompressor compressor = new ZLibCompressor(ZLibCodecompressor.Backend.JZlib);
+        ZLibDecompressor decompressor = new ZLibDecompressor(ZLibCodecompressor.Backend.JavaUtilZip);
+        for (int i = 0; i < 100; ++i) {
+            SafeByteArray original = new SafeByteArray("<message to='juliet@capulet.lit'><body>" + i + "</body></message>");
+            assertEquals(original, decompressor.process(compressor.process(original)));
+        }
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.eventloop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventLoopGroupTest {
+
+	private EventLoopGroup testling;
+
+	@Before
+	public void setUp() {
+		testling = new EventLoopGroup(3);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		testling.shutdown();
+		testling.awaitTermination(1000);
+	}
+
+	@Test
+	public void testNext_RoundRobin() {
+		assertEquals(3, testling.getShardCount());
+		assertSame(testling.getEventLoop(0), testling.next());
+		assertSame(testling.getEventLoop(1), testling.next());
+		assertSame(testling.getEventLoop(2), testling.next());
+		assertSame(testling.getEventLoop(0), testling.next());
+	}
+
+	@Test
+	public void testEventsForOneLoopRunOnOneThread() throws InterruptedException {
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		final CountDownLatch done = new CountDownLatch(10);
+		EventLoop loop = testling.getEventLoop(1);
+		for (int i = 0; i < 10; i++) {
+			loop.postEvent(new Event.Callback() {
+				@Override
+				public void run() {
+					threads.add(Thread.currentThread());
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		assertEquals(1, threads.size());
+		assertNotSame(Thread.currentThread(), threads.iterator().next());
+	}
+
+	@Test
+	public void testLoopsRunOnDifferentThreads() throws InterruptedException {
+		final Thread[] threads = new Thread[testling.getShardCount()];
+		final CountDownLatch done = new CountDownLatch(threads.length);
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			testling.getEventLoop(i).postEvent(new Event.Callback() {
+				@Override
+				public void run() {
+					threads[index] = Thread.currentThread();
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		assertEquals(threads.length, new HashSet<Thread>(Arrays.asList(threads)).size());
+	}
+
+	@Test
+	public void testExceptionDoesNotStopLoop() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		EventLoop loop = testling.getEventLoop(0);
+		loop.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("expected by test");
+			}
+		});
+		loop.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testShutdown() throws InterruptedException {
+		testling.shutdown();
+		assertTrue(testling.awaitTermination(1000));
+	}
+}
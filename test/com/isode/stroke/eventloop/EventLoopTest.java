@@ -134,4 +134,160 @@ public class EventLoopTest {
 		assertEquals(Integer.valueOf(0), events_.get(0));
 		assertEquals(Integer.valueOf(1), events_.get(1));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testHandleEvents_PostedDuringHandlingWaitsForNextBatch() {
+		final SingleThreadedEventLoop testling = new SingleThreadedEventLoop();
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				logEvent(1);
+				testling.postEvent(new Event.Callback() {
+					@Override
+					public void run() {
+						logEvent(2);
+					}
+				});
+			}
+		});
+
+		testling.handleEvents();
+		assertEquals(1, events_.size());
+
+		testling.handleEvents();
+		assertEquals(2, events_.size());
+		assertEquals(Integer.valueOf(2), events_.get(1));
+	}
+
+	@Test
+	public void testRemove_SingleThreadedEventLoop() throws SingleThreadedEventLoop.EventLoopCanceledException {
+		SingleThreadedEventLoop testling = new SingleThreadedEventLoop();
+		MyEventOwner eventOwner1 = new MyEventOwner();
+		MyEventOwner eventOwner2 = new MyEventOwner();
+
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				logEvent(1);
+			}
+		}, eventOwner1);
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				logEvent(2);
+			}
+		}, eventOwner2);
+		testling.removeEventsFromOwner(eventOwner2);
+		testling.waitForEvents();
+		testling.handleEvents();
+
+		assertEquals(1, events_.size());
+		assertEquals(Integer.valueOf(1), events_.get(0));
+	}
+
+	@Test
+	public void testRemove_FromCallbackInSameBatch() throws SingleThreadedEventLoop.EventLoopCanceledException {
+		final SingleThreadedEventLoop testling = new SingleThreadedEventLoop();
+		final MyEventOwner eventOwner1 = new MyEventOwner();
+		final MyEventOwner eventOwner2 = new MyEventOwner();
+
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				logEvent(1);
+				testling.removeEventsFromOwner(eventOwner2);
+			}
+		}, eventOwner1);
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				logEvent(2);
+			}
+		}, eventOwner2);
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				logEvent(3);
+			}
+		}, eventOwner1);
+		testling.waitForEvents();
+		testling.handleEvents();
+		testling.removeEventsFromOwner(eventOwner1);
+
+		assertEquals(2, events_.size());
+		assertEquals(Integer.valueOf(1), events_.get(0));
+		assertEquals(Integer.valueOf(3), events_.get(1));
+	}
+
+	@Test
+	public void testPostEventAtEndOfTurn() {
+		final DummyEventLoop testling = new DummyEventLoop();
+
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				testling.postEvent(new Event.Callback() {
+					@Override
+					public void run() {
+						logEvent(3);
+					}
+				});
+				testling.postEventAtEndOfTurn(new Event.Callback() {
+					@Override
+					public void run() {
+						logEvent(2);
+					}
+				});
+				logEvent(1);
+			}
+		});
+		testling.processEvents();
+
+		assertEquals(3, events_.size());
+		assertEquals(Integer.valueOf(1), events_.get(0));
+		assertEquals(Integer.valueOf(2), events_.get(1));
+		assertEquals(Integer.valueOf(3), events_.get(2));
+	}
+
+	@Test
+	public void testPostEventAtEndOfTurn_OutsideEvent() {
+		DummyEventLoop testling = new DummyEventLoop();
+
+		testling.postEventAtEndOfTurn(new Event.Callback() {
+			@Override
+			public void run() {
+				logEvent(1);
+			}
+		});
+		assertEquals(0, events_.size());
+		testling.processEvents();
+
+		assertEquals(1, events_.size());
+	}
+
+	@Test
+	public void testPostEventAtEndOfTurn_AfterCallbackThrows() {
+		final DummyEventLoop testling = new DummyEventLoop();
+
+		testling.postEvent(new Event.Callback() {
+			@Override
+			public void run() {
+				testling.postEventAtEndOfTurn(new Event.Callback() {
+					@Override
+					public void run() {
+						logEvent(1);
+					}
+				});
+				throw new IllegalStateException();
+			}
+		});
+		try {
+			testling.processEvents();
+		}
+		catch (IllegalStateException e) {
+		}
+		testling.processEvents();
+
+		assertEquals(1, events_.size());
+	}
+}
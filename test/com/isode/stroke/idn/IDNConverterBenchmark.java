@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.idn;
+
+import com.ibm.icu.text.StringPrep;
+import com.ibm.icu.text.StringPrepParseException;
+
+/**
+ * Compares preparing typical JID parts with {@link ICUConverter} against
+ * calling ICU directly, as ICUConverter used to. This isn't a unit test; run
+ * it with {@code java com.isode.stroke.idn.IDNConverterBenchmark [iterations]}.
+ */
+public class IDNConverterBenchmark {
+
+    private static final String[][] INPUTS = {
+        // Node, domain, resource
+        {"alice", "wonderland.lit", "TeaParty"},
+        {"romeo", "montague.lit", "orchard"},
+        {"Juliet", "capulet.lit", "balcony 2"},
+        {"tronçon", "tronçon.example", "Ωmega"},
+    };
+
+    private static final IDNConverter.StringPrepProfile[] PROFILES = {
+        IDNConverter.StringPrepProfile.XMPPNodePrep,
+        IDNConverter.StringPrepProfile.NamePrep,
+        IDNConverter.StringPrepProfile.XMPPResourcePrep,
+    };
+
+    private static final int[] ICU_PROFILES = {
+        StringPrep.RFC3920_NODEPREP,
+        StringPrep.RFC3491_NAMEPREP,
+        StringPrep.RFC3920_RESOURCEPREP,
+    };
+
+    public static void main(String[] args) throws StringPrepParseException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        ICUConverter converter = new ICUConverter();
+
+        // Warm up both
+        runICU(iterations / 10);
+        runConverter(converter, iterations / 10);
+
+        long start = System.nanoTime();
+        int icuLength = runICU(iterations);
+        long icuTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int converterLength = runConverter(converter, iterations);
+        long converterTime = System.nanoTime() - start;
+
+        if (icuLength != converterLength) {
+            throw new IllegalStateException("Results differ");
+        }
+        int preparations = iterations * INPUTS.length * PROFILES.length;
+        System.out.println("ICU StringPrep: " + (icuTime / preparations) + " ns per string");
+        System.out.println("ICUConverter:   " + (converterTime / preparations) + " ns per string");
+        System.out.println("Speed-up:       " + ((double) icuTime / converterTime) + "x");
+    }
+
+    private static int runICU(int iterations) throws StringPrepParseException {
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String[] input : INPUTS) {
+                for (int p = 0; p < ICU_PROFILES.length; p++) {
+                    length += StringPrep.getInstance(ICU_PROFILES[p]).prepare(input[p], StringPrep.DEFAULT).length();
+                }
+            }
+        }
+        return length;
+    }
+
+    private static int runConverter(ICUConverter converter, int iterations) {
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String[] input : INPUTS) {
+                for (int p = 0; p < PROFILES.length; p++) {
+                    length += converter.getStringPrepared(input[p], PROFILES[p]).length();
+                }
+            }
+        }
+        return length;
+    }
+}
@@ -22,6 +22,7 @@ import com.isode.stroke.base.SafeByteArray;
 import com.isode.stroke.idn.IDNConverter;
 import com.isode.stroke.idn.IDNA;
 import com.isode.stroke.idn.ICUConverter;
+import com.ibm.icu.text.StringPrep;
 import com.ibm.icu.text.StringPrepParseException;
 
 public class IDNConverterTest {
@@ -73,4 +74,42 @@ public class IDNConverterTest {
 		String result = testling.getIDNAEncoded("www.foo,bar.com");
 		assertNull(result);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testStringPrep_ASCIIMatchesICU() throws StringPrepParseException {
+		StringBuilder ascii = new StringBuilder();
+		for (char c = 0x20; c < 0x7F; c++) {
+			ascii.append(c);
+		}
+		int[] icuProfiles = {StringPrep.RFC3491_NAMEPREP, StringPrep.RFC3920_NODEPREP, StringPrep.RFC3920_RESOURCEPREP, StringPrep.RFC4013_SASLPREP};
+		IDNConverter.StringPrepProfile[] profiles = {IDNConverter.StringPrepProfile.NamePrep, IDNConverter.StringPrepProfile.XMPPNodePrep, IDNConverter.StringPrepProfile.XMPPResourcePrep, IDNConverter.StringPrepProfile.SASLPrep};
+		for (int i = 0; i < profiles.length; i++) {
+			for (char c = 0x20; c < 0x7F; c++) {
+				String s = "ab" + c + "c";
+				if (ICUConverter.isUnchangedASCII(s, profiles[i])) {
+					assertEquals(profiles[i] + " '" + c + "'", StringPrep.getInstance(icuProfiles[i]).prepare(s, StringPrep.DEFAULT), s);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStringPrep_ASCII() {
+		assertEquals("alice", testling.getStringPrepared("Alice", IDNConverter.StringPrepProfile.XMPPNodePrep));
+		assertEquals("wonderland.lit", testling.getStringPrepared("wonderland.lit", IDNConverter.StringPrepProfile.NamePrep));
+		assertEquals("Tea Party", testling.getStringPrepared("Tea Party", IDNConverter.StringPrepProfile.XMPPResourcePrep));
+		assertEquals(new SafeByteArray("p@ss word"), testling.getStringPrepared(new SafeByteArray("p@ss word"), IDNConverter.StringPrepProfile.SASLPrep));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStringPrep_ASCIIProhibited() {
+		testling.getStringPrepared("a b", IDNConverter.StringPrepProfile.XMPPNodePrep);
+	}
+
+	@Test
+	public void testStringPrep_Repeated() {
+		assertEquals("tronçon", testling.getStringPrepared("TRONÇON", IDNConverter.StringPrepProfile.NamePrep));
+		assertEquals("tronçon", testling.getStringPrepared("TRONÇON", IDNConverter.StringPrepProfile.NamePrep));
+		assertEquals("TRONÇON", testling.getStringPrepared("TRONÇON", IDNConverter.StringPrepProfile.XMPPResourcePrep));
+	}
+}
@@ -13,6 +13,7 @@ package com.isode.stroke.jid;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -203,6 +204,41 @@ public class JIDTest {
 		assertTrue(testling.toBare().isBare());
 	}
 
+	@Test
+	public void testToBare_Bare() {
+		JID testling = new JID("foo@bar");
+
+		assertSame(testling, testling.toBare());
+	}
+
+	@Test
+	public void testWithResource() {
+		JID testling = new JID("Foo@Bar").withResource("FoΩ");
+
+		assertTrue(testling.isValid());
+		assertEquals(new JID("foo@bar/FoΩ"), testling);
+		assertEquals("foo@bar/FoΩ", testling.toString());
+	}
+
+	@Test
+	public void testWithResource_EmptyResource() {
+		assertFalse(new JID("foo@bar").withResource("").isValid());
+	}
+
+	@Test
+	public void testWithResource_IllegalResource() {
+		assertFalse(new JID("foo@bar.com").withResource("رمقه ترنس ").isValid());
+	}
+
+	@Test
+	public void testFromString_Cached() {
+		JID testling = JID.fromString("foo@bar/baz");
+
+		assertSame(testling, JID.fromString("foo@bar/baz"));
+		assertEquals(testling, new JID("foo@bar/baz"));
+		assertEquals(testling.hashCode(), new JID("foo", "bar", "baz").hashCode());
+	}
+
 
 	@Test
 	public void testToString() {
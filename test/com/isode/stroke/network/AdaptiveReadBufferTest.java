@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class AdaptiveReadBufferTest {
+
+	@Test
+	public void testGrow_KeepsContents() {
+		AdaptiveReadBuffer testling = new AdaptiveReadBuffer();
+		ByteBuffer buffer = testling.getBuffer();
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) 'a');
+		}
+
+		ByteBuffer larger = testling.grow();
+
+		assertEquals(AdaptiveReadBuffer.MIN_SIZE, larger.position());
+		assertEquals(AdaptiveReadBuffer.MIN_SIZE * 2, larger.limit());
+		assertEquals((byte) 'a', larger.get(AdaptiveReadBuffer.MIN_SIZE - 1));
+	}
+
+	@Test
+	public void testGrow_StopsAtMaxSize() {
+		AdaptiveReadBuffer testling = new AdaptiveReadBuffer();
+		growToMaxSize(testling);
+		ByteBuffer buffer = testling.getBuffer();
+		buffer.position(buffer.limit());
+
+		assertSame(buffer, testling.grow());
+		assertEquals(AdaptiveReadBuffer.MAX_SIZE, buffer.limit());
+	}
+
+	@Test
+	public void testSmallReadsShrinkWithoutReallocating() {
+		AdaptiveReadBuffer testling = new AdaptiveReadBuffer();
+		growToMaxSize(testling);
+		ByteBuffer buffer = testling.getBuffer();
+
+		for (int i = 0; i < 1000; i++) {
+			testling.readFinished(10);
+		}
+
+		assertEquals(AdaptiveReadBuffer.MIN_SIZE, testling.getSize());
+		assertEquals(AdaptiveReadBuffer.MAX_SIZE, testling.getCapacity());
+		assertSame(buffer, testling.getBuffer());
+		assertEquals(AdaptiveReadBuffer.MIN_SIZE, testling.getBuffer().limit());
+	}
+
+	@Test
+	public void testAlternatingReadsDontReallocate() {
+		AdaptiveReadBuffer testling = new AdaptiveReadBuffer();
+		growToMaxSize(testling);
+		ByteBuffer buffer = testling.getBuffer();
+
+		for (int i = 0; i < 10; i++) {
+			for (int j = 0; j < 100; j++) {
+				testling.readFinished(10);
+			}
+			growToMaxSize(testling);
+		}
+
+		assertSame(buffer, testling.getBuffer());
+	}
+
+	private static void growToMaxSize(AdaptiveReadBuffer testling) {
+		ByteBuffer buffer = testling.getBuffer();
+		while (testling.getSize() < AdaptiveReadBuffer.MAX_SIZE) {
+			buffer.position(buffer.limit());
+			buffer = testling.grow();
+		}
+		testling.readFinished(AdaptiveReadBuffer.MAX_SIZE);
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.eventloop.DummyEventLoop;
+import com.isode.stroke.signals.Slot1;
+import com.isode.stroke.signals.Slot2;
+
+public class CachingDomainNameResolverTest {
+
+	private DummyEventLoop eventLoop;
+	private StaticDomainNameResolver staticResolver;
+	private List<String> lookups;
+	private long currentTime;
+	private List<Collection<DomainNameServiceQuery.Result>> serviceResults;
+	private List<Collection<HostAddress>> addressResults;
+	private List<DomainNameResolveError> addressErrors;
+
+	/**
+	 * Records the lookups passed to the static resolver.
+	 */
+	private class CountingResolver extends DomainNameResolver {
+		public DomainNameServiceQuery createServiceQuery(String serviceLookupPrefix, String domain) {
+			lookups.add(serviceLookupPrefix + domain);
+			return staticResolver.createServiceQuery(serviceLookupPrefix, domain);
+		}
+
+		public DomainNameAddressQuery createAddressQuery(String name) {
+			lookups.add(name);
+			return staticResolver.createAddressQuery(name);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		eventLoop = new DummyEventLoop();
+		staticResolver = new StaticDomainNameResolver(eventLoop);
+		staticResolver.addService("_xmpp-client._tcp.example.com", new DomainNameServiceQuery.Result("xmpp1.example.com", 5222, 0, 0, 300));
+		staticResolver.addService("_xmpp-client._tcp.example.com", new DomainNameServiceQuery.Result("xmpp2.example.com", 5222, 1, 0, 30));
+		staticResolver.addService("_xmpp-client._tcp.nottl.com", new DomainNameServiceQuery.Result("xmpp.nottl.com", 5222, 0, 0));
+		staticResolver.addAddress("xmpp1.example.com", new HostAddress("10.0.0.1"));
+		staticResolver.addAddress("xmpp2.example.com", new HostAddress("10.0.0.2"));
+		lookups = new ArrayList<String>();
+		currentTime = 1000000;
+		serviceResults = new ArrayList<Collection<DomainNameServiceQuery.Result>>();
+		addressResults = new ArrayList<Collection<HostAddress>>();
+		addressErrors = new ArrayList<DomainNameResolveError>();
+	}
+
+	@Test
+	public void testServiceQuery_SecondQueryIsCached() {
+		CachingDomainNameResolver testling = createTestling(10);
+
+		runServiceQuery(testling, "example.com");
+		eventLoop.processEvents();
+		runServiceQuery(testling, "example.com");
+		eventLoop.processEvents();
+
+		assertEquals(1, lookups.size());
+		assertEquals(2, serviceResults.size());
+		assertEquals(2, serviceResults.get(1).size());
+		assertEquals("xmpp1.example.com", serviceResults.get(1).iterator().next().hostname);
+	}
+
+	@Test
+	public void testServiceQuery_IdenticalQueriesAreCoalesced() {
+		CachingDomainNameResolver testling = createTestling(10);
+
+		for (int i = 0; i < 5; i++) {
+			runServiceQuery(testling, "example.com");
+		}
+		assertEquals(0, serviceResults.size());
+		eventLoop.processEvents();
+
+		assertEquals(1, lookups.size());
+		assertEquals(5, serviceResults.size());
+		for (Collection<DomainNameServiceQuery.Result> results : serviceResults) {
+			assertEquals(2, results.size());
+		}
+	}
+
+	@Test
+	public void testServiceQuery_ExpiresAfterLowestTTL() {
+		CachingDomainNameResolver testling = createTestling(10);
+
+		runServiceQuery(testling, "example.com");
+		eventLoop.processEvents();
+		currentTime += 29000;
+		runServiceQuery(testling, "example.com");
+		eventLoop.processEvents();
+		assertEquals(1, lookups.size());
+		currentTime += 1000;
+		runServiceQuery(testling, "example.com");
+		eventLoop.processEvents();
+
+		assertEquals(2, lookups.size());
+		assertEquals(3, serviceResults.size());
+	}
+
+	@Test
+	public void testServiceQuery_WithoutTTLUsesDefaultTTL() {
+		CachingDomainNameResolver testling = createTestling(10);
+		testling.setDefaultTTL(5);
+
+		runServiceQuery(testling, "nottl.com");
+		eventLoop.processEvents();
+		currentTime += 4000;
+		runServiceQuery(testling, "nottl.com");
+		eventLoop.processEvents();
+		assertEquals(1, lookups.size());
+		currentTime += 1000;
+		runServiceQuery(testling, "nottl.com");
+		eventLoop.processEvents();
+
+		assertEquals(2, lookups.size());
+	}
+
+	@Test
+	public void testServiceQuery_NoRecordsAreNegativelyCached() {
+		CachingDomainNameResolver testling = createTestling(10);
+		testling.setNegativeTTL(2);
+
+		runServiceQuery(testling, "unknown.com");
+		eventLoop.processEvents();
+		runServiceQuery(testling, "unknown.com");
+		eventLoop.processEvents();
+		assertEquals(1, lookups.size());
+		assertEquals(0, serviceResults.get(1).size());
+		currentTime += 2000;
+		runServiceQuery(testling, "unknown.com");
+		eventLoop.processEvents();
+
+		assertEquals(2, lookups.size());
+	}
+
+	@Test
+	public void testAddressQuery_SecondQueryIsCached() {
+		CachingDomainNameResolver testling = createTestling(10);
+
+		runAddressQuery(testling, "xmpp1.example.com");
+		eventLoop.processEvents();
+		runAddressQuery(testling, "xmpp1.example.com");
+		eventLoop.processEvents();
+
+		assertEquals(1, lookups.size());
+		assertEquals(2, addressResults.size());
+		assertEquals(new HostAddress("10.0.0.1"), addressResults.get(1).iterator().next());
+		assertNull(addressErrors.get(1));
+	}
+
+	@Test
+	public void testAddressQuery_ErrorIsNegativelyCached() {
+		CachingDomainNameResolver testling = createTestling(10);
+
+		runAddressQuery(testling, "unknown.com");
+		eventLoop.processEvents();
+		currentTime += (CachingDomainNameResolver.DEFAULT_NEGATIVE_TTL_SECONDS * 1000) - 1;
+		runAddressQuery(testling, "unknown.com");
+		eventLoop.processEvents();
+		assertEquals(1, lookups.size());
+		assertNotNull(addressErrors.get(1));
+		currentTime += 1;
+		runAddressQuery(testling, "unknown.com");
+		eventLoop.processEvents();
+
+		assertEquals(2, lookups.size());
+	}
+
+	@Test
+	public void testServiceAndAddressQueriesAreCachedSeparately() {
+		CachingDomainNameResolver testling = createTestling(10);
+
+		runServiceQuery(testling, "example.com");
+		runAddressQuery(testling, "example.com");
+		eventLoop.processEvents();
+
+		assertEquals(2, lookups.size());
+		assertEquals(1, serviceResults.size());
+		assertEquals(1, addressResults.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedResultsAreForgotten() {
+		CachingDomainNameResolver testling = createTestling(2);
+
+		runAddressQuery(testling, "xmpp1.example.com");
+		runAddressQuery(testling, "xmpp2.example.com");
+		eventLoop.processEvents();
+		runAddressQuery(testling, "xmpp1.example.com");
+		runServiceQuery(testling, "example.com");
+		eventLoop.processEvents();
+		assertEquals(3, lookups.size());
+		runAddressQuery(testling, "xmpp1.example.com");
+		runAddressQuery(testling, "xmpp2.example.com");
+		eventLoop.processEvents();
+
+		assertEquals(4, lookups.size());
+	}
+
+	@Test
+	public void testLookupTimeout_FailsWaitingQueriesAndLooksUpAgain() {
+		CachingDomainNameResolver testling = createTestling(10);
+		staticResolver.setIsResponsive(false);
+
+		runAddressQuery(testling, "xmpp1.example.com");
+		runServiceQuery(testling, "example.com");
+		currentTime += (CachingDomainNameResolver.DEFAULT_LOOKUP_TIMEOUT_SECONDS * 1000) - 1;
+		runAddressQuery(testling, "xmpp1.example.com");
+		eventLoop.processEvents();
+		assertEquals(2, lookups.size());
+		assertEquals(0, addressResults.size());
+
+		staticResolver.setIsResponsive(true);
+		currentTime += 1;
+		runAddressQuery(testling, "xmpp1.example.com");
+		runServiceQuery(testling, "example.com");
+		eventLoop.processEvents();
+
+		assertEquals(4, lookups.size());
+		assertEquals(3, addressResults.size());
+		assertEquals(0, addressResults.get(0).size());
+		assertNotNull(addressErrors.get(0));
+		assertEquals(0, addressResults.get(1).size());
+		assertNotNull(addressErrors.get(1));
+		assertEquals(new HostAddress("10.0.0.1"), addressResults.get(2).iterator().next());
+		assertNull(addressErrors.get(2));
+		assertEquals(2, serviceResults.size());
+		assertEquals(0, serviceResults.get(0).size());
+		assertEquals(2, serviceResults.get(1).size());
+	}
+
+	@Test
+	public void testLookupTimeout_LateResultIsIgnored() {
+		CachingDomainNameResolver testling = createTestling(10);
+		testling.setLookupTimeout(5);
+
+		runAddressQuery(testling, "xmpp1.example.com");
+		currentTime += 5000;
+		staticResolver.setIsResponsive(false);
+		runAddressQuery(testling, "xmpp1.example.com");
+		eventLoop.processEvents();
+		assertEquals(1, addressResults.size());
+		assertNotNull(addressErrors.get(0));
+		staticResolver.setIsResponsive(true);
+		runAddressQuery(testling, "xmpp1.example.com");
+		eventLoop.processEvents();
+
+		assertEquals(2, lookups.size());
+		assertEquals(1, addressResults.size());
+	}
+
+	@Test
+	public void testClear() {
+		CachingDomainNameResolver testling = createTestling(10);
+
+		runAddressQuery(testling, "xmpp1.example.com");
+		eventLoop.processEvents();
+		testling.clear();
+		runAddressQuery(testling, "xmpp1.example.com");
+		eventLoop.processEvents();
+
+		assertEquals(2, lookups.size());
+	}
+
+	private CachingDomainNameResolver createTestling(int maxEntries) {
+		return new CachingDomainNameResolver(new CountingResolver(), eventLoop, maxEntries) {
+			@Override
+			protected long getCurrentTimeMillis() {
+				return currentTime;
+			}
+		};
+	}
+
+	private void runServiceQuery(CachingDomainNameResolver testling, String domain) {
+		DomainNameServiceQuery query = testling.createServiceQuery("_xmpp-client._tcp.", domain);
+		query.onResult.connect(new Slot1<Collection<DomainNameServiceQuery.Result>>() {
+			@Override
+			public void call(Collection<DomainNameServiceQuery.Result> results) {
+				serviceResults.add(results);
+			}
+		});
+		query.run();
+	}
+
+	private void runAddressQuery(CachingDomainNameResolver testling, String name) {
+		DomainNameAddressQuery query = testling.createAddressQuery(name);
+		query.onResult.connect(new Slot2<Collection<HostAddress>, DomainNameResolveError>() {
+			@Override
+			public void call(Collection<HostAddress> addresses, DomainNameResolveError error) {
+				addressResults.add(addresses);
+				addressErrors.add(error);
+			}
+		});
+		query.run();
+	}
+}
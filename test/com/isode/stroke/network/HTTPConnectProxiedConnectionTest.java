@@ -293,6 +293,20 @@ public class HTTPConnectProxiedConnectionTest {
                 connectionFactory.connections.get(2).dataWritten);
     }
     
+    @Test
+    public void testSetWriteWatermarks_ForwardedToProxyConnection() {
+        HTTPConnectProxiedConnection testling = createTestling();
+        testling.setWriteWatermarks(10, 100);
+
+        connect(testling, host);
+        assertEquals(10, connectionFactory.connections.get(0).getLowWatermark());
+        assertEquals(100, connectionFactory.connections.get(0).getHighWatermark());
+        testling.setWriteWatermarks(20, 200);
+
+        assertEquals(20, connectionFactory.connections.get(0).getLowWatermark());
+        assertEquals(200, connectionFactory.connections.get(0).getHighWatermark());
+    }
+
     private void connect(HTTPConnectProxiedConnection connection, HostAddressPort to) {
         connection.connect(to);
         eventLoop.processEvents();
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.base.ByteArray;
+import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.eventloop.DummyEventLoop;
+import com.isode.stroke.signals.Slot;
+import com.isode.stroke.signals.Slot1;
+
+public class JavaConnectionTest {
+
+	private DummyEventLoop eventLoop;
+	private ServerSocket server;
+	private Thread serverThread;
+	private JavaSelectorPool pool;
+
+	/**
+	 * Accepts connections and echoes back whatever is received on them.
+	 */
+	private class EchoServer implements Runnable {
+		public void run() {
+			try {
+				while (true) {
+					final Socket socket = server.accept();
+					Thread echo = new Thread(new Runnable() {
+						public void run() {
+							try {
+								InputStream in = socket.getInputStream();
+								OutputStream out = socket.getOutputStream();
+								byte[] buffer = new byte[4096];
+								int count;
+								while ((count = in.read(buffer)) != -1) {
+									out.write(buffer, 0, count);
+								}
+								socket.close();
+							} catch (IOException e) {
+							}
+						}
+					});
+					echo.setDaemon(true);
+					echo.start();
+				}
+			} catch (IOException e) {
+				// server closed
+			}
+		}
+	}
+
+	private class ConnectionRecorder {
+		final Connection connection;
+		final ByteArray received = new ByteArray();
+		final Vector<Boolean> connectFinished = new Vector<Boolean>();
+		final Vector<Connection.Error> disconnected = new Vector<Connection.Error>();
+		boolean disconnectedSignalled = false;
+
+		ConnectionRecorder(Connection connection) {
+			this.connection = connection;
+			connection.onConnectFinished.connect(new Slot1<Boolean>() {
+				public void call(Boolean error) {
+					connectFinished.add(error);
+				}
+			});
+			connection.onDataRead.connect(new Slot1<SafeByteArray>() {
+				public void call(SafeByteArray data) {
+					received.append(data);
+				}
+			});
+			connection.onDisconnected.connect(new Slot1<Connection.Error>() {
+				public void call(Connection.Error error) {
+					disconnectedSignalled = true;
+					disconnected.add(error);
+				}
+			});
+		}
+	}
+
+	private interface Condition {
+		boolean isTrue();
+	}
+
+	private void processEventsUntil(Condition condition) throws InterruptedException {
+		for (int i = 0; i < 500 && !condition.isTrue(); i++) {
+			eventLoop.processEvents();
+			if (!condition.isTrue()) {
+				Thread.sleep(10);
+			}
+		}
+		eventLoop.processEvents();
+	}
+
+	private HostAddressPort getServerAddress() {
+		return new HostAddressPort(new HostAddress(server.getInetAddress()), server.getLocalPort());
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		eventLoop = new DummyEventLoop();
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		serverThread = new Thread(new EchoServer());
+		serverThread.setDaemon(true);
+		serverThread.start();
+		pool = new JavaSelectorPool(2);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		pool.shutdown();
+		server.close();
+	}
+
+	private void checkEcho(final ConnectionRecorder recorder) throws InterruptedException {
+		recorder.connection.connect(getServerAddress());
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return !recorder.connectFinished.isEmpty();
+			}
+		});
+		assertEquals(1, recorder.connectFinished.size());
+		assertFalse(recorder.connectFinished.get(0));
+
+		recorder.connection.write(new SafeByteArray("<stream:stream>"));
+		recorder.connection.write(new SafeByteArray("<presence/>"));
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return recorder.received.getSize() >= 26;
+			}
+		});
+		assertEquals("<stream:stream><presence/>", recorder.received.toString());
+
+		recorder.connection.disconnect();
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return recorder.disconnectedSignalled;
+			}
+		});
+		assertEquals(1, recorder.disconnected.size());
+		assertEquals(null, recorder.disconnected.get(0));
+	}
+
+	@Test
+	public void testEcho_ThreadPerConnection() throws InterruptedException {
+		checkEcho(new ConnectionRecorder(JavaConnection.create(eventLoop)));
+	}
+
+	@Test
+	public void testEcho_Pooled() throws InterruptedException {
+		checkEcho(new ConnectionRecorder(JavaConnection.create(eventLoop, false, pool)));
+	}
+
+	@Test
+	public void testEcho_PooledSynchronisedReads() throws InterruptedException {
+		checkEcho(new ConnectionRecorder(JavaConnection.create(eventLoop, true, pool)));
+	}
+
+	private void checkLargeEcho(final ConnectionRecorder recorder) throws InterruptedException {
+		recorder.connection.connect(getServerAddress());
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return !recorder.connectFinished.isEmpty();
+			}
+		});
+		final byte[] data = new byte[300 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		recorder.connection.write(new SafeByteArray(data));
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return recorder.received.getSize() >= data.length;
+			}
+		});
+		assertEquals(new ByteArray(data), recorder.received);
+		recorder.connection.disconnect();
+	}
+
+	@Test
+	public void testLargeEcho_ThreadPerConnection() throws InterruptedException {
+		checkLargeEcho(new ConnectionRecorder(JavaConnection.create(eventLoop)));
+	}
+
+	@Test
+	public void testLargeEcho_Pooled() throws InterruptedException {
+		checkLargeEcho(new ConnectionRecorder(JavaConnection.create(eventLoop, false, pool)));
+	}
+
+	@Test
+	public void testWriteWatermarks() throws InterruptedException {
+		final ConnectionRecorder recorder = new ConnectionRecorder(JavaConnection.create(eventLoop, false, pool));
+		final int[] full = new int[1];
+		final int[] writable = new int[1];
+		recorder.connection.onWriteQueueFull.connect(new Slot() {
+			public void call() {
+				full[0]++;
+			}
+		});
+		recorder.connection.onWritable.connect(new Slot() {
+			public void call() {
+				writable[0]++;
+			}
+		});
+		recorder.connection.setWriteWatermarks(100, 1000);
+		recorder.connection.connect(getServerAddress());
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return !recorder.connectFinished.isEmpty();
+			}
+		});
+
+		recorder.connection.write(new SafeByteArray(new byte[999]));
+		assertEquals(0, full[0]);
+		recorder.connection.write(new SafeByteArray(new byte[1000]));
+		assertEquals(1, full[0]);
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return writable[0] > 0;
+			}
+		});
+		assertEquals(1, writable[0]);
+		assertFalse(recorder.connection.isWriteQueueFull());
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return recorder.connection.getQueuedBytes() == 0;
+			}
+		});
+		assertEquals(0, recorder.connection.getQueuedBytes());
+		recorder.connection.disconnect();
+	}
+
+	private void checkWriteAfterDisconnectIsNotCounted(final ConnectionRecorder recorder) throws InterruptedException {
+		checkEcho(recorder);
+
+		recorder.connection.write(new SafeByteArray(new byte[1000]));
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return recorder.connection.getQueuedBytes() == 0;
+			}
+		});
+
+		assertEquals(0, recorder.connection.getQueuedBytes());
+		assertFalse(recorder.connection.isWriteQueueFull());
+	}
+
+	@Test
+	public void testWriteAfterDisconnectIsNotCounted_ThreadPerConnection() throws InterruptedException {
+		checkWriteAfterDisconnectIsNotCounted(new ConnectionRecorder(JavaConnection.create(eventLoop)));
+	}
+
+	@Test
+	public void testWriteAfterDisconnectIsNotCounted_Pooled() throws InterruptedException {
+		checkWriteAfterDisconnectIsNotCounted(new ConnectionRecorder(JavaConnection.create(eventLoop, false, pool)));
+	}
+
+	@Test
+	public void testManyConnectionsShareThePool() throws InterruptedException {
+		JavaConnectionFactory factory = new JavaConnectionFactory(eventLoop, pool);
+		Map<JavaSelectorPool.SelectorThread, Integer> connectionsPerThread = new HashMap<JavaSelectorPool.SelectorThread, Integer>();
+		for (int i = 0; i < 20; i++) {
+			JavaConnection connection = (JavaConnection) factory.createConnection();
+			checkEcho(new ConnectionRecorder(connection));
+			JavaSelectorPool.SelectorThread thread = connection.getSelectorThread();
+			assertNotNull(thread);
+			Integer count = connectionsPerThread.get(thread);
+			connectionsPerThread.put(thread, count == null ? 1 : count + 1);
+		}
+
+		assertEquals(2, connectionsPerThread.size());
+		for (Integer count : connectionsPerThread.values()) {
+			assertEquals(10, count.intValue());
+		}
+	}
+
+	@Test
+	public void testSlowCallbackDoesNotBlockOtherPooledConnections() throws InterruptedException {
+		JavaSelectorPool singleThreadPool = new JavaSelectorPool(1);
+		try {
+			// The slow connection's events are handled by a thread of its own,
+			// where its read callback blocks until the end of the test
+			final DummyEventLoop slowEventLoop = new DummyEventLoop();
+			final CountDownLatch slowReadStarted = new CountDownLatch(1);
+			final CountDownLatch releaseSlowRead = new CountDownLatch(1);
+			JavaConnection slowConnection = JavaConnection.create(slowEventLoop, false, singleThreadPool);
+			slowConnection.onDataRead.connect(new Slot1<SafeByteArray>() {
+				public void call(SafeByteArray data) {
+					slowReadStarted.countDown();
+					try {
+						releaseSlowRead.await();
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+			Thread slowThread = new Thread(new Runnable() {
+				public void run() {
+					while (releaseSlowRead.getCount() > 0) {
+						slowEventLoop.processEvents();
+						try {
+							Thread.sleep(5);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			});
+			slowThread.setDaemon(true);
+			slowThread.start();
+			slowConnection.connect(getServerAddress());
+
+			final ConnectionRecorder recorder = new ConnectionRecorder(JavaConnection.create(eventLoop, false, singleThreadPool));
+			recorder.connection.connect(getServerAddress());
+			assertEquals(slowConnection.getSelectorThread(), ((JavaConnection) recorder.connection).getSelectorThread());
+			processEventsUntil(new Condition() {
+				public boolean isTrue() {
+					return !recorder.connectFinished.isEmpty();
+				}
+			});
+
+			slowConnection.write(new SafeByteArray("<slow/>"));
+			assertTrue(slowReadStarted.await(5, TimeUnit.SECONDS));
+			recorder.connection.write(new SafeByteArray("<presence/>"));
+			processEventsUntil(new Condition() {
+				public boolean isTrue() {
+					return recorder.received.getSize() >= 11;
+				}
+			});
+
+			assertEquals("<presence/>", recorder.received.toString());
+			assertEquals(1, releaseSlowRead.getCount());
+			releaseSlowRead.countDown();
+			slowThread.join(5000);
+		} finally {
+			singleThreadPool.shutdown();
+		}
+	}
+
+	@Test
+	public void testConnectFailure_Pooled() throws IOException, InterruptedException {
+		ServerSocket closedServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		HostAddressPort address = new HostAddressPort(new HostAddress(closedServer.getInetAddress()), closedServer.getLocalPort());
+		closedServer.close();
+		final ConnectionRecorder recorder = new ConnectionRecorder(JavaConnection.create(eventLoop, false, pool));
+		recorder.connection.connect(address);
+		processEventsUntil(new Condition() {
+			public boolean isTrue() {
+				return !recorder.connectFinished.isEmpty();
+			}
+		});
+		assertEquals(1, recorder.connectFinished.size());
+		assertTrue(recorder.connectFinished.get(0));
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.eventloop.DummyEventLoop;
+import com.isode.stroke.signals.Slot;
+
+public class JavaTimerTest {
+
+	private DummyEventLoop eventLoop;
+	private JavaTimerFactory factory;
+	private int ticks;
+
+	@Before
+	public void setUp() {
+		eventLoop = new DummyEventLoop();
+		factory = new JavaTimerFactory(eventLoop);
+		ticks = 0;
+	}
+
+	private Timer createTimer(long milliseconds) {
+		Timer timer = factory.createTimer(milliseconds);
+		timer.onTick.connect(new Slot() {
+			public void call() {
+				ticks++;
+			}
+		});
+		return timer;
+	}
+
+	private void processEventsFor(long milliseconds) throws InterruptedException {
+		long end = System.currentTimeMillis() + milliseconds;
+		while (System.currentTimeMillis() < end) {
+			eventLoop.processEvents();
+			Thread.sleep(5);
+		}
+		eventLoop.processEvents();
+	}
+
+	@Test
+	public void testTick() throws InterruptedException {
+		Timer timer = createTimer(10);
+		timer.start();
+		processEventsFor(200);
+		assertEquals(1, ticks);
+	}
+
+	@Test
+	public void testStopBeforeExpiry() throws InterruptedException {
+		Timer timer = createTimer(100);
+		timer.start();
+		timer.stop();
+		processEventsFor(200);
+		assertEquals(0, ticks);
+	}
+
+	@Test
+	public void testStopAfterTickPosted() throws InterruptedException {
+		Timer timer = createTimer(10);
+		timer.start();
+		Thread.sleep(100);
+		// The tick is queued in the event loop, but not yet handled
+		timer.stop();
+		processEventsFor(50);
+		assertEquals(0, ticks);
+	}
+
+	@Test
+	public void testRestartAfterTickPosted() throws InterruptedException {
+		Timer timer = createTimer(100);
+		timer.start();
+		Thread.sleep(150);
+		timer.start();
+		eventLoop.processEvents();
+		assertEquals(0, ticks);
+		processEventsFor(300);
+		assertEquals(1, ticks);
+	}
+
+	@Test
+	public void testManyTimersShareTheScheduler() throws InterruptedException {
+		int threads = Thread.activeCount();
+		for (int i = 0; i < 100; i++) {
+			createTimer(10).start();
+		}
+		assertTrue(Thread.activeCount() < threads + 10);
+		processEventsFor(200);
+		assertEquals(100, ticks);
+	}
+}
@@ -88,4 +88,23 @@ public class AttributeMapTest {
 
 		assertFalse(testling.getBoolAttribute("foo", false));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testIndexedAccess_GrowsInOrder() {
+		AttributeMap testling = new AttributeMap(1);
+		for (int i = 0; i < 10; i++) {
+			testling.addAttribute("a" + i, i % 2 == 0 ? "" : "urn:ns", "v" + i);
+		}
+
+		assertEquals(10, testling.getSize());
+		assertEquals(10, testling.getEntries().size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("a" + i, testling.getName(i));
+			assertEquals(i % 2 == 0 ? "" : "urn:ns", testling.getNamespace(i));
+			assertEquals("v" + i, testling.getValue(i));
+		}
+		assertEquals("v8", testling.getAttribute("a8"));
+		assertEquals("v9", testling.getAttribute("a9", "urn:ns"));
+		assertEquals("", testling.getAttribute("a9"));
+	}
+}
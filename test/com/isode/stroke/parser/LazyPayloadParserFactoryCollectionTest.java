@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.elements.Body;
+import com.isode.stroke.elements.DiscoInfo;
+import com.isode.stroke.elements.LazyPayload;
+import com.isode.stroke.elements.Message;
+import com.isode.stroke.elements.VCard;
+import com.isode.stroke.parser.payloadparsers.FullPayloadParserFactoryCollection;
+import com.isode.stroke.serializer.payloadserializers.FullPayloadSerializerCollection;
+import com.isode.stroke.serializer.MessageSerializer;
+
+public class LazyPayloadParserFactoryCollectionTest {
+
+	private LazyPayloadParserFactoryCollection factories;
+	private MessageParser testling;
+
+	@Before
+	public void setUp() {
+		factories = new LazyPayloadParserFactoryCollection(new FullPayloadParserFactoryCollection());
+		factories.addEagerPayload("body", "jabber:client");
+		testling = new MessageParser(factories);
+		StanzaParserTester<MessageParser> parser = new StanzaParserTester<MessageParser>(testling);
+		assertTrue(parser.parse(
+				"<message xmlns=\"jabber:client\" type=\"chat\">"
+					+ "<body>Hello</body>"
+					+ "<vCard xmlns=\"vcard-temp\"><NICKNAME>mynick</NICKNAME></vCard>"
+				+ "</message>"));
+	}
+
+	@Test
+	public void testEagerPayloadIsParsed() {
+		Message message = testling.getStanzaGeneric();
+
+		assertTrue(message.getPayloads().get(0) instanceof Body);
+		assertTrue(message.getPayloads().get(1) instanceof LazyPayload);
+		assertEquals("Hello", message.getBody());
+		// Asking for the body doesn't parse the vCard
+		assertTrue(message.getPayloads().get(1) instanceof LazyPayload);
+	}
+
+	@Test
+	public void testLazyPayloadIsParsedWhenAskedFor() {
+		Message message = testling.getStanzaGeneric();
+
+		VCard vcard = message.getPayload(new VCard());
+		assertNotNull(vcard);
+		assertEquals("mynick", vcard.getNickname());
+		assertTrue(message.getPayloads().get(1) instanceof VCard);
+	}
+
+	@Test
+	public void testLazyPayloadIsSerializedWithoutParsing() {
+		Message message = testling.getStanzaGeneric();
+
+		String serialized = new MessageSerializer(new FullPayloadSerializerCollection()).serialize(message).toString();
+		assertTrue(serialized.contains("<vCard xmlns=\"vcard-temp\">"));
+		assertTrue(serialized.contains(">mynick</NICKNAME>"));
+		assertTrue(message.getPayloads().get(1) instanceof LazyPayload);
+	}
+
+	@Test
+	public void testLazyPayloadKeepsNamespaces() {
+		testling = new MessageParser(factories);
+		StanzaParserTester<MessageParser> parser = new StanzaParserTester<MessageParser>(testling);
+		assertTrue(parser.parse(
+				"<message xmlns=\"jabber:client\">"
+					+ "<query xmlns=\"http://jabber.org/protocol/disco#info\" xmlns:foo=\"urn:foo\" foo:bar=\"baz\">"
+						+ "<identity category=\"client\" type=\"pc\" name=\"Stroke\" xml:lang=\"en\"/>"
+						+ "<feature var=\"urn:xmpp:ping\"/>"
+					+ "</query>"
+				+ "</message>"));
+		Message message = testling.getStanzaGeneric();
+		String rawXML = ((LazyPayload) message.getPayloads().get(0)).getRawXML();
+
+		// Children in the same namespace don't repeat it
+		assertEquals(rawXML.indexOf("xmlns=\""), rawXML.lastIndexOf("xmlns=\""));
+		final List<String> attributes = new ArrayList<String>();
+		XMLParser xmlParser = PlatformXMLParserFactory.createXMLParser(new XMLParserClient() {
+			public void handleStartElement(String element, String ns, AttributeMap attributeMap) {
+				for (int i = 0; i < attributeMap.getSize(); i++) {
+					attributes.add(element + " {" + attributeMap.getNamespace(i) + "}" + attributeMap.getName(i) + "=" + attributeMap.getValue(i));
+				}
+			}
+
+			public void handleEndElement(String element, String ns) {
+			}
+
+			public void handleCharacterData(String data) {
+			}
+		});
+		assertTrue(xmlParser.parse(rawXML));
+		assertTrue(attributes.contains("query {urn:foo}bar=baz"));
+		assertTrue(attributes.contains("identity {http://www.w3.org/XML/1998/namespace}lang=en"));
+		assertFalse(attributes.contains("identity {}lang=en"));
+
+		DiscoInfo discoInfo = message.getPayload(new DiscoInfo());
+		assertNotNull(discoInfo);
+		assertEquals("en", discoInfo.getIdentities().get(0).getLanguage());
+		assertTrue(discoInfo.hasFeature("urn:xmpp:ping"));
+	}
+}
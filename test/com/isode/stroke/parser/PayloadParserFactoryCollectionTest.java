@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.parser;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.parser.payloadparsers.BodyParser;
+
+public class PayloadParserFactoryCollectionTest {
+
+	private PayloadParserFactoryCollection testling;
+
+	private static class PredicateFactory implements PayloadParserFactory {
+		private final String element;
+
+		PredicateFactory(String element) {
+			this.element = element;
+		}
+
+		public boolean canParse(String element, String ns, AttributeMap attributes) {
+			return this.element.equals(element);
+		}
+
+		public PayloadParser createPayloadParser() {
+			return new BodyParser();
+		}
+	}
+
+	private PayloadParserFactory generic(String tag, String xmlns) {
+		return new GenericPayloadParserFactory<BodyParser>(tag, xmlns, BodyParser.class);
+	}
+
+	private PayloadParserFactory lookup(String element, String ns) {
+		return testling.getPayloadParserFactory(element, ns, new AttributeMap());
+	}
+
+	@Before
+	public void setUp() {
+		testling = new PayloadParserFactoryCollection();
+	}
+
+	@Test
+	public void testExactMatch() {
+		PayloadParserFactory query = generic("query", "jabber:iq:version");
+		PayloadParserFactory other = generic("query", "jabber:iq:last");
+		testling.addFactory(other);
+		testling.addFactory(query);
+
+		assertSame(query, lookup("query", "jabber:iq:version"));
+		assertSame(other, lookup("query", "jabber:iq:last"));
+		assertNull(lookup("query", "jabber:iq:roster"));
+	}
+
+	@Test
+	public void testWildcards() {
+		PayloadParserFactory anyElement = generic("", "http://jabber.org/protocol/ibb");
+		PayloadParserFactory anyNS = generic("body", "");
+		testling.addFactory(anyElement);
+		testling.addFactory(anyNS);
+
+		assertSame(anyElement, lookup("open", "http://jabber.org/protocol/ibb"));
+		assertSame(anyNS, lookup("body", "jabber:client"));
+	}
+
+	@Test
+	public void testFirstAddedWins() {
+		PayloadParserFactory anyNS = generic("body", "");
+		PayloadParserFactory exact = generic("body", "jabber:client");
+		PayloadParserFactory predicate = new PredicateFactory("body");
+		testling.addFactory(anyNS);
+		testling.addFactory(exact);
+		testling.addFactory(predicate);
+
+		assertSame(anyNS, lookup("body", "jabber:client"));
+
+		testling.removeFactory(anyNS);
+		assertSame(exact, lookup("body", "jabber:client"));
+		assertSame(predicate, lookup("body", "urn:other"));
+	}
+
+	@Test
+	public void testPredicateAddedFirstWins() {
+		PayloadParserFactory predicate = new PredicateFactory("body");
+		PayloadParserFactory exact = generic("body", "jabber:client");
+		testling.addFactory(predicate);
+		testling.addFactory(exact);
+
+		assertSame(predicate, lookup("body", "jabber:client"));
+	}
+
+	@Test
+	public void testOverriddenCanParseIsAsked() {
+		PayloadParserFactory restricted = new GenericPayloadParserFactory<BodyParser>("body", BodyParser.class) {
+			@Override
+			public boolean canParse(String element, String ns, AttributeMap attributes) {
+				return super.canParse(element, ns, attributes) && "jabber:client".equals(ns);
+			}
+		};
+		testling.addFactory(restricted);
+
+		assertSame(restricted, lookup("body", "jabber:client"));
+		assertNull(lookup("body", "urn:other"));
+	}
+
+	@Test
+	public void testDefaultFactory() {
+		PayloadParserFactory defaultFactory = new PredicateFactory("never");
+		testling.setDefaultFactory(defaultFactory);
+		testling.addFactory(generic("body", ""));
+
+		assertSame(defaultFactory, lookup("subject", ""));
+	}
+
+	@Test
+	public void testCreatorIsUsed() {
+		final BodyParser parser = new BodyParser();
+		testling.addFactory(new GenericPayloadParserFactory<BodyParser>("body", new GenericPayloadParserFactory.Creator<BodyParser>() {
+			public BodyParser create() {
+				return parser;
+			}
+		}));
+
+		assertSame(parser, lookup("body", "jabber:client").createPayloadParser());
+	}
+}
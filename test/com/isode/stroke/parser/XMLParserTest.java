@@ -219,6 +219,27 @@ public class XMLParserTest {
         assertEquals("iq", client_.events.get(1).data);
     }
 
+    @Test
+    public void testParse_BytesSplitWithinCharacter() throws Exception {
+        XMLParser testling = parser();
+
+        byte[] data = "<body>\u00DF\u0410</body>".getBytes("UTF-8");
+        // Split the input in the middle of the two byte encoding of \u00DF
+        assertTrue(testling.parse(data, 0, 7));
+        assertTrue(testling.parse(data, 7, data.length - 7));
+        join(testling);
+
+        assertEquals(Client.Type.StartElement, client_.events.get(0).type);
+        assertEquals("body", client_.events.get(0).data);
+        String characterData = "";
+        for (int i = 1; i < client_.events.size() - 1; i++) {
+            assertEquals(Client.Type.CharacterData, client_.events.get(i).type);
+            characterData += client_.events.get(i).data;
+        }
+        assertEquals("\u00DF\u0410", characterData);
+        assertEquals(Client.Type.EndElement, client_.events.get(client_.events.size() - 1).type);
+    }
+
     @Test
     public void testParse_IncrementalWithCloses() {
         XMLParser testling = parser();
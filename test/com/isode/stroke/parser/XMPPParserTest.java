@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Vector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.elements.Body;
+import com.isode.stroke.elements.Element;
+import com.isode.stroke.elements.Message;
+import com.isode.stroke.elements.ProtocolHeader;
+import com.isode.stroke.elements.VCard;
+import com.isode.stroke.parser.payloadparsers.FullPayloadParserFactoryCollection;
+
+public class XMPPParserTest {
+
+	private static final String STREAM_START =
+			"<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>";
+
+	private static class Client implements XMPPParserClient {
+		final Vector<Element> elements = new Vector<Element>();
+
+		public void handleStreamStart(ProtocolHeader header) {
+		}
+
+		public void handleElement(Element element) {
+			elements.add(element);
+		}
+
+		public void handleStreamEnd() {
+		}
+	}
+
+	private Client client;
+	private XMPPParser testling;
+	private XMPPParserLimits limits;
+
+	@Before
+	public void setUp() {
+		client = new Client();
+		testling = new XMPPParser(client, new FullPayloadParserFactoryCollection());
+		limits = new XMPPParserLimits();
+		testling.setLimits(limits);
+		assertTrue(testling.parse(STREAM_START));
+	}
+
+	@Test
+	public void testParse_NoLimits() {
+		assertTrue(testling.parse("<message><body>" + new String(new char[10000]).replace('\0', 'a') + "</body></message>"));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxStanzaBytes() {
+		limits.maxStanzaBytes = 100;
+		assertTrue(testling.parse("<message><body>"));
+		assertTrue(testling.parse("Hello</body></message>"));
+		assertEquals(1, client.elements.size());
+
+		assertTrue(testling.parse("<message><body>"));
+		assertFalse(testling.parse(new String(new char[200]).replace('\0', 'a')));
+		assertFalse(testling.parse("</body></message>"));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxStanzaBytes_SingleRead() {
+		limits.maxStanzaBytes = 100;
+		assertTrue(testling.parse("<message><body>Hello</body></message>"));
+
+		assertFalse(testling.parse(
+				"<message><body>" + new String(new char[100000]).replace('\0', 'a') + "</body></message>"
+				+ "<message><body>Hello</body></message>"));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxStanzaBytes_SeveralStanzasInOneRead() {
+		limits.maxStanzaBytes = 100;
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			data.append("<message><body>Hello</body></message>");
+		}
+
+		assertTrue(testling.parse(data.toString()));
+		assertEquals(10, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxStanzaBytes_LargeStartTag() {
+		limits.maxStanzaBytes = 100;
+		assertFalse(testling.parse("<message id='" + new String(new char[200]).replace('\0', 'a')));
+		assertEquals(0, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxDepth() {
+		limits.maxDepth = 2;
+		assertTrue(testling.parse("<message><body>Hello</body></message>"));
+		assertFalse(testling.parse("<message><x xmlns='urn:test'><y/></x></message>"));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxAttributes() {
+		limits.maxAttributes = 2;
+		assertTrue(testling.parse("<message to='a@b' type='chat'/>"));
+		assertFalse(testling.parse("<message to='a@b' type='chat' id='1'/>"));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxCharacterData() {
+		limits.maxCharacterData = 10;
+		assertTrue(testling.parse("<message><body>Hello</body></message>"));
+		assertFalse(testling.parse("<message><body>Hello, world</body></message>"));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxCharacterData_MixedContent() {
+		limits.maxCharacterData = 10;
+		assertTrue(testling.parse("<message><body>Hello<x/>Hello</body></message>"));
+		assertFalse(testling.parse("<message><body>Hello<x/>Hello<x/>Hello</body></message>"));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_MaxCharacterData_CountedPerElement() {
+		limits.maxCharacterData = 10;
+		assertTrue(testling.parse("<message>Hello<body>Hello, wor</body>Hello</message>"));
+		assertTrue(testling.parse("  \n  \n  \n  \n  \n  "));
+		assertEquals(1, client.elements.size());
+	}
+
+	@Test
+	public void testParse_DroppedPayloadNamespace() {
+		limits.droppedPayloadNamespaces.add("vcard-temp");
+		assertTrue(testling.parse(
+				"<message><body>Hello</body>"
+				+ "<vCard xmlns='vcard-temp'><NICKNAME>nick</NICKNAME><body>x</body></vCard>"
+				+ "</message>"));
+
+		assertEquals(1, client.elements.size());
+		Message message = (Message) client.elements.get(0);
+		assertEquals(1, message.getPayloads().size());
+		assertNotNull(message.getPayload(new Body()));
+		assertEquals("Hello", message.getBody());
+		assertNull(message.getPayload(new VCard()));
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.serializer;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.elements.Body;
+import com.isode.stroke.elements.Payload;
+import com.isode.stroke.elements.Subject;
+
+public class PayloadSerializerCollectionTest {
+
+	private static class TestSerializer<T extends Payload> extends GenericPayloadSerializer<T> {
+		TestSerializer(Class<T> c) {
+			super(c);
+		}
+
+		@Override
+		protected String serializePayload(T payload) {
+			return "";
+		}
+	}
+
+	private PayloadSerializerCollection testling;
+	private PayloadSerializer bodySerializer;
+
+	@Before
+	public void setUp() {
+		testling = new PayloadSerializerCollection();
+		bodySerializer = new TestSerializer<Body>(Body.class);
+		testling.addSerializer(bodySerializer);
+	}
+
+	@Test
+	public void testGetPayloadSerializer() {
+		assertSame(bodySerializer, testling.getPayloadSerializer(new Body()));
+		assertSame(bodySerializer, testling.getPayloadSerializer(new Body()));
+		assertNull(testling.getPayloadSerializer(new Subject()));
+		assertNull(testling.getPayloadSerializer(new Subject()));
+	}
+
+	@Test
+	public void testGetPayloadSerializer_AfterAdd() {
+		assertNull(testling.getPayloadSerializer(new Subject()));
+
+		PayloadSerializer subjectSerializer = new TestSerializer<Subject>(Subject.class);
+		testling.addSerializer(subjectSerializer);
+
+		assertSame(subjectSerializer, testling.getPayloadSerializer(new Subject()));
+	}
+
+	@Test
+	public void testGetPayloadSerializer_AfterRemove() {
+		assertSame(bodySerializer, testling.getPayloadSerializer(new Body()));
+
+		testling.removeSerializer(bodySerializer);
+
+		assertNull(testling.getPayloadSerializer(new Body()));
+	}
+
+	@Test
+	public void testGetPayloadSerializer_EarlierSerializerDecidingByPayload() {
+		PayloadSerializerCollection collection = new PayloadSerializerCollection();
+		PayloadSerializer emptyBodySerializer = new TestSerializer<Body>(Body.class) {
+			@Override
+			public boolean canSerialize(Payload payload) {
+				return super.canSerialize(payload) && ((Body) payload).getText().isEmpty();
+			}
+		};
+		collection.addSerializer(emptyBodySerializer);
+		collection.addSerializer(bodySerializer);
+
+		assertSame(bodySerializer, collection.getPayloadSerializer(new Body("Hello")));
+		assertSame(emptyBodySerializer, collection.getPayloadSerializer(new Body("")));
+		assertSame(bodySerializer, collection.getPayloadSerializer(new Body("Hello")));
+	}
+}
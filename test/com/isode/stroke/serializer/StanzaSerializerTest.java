@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016, Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.serializer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.elements.Body;
+import com.isode.stroke.elements.Element;
+import com.isode.stroke.elements.Message;
+import com.isode.stroke.jid.JID;
+import com.isode.stroke.serializer.payloadserializers.FullPayloadSerializerCollection;
+import com.isode.stroke.serializer.xml.XMLElement;
+
+public class StanzaSerializerTest {
+
+    private final PayloadSerializerCollection payloadSerializers =
+            new FullPayloadSerializerCollection();
+
+    /**
+     * A serializer which only sets its attributes on an XMLElement, as
+     * serializers written before XMLWriter was used do.
+     */
+    private static class XMLElementMessageSerializer extends StanzaSerializer {
+        XMLElementMessageSerializer(PayloadSerializerCollection payloadSerializers) {
+            super("message", payloadSerializers);
+        }
+
+        public boolean canSerialize(Element element) {
+            return element instanceof Message;
+        }
+
+        public void setStanzaSpecificAttributes(Element element, XMLElement xmlElement) {
+            xmlElement.setAttribute("type", "chat");
+        }
+    }
+
+    @Test
+    public void testSerialize_XMLElementFallback() {
+        XMLElementMessageSerializer testling = new XMLElementMessageSerializer(payloadSerializers);
+
+        assertEquals(
+                "<message from=\"a@b/c\" id=\"id1\" to=\"d@e\" type=\"chat\" xmlns=\"jabber:client\">"
+                + "<body>Hello</body></message>",
+                testling.serialize(createMessage(), "jabber:client").toString());
+    }
+
+    @Test
+    public void testSerialize_XMLWriterMatchesXMLElementFallback() {
+        SafeByteArray expected = new XMLElementMessageSerializer(payloadSerializers).serialize(createMessage(), "jabber:client");
+
+        SafeByteArray result = new MessageSerializer(payloadSerializers).serialize(createMessage(), "jabber:client");
+
+        assertEquals(expected, result);
+    }
+
+    private static Message createMessage() {
+        Message message = new Message();
+        message.setFrom(new JID("a@b/c"));
+        message.setTo(new JID("d@e"));
+        message.setID("id1");
+        message.setType(Message.Type.Chat);
+        message.addPayload(new Body("Hello"));
+        return message;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.serializer.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class XMLEscaperTest {
+
+    @Test
+    public void testEscapeText() {
+        assertEquals("Bli&amp;&lt;/stream&gt;'\"", XMLEscaper.escapeText("Bli&</stream>'\""));
+    }
+
+    @Test
+    public void testEscapeAttribute() {
+        assertEquals("&lt;&quot;&apos;&amp;&gt;", XMLEscaper.escapeAttribute("<\"'&>"));
+    }
+
+    @Test
+    public void testEscape_PlainTextAroundSpecialCharacters() {
+        assertEquals("a&amp;b&amp;&amp;c", XMLEscaper.escapeText("a&b&&c"));
+    }
+
+    @Test
+    public void testEscape_NothingToEscapeReturnsSameString() {
+        String text = "romeo@montague.lit/orchard café";
+        assertSame(text, XMLEscaper.escapeText(text));
+        assertSame(text, XMLEscaper.escapeAttribute(text));
+        assertSame("", XMLEscaper.escapeText(""));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 Isode Limited, London, England.
+ * All rights reserved.
+ */
+package com.isode.stroke.serializer.xml;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.isode.stroke.elements.Body;
+import com.isode.stroke.elements.ChatState;
+import com.isode.stroke.elements.DeliveryReceiptRequest;
+import com.isode.stroke.elements.Message;
+import com.isode.stroke.jid.JID;
+import com.isode.stroke.serializer.MessageSerializer;
+import com.isode.stroke.serializer.payloadserializers.FullPayloadSerializerCollection;
+
+public class XMLWriterTest {
+
+    @Test
+    public void testWrite() {
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo", "http://example.com");
+        testling.startElement("bar").text("Blo").endElement();
+        testling.startElement("baz").text("Bli&</stream>").endElement();
+        testling.endElement();
+
+        assertEquals(
+                "<foo xmlns=\"http://example.com\">"
+                + "<bar>Blo</bar>"
+                + "<baz>Bli&amp;&lt;/stream&gt;</baz>"
+                + "</foo>", testling.toString());
+    }
+
+    @Test
+    public void testWrite_NoChildren() {
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo", "http://example.com").endElement();
+
+        assertEquals("<foo xmlns=\"http://example.com\"/>", testling.toString());
+    }
+
+    @Test
+    public void testWrite_SpecialAttributeCharacters() {
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo").attribute("myatt", "<\"'&>").endElement();
+
+        assertEquals("<foo myatt=\"&lt;&quot;&apos;&amp;&gt;\"/>", testling.toString());
+    }
+
+    @Test
+    public void testWrite_EmptyRawTextLeavesElementEmpty() {
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo").raw("").endElement();
+
+        assertEquals("<foo/>", testling.toString());
+    }
+
+    @Test
+    public void testWrite_NonASCII() {
+        String text = "café € 😀";
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo").attribute("a", text).text(text).endElement();
+
+        assertEquals("<foo a=\"" + text + "\">" + text + "</foo>", testling.toString());
+        assertEquals(testling.toString(), testling.toSafeByteArray().toString());
+    }
+
+    @Test
+    public void testReset() {
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo").startElement("bar");
+        testling.reset();
+        testling.startElement("baz").endElement();
+
+        assertEquals("<baz/>", testling.toString());
+    }
+
+    @Test
+    public void testWrite_UnpairedSurrogate() {
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo").text("a\uD800b\uDC00").endElement();
+
+        assertEquals("<foo>a?b?</foo>", testling.toString());
+    }
+
+    @Test
+    public void testReset_AfterLargeOutput() {
+        XMLWriter testling = new XMLWriter();
+        testling.startElement("foo").text(new String(new char[100000]).replace('\0', 'a')).endElement();
+        testling.reset();
+        testling.startElement("baz").endElement();
+
+        assertEquals("<baz/>", testling.toString());
+    }
+
+    @Test
+    public void testStanzaSerializedAsByXMLElement() {
+        Message message = new Message();
+        message.setFrom(new JID("a@b/c"));
+        message.setTo(new JID("d@e"));
+        message.setID("id'1");
+        message.setType(Message.Type.Chat);
+        message.addPayload(new Body("Hi & <bye>"));
+        message.addPayload(new ChatState(ChatState.ChatStateType.Composing));
+        message.addPayload(new DeliveryReceiptRequest());
+
+        assertEquals(
+                "<message from=\"a@b/c\" id=\"id&apos;1\" to=\"d@e\" type=\"chat\" xmlns=\"jabber:client\">"
+                + "<body>Hi &amp; &lt;bye&gt;</body>"
+                + "<composing xmlns=\"http://jabber.org/protocol/chatstates\"/>"
+                + "<request xmlns=\"urn:xmpp:receipts\"/>"
+                + "</message>",
+                new MessageSerializer(new FullPayloadSerializerCollection()).serialize(message, "jabber:client").toString());
+    }
+}
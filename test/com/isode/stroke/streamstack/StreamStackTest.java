@@ -28,6 +28,8 @@ import com.isode.stroke.parser.payloadparsers.FullPayloadParserFactoryCollection
 import com.isode.stroke.serializer.payloadserializers.FullPayloadSerializerCollection;
 import com.isode.stroke.elements.Element;
 import com.isode.stroke.elements.StreamType;
+import com.isode.stroke.eventloop.DummyEventLoop;
+import com.isode.stroke.eventloop.Event;
 import com.isode.stroke.signals.Slot1;
 import java.util.Vector;
 
@@ -216,4 +218,62 @@ public class StreamStackTest {
 
 		assertEquals(1, dataWriteReceived_);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testWriteData_Corked() {
+		StreamStack testling = new StreamStack(xmppStream_, physicalStream_);
+		MyStreamLayer xStream = new MyStreamLayer("X");
+		testling.addLayer(xStream);
+
+		testling.cork();
+		xmppStream_.writeData("foo");
+		xmppStream_.writeData("bar");
+		assertEquals(0, physicalStream_.data_.size());
+		testling.uncork();
+
+		assertEquals(1, physicalStream_.data_.size());
+		assertEquals(new SafeByteArray("Xfoobar"), physicalStream_.data_.get(0));
+	}
+
+	@Test
+	public void testWriteData_CorkedBeforeAddLayer() {
+		StreamStack testling = new StreamStack(xmppStream_, physicalStream_);
+
+		testling.cork();
+		xmppStream_.writeData("foo");
+		testling.addLayer(new MyStreamLayer("X"));
+		xmppStream_.writeData("bar");
+		testling.uncork();
+
+		assertEquals(2, physicalStream_.data_.size());
+		assertEquals(new SafeByteArray("foo"), physicalStream_.data_.get(0));
+		assertEquals(new SafeByteArray("Xbar"), physicalStream_.data_.get(1));
+	}
+
+	@Test
+	public void testWriteData_AutoCorked() {
+		final StreamStack testling = new StreamStack(xmppStream_, physicalStream_);
+		DummyEventLoop eventLoop = new DummyEventLoop();
+		testling.setAutoCork(eventLoop);
+
+		eventLoop.postEvent(new Event.Callback() {
+			public void run() {
+				xmppStream_.writeData("foo");
+				xmppStream_.writeData("bar");
+				assertEquals(0, physicalStream_.data_.size());
+			}
+		});
+		eventLoop.processEvents();
+		assertEquals(1, physicalStream_.data_.size());
+		assertEquals(new SafeByteArray("foobar"), physicalStream_.data_.get(0));
+
+		eventLoop.postEvent(new Event.Callback() {
+			public void run() {
+				xmppStream_.writeData("baz");
+			}
+		});
+		eventLoop.processEvents();
+		assertEquals(2, physicalStream_.data_.size());
+		assertEquals(new SafeByteArray("baz"), physicalStream_.data_.get(1));
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.streamstack;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import com.isode.stroke.base.ByteArray;
+import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.signals.Slot;
+import com.isode.stroke.tls.TLSOptions;
+import com.isode.stroke.tls.java.JSSEContextFactory;
+
+/**
+ * Measures the throughput of data sent and received through a
+ * {@link TLSLayer}, talking to an in-memory SSLEngine acting as the server.
+ * This isn't a unit test; run it with
+ * {@code java com.isode.stroke.streamstack.TLSLayerBenchmark [megabytes [rounds]]}.
+ * The best of the rounds is reported, as the times vary a lot between them.
+ * Where the JVM can say how much memory the thread has allocated, the bytes
+ * allocated for each byte of data are also reported, which mostly reflects
+ * how many times the data is copied.
+ * <p>
+ * So that no key store is needed, the server is anonymous, which means
+ * re-enabling anonymous cipher suites for this JVM. The server's own
+ * wrapping and unwrapping are included in the times.
+ */
+public class TLSLayerBenchmark {
+
+    private static final String CIPHER_SUITE = "TLS_DH_anon_WITH_AES_128_GCM_SHA256";
+
+    /* Sizes of the writes made, as a mix of stanzas and file transfer blocks */
+    private static final int[] WRITE_SIZES = { 200, 1500, 4096, 65536 };
+
+    public static void main(String[] args) throws SSLException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Security.setProperty("jdk.tls.disabledAlgorithms", "SSLv3, RC4, NULL");
+        JSSEContextFactory.setRestrictedCipherSuites(Collections.singleton(CIPHER_SUITE));
+
+        // Warm up
+        new TLSLayerBenchmark().run(megabytes / 8);
+
+        long bestSent = 0;
+        long bestReceived = 0;
+        TLSLayerBenchmark benchmark = null;
+        for (int i = 0; i < rounds; i++) {
+            benchmark = new TLSLayerBenchmark();
+            benchmark.run(megabytes);
+            bestSent = Math.max(bestSent, benchmark.sentRate_);
+            bestReceived = Math.max(bestReceived, benchmark.receivedRate_);
+        }
+        System.out.println("Sent:     " + bestSent + " MB/s");
+        System.out.println("Received: " + bestReceived + " MB/s");
+        if (benchmark.sentAllocation_ >= 0) {
+            System.out.println("Allocated per byte sent:     " + benchmark.sentAllocation_);
+            System.out.println("Allocated per byte received: " + benchmark.receivedAllocation_);
+        }
+    }
+
+    private TLSLayerBenchmark() throws SSLException {
+        SSLContext serverContext;
+        try {
+            serverContext = SSLContext.getInstance("TLSv1.2");
+            serverContext.init(null, null, null);
+        }
+        catch (Exception e) {
+            throw new SSLException(e);
+        }
+        server_ = serverContext.createSSLEngine();
+        server_.setUseClientMode(false);
+        server_.setEnabledCipherSuites(new String[] { CIPHER_SUITE });
+        server_.setEnabledProtocols(new String[] { "TLSv1.2" });
+        serverReceived_ = ByteBuffer.allocate(server_.getSession().getPacketBufferSize() * 2);
+        serverPlain_ = ByteBuffer.allocate(server_.getSession().getApplicationBufferSize() * 2);
+        serverWrapped_ = ByteBuffer.allocate(server_.getSession().getPacketBufferSize());
+
+        tlsLayer_ = new TLSLayer(new JSSEContextFactory(), new TLSOptions());
+        tlsLayer_.onConnected.connect(new Slot() {
+            public void call() {
+                connected_ = true;
+            }
+        });
+        tlsLayer_.setChildLayer(new ServerLayer());
+        tlsLayer_.setParentLayer(new ApplicationLayer());
+    }
+
+    private void run(int megabytes) throws SSLException {
+        tlsLayer_.connect();
+        for (int i = 0; i < 20 && !connected_; i++) {
+            pump();
+        }
+        if (!connected_) {
+            throw new IllegalStateException("Handshake failed: " + tlsLayer_.getContext());
+        }
+
+        long total = (long) megabytes * 1024 * 1024;
+        List<SafeByteArray> writes = new ArrayList<SafeByteArray>();
+        for (int size : WRITE_SIZES) {
+            writes.add(createWrite(size));
+        }
+
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        long sent = 0;
+        while (sent < total) {
+            for (SafeByteArray write : writes) {
+                tlsLayer_.writeData(write);
+                sent += write.getSize();
+            }
+            pump();
+        }
+        long sendTime = System.nanoTime() - start;
+        sentAllocation_ = getAllocationPerByte(allocated, sent);
+        if (serverReceivedBytes_ != sent) {
+            throw new IllegalStateException("Server received " + serverReceivedBytes_ + " of " + sent);
+        }
+
+        allocated = getAllocatedBytes();
+        start = System.nanoTime();
+        long received = 0;
+        while (received < total) {
+            for (int size : WRITE_SIZES) {
+                serverSend(size);
+                received += size;
+            }
+            pump();
+        }
+        long receiveTime = System.nanoTime() - start;
+        receivedAllocation_ = getAllocationPerByte(allocated, received);
+        if (applicationReceivedBytes_ != received) {
+            throw new IllegalStateException("Application received " + applicationReceivedBytes_ + " of " + received);
+        }
+
+        sentRate_ = megabytesPerSecond(sent, sendTime);
+        receivedRate_ = megabytesPerSecond(received, receiveTime);
+    }
+
+    /**
+     * @return the number of bytes allocated by this thread so far, or -1 if
+     * the JVM can't say
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static double getAllocationPerByte(long allocatedBefore, long bytes) {
+        if (allocatedBefore < 0) {
+            return -1;
+        }
+        return (double) Math.round((getAllocatedBytes() - allocatedBefore) * 100.0 / bytes) / 100;
+    }
+
+    private static long megabytesPerSecond(long bytes, long nanos) {
+        return (bytes * 1000000000L / nanos) / (1024 * 1024);
+    }
+
+    /**
+     * Create data to write made up of several parts, as written by
+     * XMPPLayer when it has corked writes.
+     */
+    private static SafeByteArray createWrite(int size) {
+        SafeByteArray write = new SafeByteArray();
+        int remaining = size;
+        while (remaining > 0) {
+            byte[] part = new byte[Math.min(remaining, 1000)];
+            for (int i = 0; i < part.length; i++) {
+                part[i] = (byte) ('a' + (i % 26));
+            }
+            write.append((ByteArray) new SafeByteArray(part));
+            remaining -= part.length;
+        }
+        return write;
+    }
+
+    /**
+     * Deliver everything the TLSLayer has written to the server, and
+     * everything the server has written to the TLSLayer.
+     */
+    private void pump() throws SSLException {
+        while (!toServer_.isEmpty() || !toClient_.isEmpty()) {
+            List<SafeByteArray> toServer = new ArrayList<SafeByteArray>(toServer_);
+            toServer_.clear();
+            for (SafeByteArray data : toServer) {
+                serverRead(data);
+            }
+            List<SafeByteArray> toClient = new ArrayList<SafeByteArray>(toClient_);
+            toClient_.clear();
+            for (SafeByteArray data : toClient) {
+                tlsLayer_.handleDataRead(data);
+            }
+        }
+    }
+
+    private void serverRead(SafeByteArray data) throws SSLException {
+        if (serverReceived_.remaining() < data.getSize()) {
+            ByteBuffer larger = ByteBuffer.allocate(serverReceived_.position() + data.getSize());
+            serverReceived_.flip();
+            larger.put(serverReceived_);
+            serverReceived_ = larger;
+        }
+        // As if it had been written to and read from a socket
+        for (ByteBuffer part : data.toByteBuffers()) {
+            serverReceived_.put(part);
+        }
+        serverReceived_.flip();
+        SSLEngineResult result;
+        do {
+            result = server_.unwrap(serverReceived_, serverPlain_);
+            serverReceivedBytes_ += serverPlain_.position();
+            serverPlain_.clear();
+            runServerTasks();
+        } while (result.getStatus() == SSLEngineResult.Status.OK && result.bytesConsumed() > 0);
+        serverReceived_.compact();
+        while (server_.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+            serverWrap(ByteBuffer.allocate(0));
+        }
+    }
+
+    private void serverSend(int size) throws SSLException {
+        ByteBuffer plain = ByteBuffer.allocate(size);
+        while (plain.hasRemaining()) {
+            plain.put((byte) 'x');
+        }
+        plain.flip();
+        while (plain.hasRemaining()) {
+            serverWrap(plain);
+        }
+    }
+
+    private void serverWrap(ByteBuffer plain) throws SSLException {
+        serverWrapped_.clear();
+        server_.wrap(plain, serverWrapped_);
+        runServerTasks();
+        serverWrapped_.flip();
+        if (serverWrapped_.hasRemaining()) {
+            toClient_.add(new SafeByteArray().append(serverWrapped_));
+        }
+    }
+
+    private void runServerTasks() {
+        Runnable task;
+        while ((task = server_.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private class ServerLayer implements LowLayer {
+        public void writeData(SafeByteArray data) {
+            toServer_.add(data);
+        }
+
+        public HighLayer getParentLayer() {
+            return tlsLayer_;
+        }
+
+        public void setParentLayer(HighLayer parentLayer) {
+        }
+
+        public void writeDataToParentLayer(SafeByteArray data) {
+        }
+    }
+
+    private class ApplicationLayer implements HighLayer {
+        public void handleDataRead(SafeByteArray data) {
+            applicationReceivedBytes_ += data.getSize();
+        }
+
+        public LowLayer getChildLayer() {
+            return tlsLayer_;
+        }
+
+        public void setChildLayer(LowLayer childLayer) {
+        }
+
+        public void writeDataToChildLayer(SafeByteArray data) {
+        }
+    }
+
+    private final TLSLayer tlsLayer_;
+    private final SSLEngine server_;
+    private ByteBuffer serverReceived_;
+    private final ByteBuffer serverPlain_;
+    private final ByteBuffer serverWrapped_;
+    private final List<SafeByteArray> toServer_ = new ArrayList<SafeByteArray>();
+    private final List<SafeByteArray> toClient_ = new ArrayList<SafeByteArray>();
+    private boolean connected_ = false;
+    private long serverReceivedBytes_ = 0;
+    private long applicationReceivedBytes_ = 0;
+    private long sentRate_ = 0;
+    private long receivedRate_ = 0;
+    private double sentAllocation_ = -1;
+    private double receivedAllocation_ = -1;
+}
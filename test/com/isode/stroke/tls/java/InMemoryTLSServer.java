@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.tls.java;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.stringcodecs.Base64;
+
+/**
+ * The server end of a TLS connection, held in memory, for testing the
+ * client end.
+ */
+class InMemoryTLSServer {
+
+    /* PKCS12 key store with a self-signed EC certificate for "localhost" */
+    private static final String SERVER_KEY_STORE = 
+            "MIID8AIBAzCCA5oGCSqGSIb3DQEHAaCCA4sEggOHMIIDgzCCASoGCSqGSIb3DQEHAaCCARsE"
+            + "ggEXMIIBEzCCAQ8GCyqGSIb3DQEMCgECoIG9MIG6MGYGCSqGSIb3DQEFDTBZMDgGCSqGSIb3"
+            + "DQEFDDArBBQdLnZtpy4apRKNVxxZci8Ssk52AQICJxACASAwDAYIKoZIhvcNAgkFADAdBglg"
+            + "hkgBZQMEASoEEOo7OiS2sEEBn3URgzK/xA8EULZbvH77Y1l4CvKwtx1ERocoAYPF1+9t+Qhq"
+            + "wHdIOR45SVZCj4aS7j2wo6p+I3Qj7rPKeJ4YTdt7Ykk7+4/Yg09gmdPMRCaeowTLF4Az9PXB"
+            + "MUAwGwYJKoZIhvcNAQkUMQ4eDABzAGUAcgB2AGUAcjAhBgkqhkiG9w0BCRUxFAQSVGltZSAx"
+            + "NzkyMjM4OTE1MzIwMIICUQYJKoZIhvcNAQcGoIICQjCCAj4CAQAwggI3BgkqhkiG9w0BBwEw"
+            + "ZgYJKoZIhvcNAQUNMFkwOAYJKoZIhvcNAQUMMCsEFIitPr2+y+YejR3mUOCXtvOC2T0UAgIn"
+            + "EAIBIDAMBggqhkiG9w0CCQUAMB0GCWCGSAFlAwQBKgQQewyWEEeNXiagaNZO6y781YCCAcCA"
+            + "4ADji/XvJDdo1xiHLMbWEmcO3ee3UUHxhKbi8e9EwICZ5b0fqQIchJyu6FtwUDrZXCnq0V//"
+            + "XtrkwUFs4CEq9qp4i8I6AFoh5oBkyN1cMwWtCOrpak4lLu+i4rmb8GxXl1Zb9RafujmVJAsi"
+            + "urAlUxZrdIn49jaqRFR8KYmuEf28RekteVGUCWmozRbZSYPNBPMG1ZkS2db3qK22pCISiA3M"
+            + "NJfd2YZS/uhLw+r6l2igYK47T9mdbPTZjbO0kDW6Ie31G+7dW4WSg2sHZFIpPcncgvmP670Z"
+            + "IwBc8ryZ0pkKG/r5DU0uGvB2/2P7xHhI+pC34RoWXLr+tKUkPezTTBrieR6eysLuZszjfbIe"
+            + "7JxTrloJ2XPx1OVzKs6kNNnOn0gXW6+vKQhKkkRUkzHxk4i7i6V95PVau0cqvAr1X4ITjZQz"
+            + "hnzMn4Ho/rC6G/7Z+/UqTJfDrryym08xfCmcdVncdHDTmtTbzSiAVAEg0aD99qvz6A+y6KPa"
+            + "gQiYhYkSMgfQn45hwyMhpoKUxfH5pIVqCBoWwvzLTV3jjFogSug/zDGcZ8VBkVWdK5+CJXER"
+            + "aEoA6+i9+KbPKSFXp/HSME0wMTANBglghkgBZQMEAgEFAAQgkFyNR/u7j0RdGHLWlh6TvDz2"
+            + "0xw6JKYAYvimJI9Veg8EFAba50jAS6xZ5gK2wY1QZ5oqkYU0AgInEA==";
+    private static final char[] SERVER_KEY_STORE_PASSWORD = "password".toCharArray();
+
+    /**
+     * @return a context for servers with a certificate for "localhost"
+     */
+    static SSLContext createSSLContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(new ByteArrayInputStream(Base64.decode(SERVER_KEY_STORE).getData()), SERVER_KEY_STORE_PASSWORD);
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, SERVER_KEY_STORE_PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLSv1.2");
+        context.init(keyManagerFactory.getKeyManagers(), null, null);
+        return context;
+    }
+
+    InMemoryTLSServer(SSLContext context) {
+        engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        fromClient = ByteBuffer.allocate(engine.getSession().getPacketBufferSize() * 4);
+        plain = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * @return data for the client in response
+     */
+    List<SafeByteArray> handleData(SafeByteArray data) throws Exception {
+        List<SafeByteArray> toClient = new ArrayList<SafeByteArray>();
+        if (fromClient.remaining() < data.getSize()) {
+            ByteBuffer larger = ByteBuffer.allocate(fromClient.position() + data.getSize());
+            fromClient.flip();
+            larger.put(fromClient);
+            fromClient = larger;
+        }
+        fromClient.put(data.getData());
+        fromClient.flip();
+        boolean progress = true;
+        while (progress) {
+            SSLEngineResult result = engine.unwrap(fromClient, plain);
+            progress = (result.getStatus() == SSLEngineResult.Status.OK && result.bytesConsumed() > 0);
+            plain.flip();
+            received.append(plain);
+            plain.clear();
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            while (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                ByteBuffer wrapped = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                engine.wrap(ByteBuffer.allocate(0), wrapped);
+                wrapped.flip();
+                toClient.add(new SafeByteArray().append(wrapped));
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            }
+        }
+        fromClient.compact();
+        return toClient;
+    }
+
+    /**
+     * @return the records holding the given application data, joined
+     * together
+     */
+    SafeByteArray wrap(byte[] data) throws Exception {
+        SafeByteArray records = new SafeByteArray();
+        ByteBuffer plainToSend = ByteBuffer.wrap(data);
+        ByteBuffer wrapped = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        while (plainToSend.hasRemaining()) {
+            engine.wrap(plainToSend, wrapped);
+            wrapped.flip();
+            records.append(wrapped);
+            wrapped.clear();
+        }
+        return records;
+    }
+
+    final SSLEngine engine;
+    private ByteBuffer fromClient;
+    private final ByteBuffer plain;
+    final SafeByteArray received = new SafeByteArray();
+}
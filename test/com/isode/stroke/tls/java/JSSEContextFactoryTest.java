@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.tls.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.eventloop.DummyEventLoop;
+import com.isode.stroke.signals.Slot;
+import com.isode.stroke.signals.Slot1;
+import com.isode.stroke.tls.TLSContext;
+import com.isode.stroke.tls.TLSError;
+import com.isode.stroke.tls.TLSOptions;
+
+public class JSSEContextFactoryTest {
+
+    @Before
+    public void setUp() throws Exception {
+        serverContext = InMemoryTLSServer.createSSLContext();
+        eventLoop = new DummyEventLoop();
+        executor = new QueueingExecutor();
+    }
+
+    @Test
+    public void testSSLContextIsShared() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory();
+
+        assertSame(testling.getSSLContext(null, null), testling.getSSLContext(null, null));
+        assertNotSame(testling.getSSLContext(null, null), new JSSEContextFactory().getSSLContext(null, null));
+    }
+
+    @Test
+    public void testConnectWithPeerAddressStartsHandshake() {
+        JSSEContextFactory testling = new JSSEContextFactory();
+        TLSContext context = testling.createTLSContext(new TLSOptions());
+        final List<SafeByteArray> dataForNetwork = new ArrayList<SafeByteArray>();
+        final List<TLSError> errors = new ArrayList<TLSError>();
+        context.onDataForNetwork.connect(new Slot1<SafeByteArray>() {
+            public void call(SafeByteArray data) {
+                dataForNetwork.add(data);
+            }
+        });
+        context.onError.connect(new Slot1<TLSError>() {
+            public void call(TLSError error) {
+                errors.add(error);
+            }
+        });
+
+        context.connect("example.com", 5222);
+
+        assertTrue(errors.isEmpty());
+        assertEquals(1, dataForNetwork.size());
+        // TLS handshake record
+        assertEquals(0x16, dataForNetwork.get(0).getData()[0]);
+        assertFalse(((JSSEContext) context).isSessionResumed());
+        assertEquals(0, testling.getHandshakeCount());
+        assertEquals(0, testling.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void testHandshake_DelegatedTasksRunInline() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory();
+        Connection connection = new Connection(testling);
+
+        connection.connect();
+
+        assertTrue(connection.connected);
+        assertTrue(connection.errors.isEmpty());
+        assertEquals(1, testling.getHandshakeCount());
+        assertEquals(0, testling.getMaxDelegatedTaskQueueDepth());
+    }
+
+    @Test
+    public void testHandshake_DelegatedTasksRunOnExecutor() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory(eventLoop, executor);
+        Connection connection = new Connection(testling);
+
+        connection.start();
+        connection.exchangeData();
+
+        assertFalse(connection.connected);
+        assertEquals(1, executor.tasks.size());
+        assertEquals(1, testling.getDelegatedTaskQueueDepth());
+
+        connection.connect();
+
+        assertTrue(connection.connected);
+        assertTrue(connection.errors.isEmpty());
+        assertEquals(0, testling.getDelegatedTaskQueueDepth());
+        assertEquals(1, testling.getMaxDelegatedTaskQueueDepth());
+        assertEquals(1, testling.getHandshakeCount());
+    }
+
+    @Test
+    public void testClose_WhileDelegatedTasksRun() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory(eventLoop, executor);
+        Connection connection = new Connection(testling);
+        connection.start();
+        connection.exchangeData();
+        assertEquals(1, executor.tasks.size());
+
+        connection.context.close();
+        executor.runTasks();
+        eventLoop.processEvents();
+
+        assertFalse(connection.connected);
+        assertTrue(connection.toServer.isEmpty());
+        assertEquals(0, testling.getDelegatedTaskQueueDepth());
+    }
+
+    @Test
+    public void testClose_AfterDelegatedTasksFinished() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory(eventLoop, executor);
+        Connection connection = new Connection(testling);
+        connection.start();
+        connection.exchangeData();
+        executor.runTasks();
+        assertTrue(eventLoop.hasEvents());
+
+        connection.context.close();
+        eventLoop.processEvents();
+
+        assertFalse(connection.connected);
+        assertTrue(connection.toServer.isEmpty());
+    }
+
+    @Test
+    public void testHandshake_DataWrittenDuringHandshakeIsSent() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory(eventLoop, executor);
+        Connection connection = new Connection(testling);
+
+        connection.start();
+        connection.context.handleDataFromApplication(new SafeByteArray("<stream:stream>"));
+        connection.connect();
+
+        assertEquals("<stream:stream>", connection.server.received.toString());
+    }
+
+    @Test
+    public void testHandshake_SessionResumed() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory(eventLoop, executor);
+        Connection first = new Connection(testling);
+        first.connect();
+        Connection second = new Connection(testling);
+        second.connect();
+
+        assertFalse(((JSSEContext) first.context).isSessionResumed());
+        assertTrue(((JSSEContext) second.context).isSessionResumed());
+        assertEquals(2, testling.getHandshakeCount());
+        assertEquals(1, testling.getResumedHandshakeCount());
+        assertEquals(
+                first.context.getPeerCertificate().toString(), 
+                second.context.getPeerCertificate().toString());
+        assertEquals(
+                first.context.getPeerCertificateVerificationError().getType(), 
+                second.context.getPeerCertificateVerificationError().getType());
+    }
+
+    @Test
+    public void testHandshake_SessionResumedKeepsVerificationResult() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory(eventLoop, executor);
+        Connection first = new Connection(testling);
+        first.connect();
+        // No check is made when resuming, so the result can only come from the session
+        Connection second = new Connection(testling);
+        second.connect();
+
+        assertTrue(((JSSEContext) second.context).isSessionResumed());
+        // The self-signed certificate was checked, and found not to be trusted
+        assertNotNull(((JSSEContext) first.context).getPeerCertificateException());
+        assertFalse(((JSSEContext) first.context).getPeerCertificateException().getMessage().startsWith("No record"));
+        assertSame(
+                ((JSSEContext) first.context).getPeerCertificateException(),
+                ((JSSEContext) second.context).getPeerCertificateException());
+    }
+
+    @Test
+    public void testHandshake_ManyConcurrentHandshakesKeepTheirResults() throws Exception {
+        JSSEContextFactory testling = new JSSEContextFactory(eventLoop, executor);
+
+        // Each step of every handshake is taken before the next step of any,
+        // so all of the certificates are checked before any handshake finishes
+        List<Connection> connections = new ArrayList<Connection>();
+        for (int i = 0; i < 300; i++) {
+            Connection connection = new Connection(testling);
+            connection.start();
+            connections.add(connection);
+        }
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Connection connection : connections) {
+                progress |= connection.exchangeData();
+            }
+            progress |= !executor.tasks.isEmpty() || eventLoop.hasEvents();
+            executor.runTasks();
+            eventLoop.processEvents();
+        }
+
+        // The self-signed certificate isn't trusted
+        CertificateException expected = ((JSSEContext) connections.get(0).context).getPeerCertificateException();
+        assertNotNull(expected);
+        assertEquals(300, testling.getHandshakeCount());
+        for (Connection connection : connections) {
+            JSSEContext context = (JSSEContext) connection.context;
+            assertTrue(connection.connected);
+            assertFalse(context.isSessionResumed());
+            assertEquals(expected.getClass(), context.getPeerCertificateException().getClass());
+            assertEquals(expected.getMessage(), context.getPeerCertificateException().getMessage());
+        }
+    }
+
+    @Test
+    public void testGetAuthType() {
+        assertEquals("ECDHE_RSA", JavaTrustManager.getAuthType("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"));
+        assertEquals("RSA", JavaTrustManager.getAuthType("SSL_RSA_WITH_3DES_EDE_CBC_SHA"));
+        assertEquals("UNKNOWN", JavaTrustManager.getAuthType("TLS_AES_128_GCM_SHA256"));
+    }
+
+    /**
+     * Holds on to tasks until told to run them.
+     */
+    private static class QueueingExecutor implements Executor {
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runTasks() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+    }
+
+    /**
+     * A context from the factory under test talking to an in-memory server.
+     */
+    private class Connection {
+        Connection(JSSEContextFactory factory) throws Exception {
+            server = new InMemoryTLSServer(serverContext);
+            context = factory.createTLSContext(new TLSOptions());
+            context.onDataForNetwork.connect(new Slot1<SafeByteArray>() {
+                public void call(SafeByteArray data) {
+                    toServer.add(data);
+                }
+            });
+            context.onConnected.connect(new Slot() {
+                public void call() {
+                    connected = true;
+                }
+            });
+            context.onError.connect(new Slot1<TLSError>() {
+                public void call(TLSError error) {
+                    errors.add(error);
+                }
+            });
+        }
+
+        void start() {
+            started = true;
+            context.connect("localhost", 5223);
+        }
+
+        /**
+         * Start the handshake if it hasn't been started, and exchange data
+         * (running any delegated tasks) until there's no more to exchange.
+         */
+        void connect() throws Exception {
+            if (!started) {
+                start();
+            }
+            boolean progress = true;
+            while (progress) {
+                progress = exchangeData();
+                progress |= !executor.tasks.isEmpty() || eventLoop.hasEvents();
+                executor.runTasks();
+                eventLoop.processEvents();
+            }
+        }
+
+        /**
+         * @return whether any data was exchanged
+         */
+        boolean exchangeData() throws Exception {
+            boolean exchanged = false;
+            while (!toServer.isEmpty()) {
+                exchanged = true;
+                for (SafeByteArray data : server.handleData(toServer.remove(0))) {
+                    context.handleDataFromNetwork(data);
+                }
+            }
+            return exchanged;
+        }
+
+        final InMemoryTLSServer server;
+        final TLSContext context;
+        final List<SafeByteArray> toServer = new ArrayList<SafeByteArray>();
+        final List<TLSError> errors = new ArrayList<TLSError>();
+        boolean started = false;
+        boolean connected = false;
+    }
+
+    private SSLContext serverContext;
+    private DummyEventLoop eventLoop;
+    private QueueingExecutor executor;
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016 Isode Limited.
+ * All rights reserved.
+ * See the COPYING file for more information.
+ */
+
+package com.isode.stroke.tls.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.isode.stroke.base.SafeByteArray;
+import com.isode.stroke.signals.Slot;
+import com.isode.stroke.signals.Slot1;
+import com.isode.stroke.tls.TLSError;
+import com.isode.stroke.tls.TLSOptions;
+
+public class JSSEContextTest {
+
+    @Before
+    public void setUp() throws Exception {
+        SSLContext serverContext = InMemoryTLSServer.createSSLContext();
+        server = new InMemoryTLSServer(serverContext);
+        testling = (JSSEContext) new JSSEContextFactory().createTLSContext(new TLSOptions());
+        toServer = new ArrayList<SafeByteArray>();
+        received = new SafeByteArray();
+        errors = new ArrayList<TLSError>();
+        connected = false;
+        testling.onDataForNetwork.connect(new Slot1<SafeByteArray>() {
+            public void call(SafeByteArray data) {
+                toServer.add(data);
+            }
+        });
+        testling.onDataForApplication.connect(new Slot1<SafeByteArray>() {
+            public void call(SafeByteArray data) {
+                received.append(data);
+            }
+        });
+        testling.onConnected.connect(new Slot() {
+            public void call() {
+                connected = true;
+            }
+        });
+        testling.onError.connect(new Slot1<TLSError>() {
+            public void call(TLSError error) {
+                errors.add(error);
+            }
+        });
+    }
+
+    @Test
+    public void testDataWrittenDuringHandshakeIsSent() throws Exception {
+        testling.connect("localhost", 5223);
+        testling.handleDataFromApplication(new SafeByteArray("<stream:stream>"));
+        testling.handleDataFromApplication(new SafeByteArray("<presence/>"));
+        exchangeData(0);
+
+        assertTrue(connected);
+        assertTrue(errors.isEmpty());
+        assertEquals("<stream:stream><presence/>", server.received.toString());
+    }
+
+    @Test
+    public void testDataReceivedWithLastHandshakeRecord() throws Exception {
+        testling.connect("localhost", 5223);
+        boolean dataSent = false;
+        while (!toServer.isEmpty()) {
+            List<SafeByteArray> responses = server.handleData(toServer.remove(0));
+            if (!dataSent && !responses.isEmpty() && server.engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) {
+                /* The server's first data follows its Finished message in the same read */
+                SafeByteArray last = responses.remove(responses.size() - 1);
+                last.append(server.wrap("<stream:features/>".getBytes("UTF-8")));
+                responses.add(last);
+                dataSent = true;
+            }
+            for (SafeByteArray response : responses) {
+                testling.handleDataFromNetwork(response);
+            }
+        }
+
+        assertTrue(dataSent);
+        assertTrue(connected);
+        assertTrue(errors.isEmpty());
+        assertEquals("<stream:features/>", received.toString());
+    }
+
+    @Test
+    public void testDataReceivedOneByteAtATime() throws Exception {
+        testling.connect("localhost", 5223);
+        exchangeData(1);
+        assertTrue(connected);
+
+        sendFromServer(server.wrap("<message><body>Hello</body></message>".getBytes("UTF-8")), 1);
+        testling.handleDataFromApplication(new SafeByteArray("<presence/>"));
+        exchangeData(1);
+
+        assertTrue(errors.isEmpty());
+        assertEquals("<message><body>Hello</body></message>", received.toString());
+        assertEquals("<presence/>", server.received.toString());
+    }
+
+    @Test
+    public void testLargeDataSent() throws Exception {
+        testling.connect("localhost", 5223);
+        exchangeData(0);
+        byte[] data = createData(100 * 1024);
+
+        SafeByteArray parts = new SafeByteArray();
+        for (int i = 0; i < data.length; i += 10 * 1024) {
+            byte[] part = new byte[10 * 1024];
+            System.arraycopy(data, i, part, 0, part.length);
+            parts.append(part);
+        }
+        testling.handleDataFromApplication(parts);
+        exchangeData(0);
+
+        assertTrue(errors.isEmpty());
+        assertArrayEquals(data, server.received.getData());
+    }
+
+    @Test
+    public void testLargeDataReceived() throws Exception {
+        testling.connect("localhost", 5223);
+        exchangeData(0);
+        byte[] data = createData(100 * 1024);
+
+        sendFromServer(server.wrap(data), 0);
+
+        assertTrue(errors.isEmpty());
+        assertArrayEquals(data, received.getData());
+    }
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    /**
+     * Pass everything the client has to send to the server, and the server's
+     * responses back, until there's nothing more to send.
+     * @param fragmentSize the most bytes given to the client at a time, or 0
+     * to give it each response whole
+     */
+    private void exchangeData(int fragmentSize) throws Exception {
+        while (!toServer.isEmpty()) {
+            for (SafeByteArray response : server.handleData(toServer.remove(0))) {
+                sendFromServer(response, fragmentSize);
+            }
+        }
+    }
+
+    private void sendFromServer(SafeByteArray data, int fragmentSize) {
+        if (fragmentSize == 0) {
+            testling.handleDataFromNetwork(data);
+            return;
+        }
+        byte[] bytes = data.getData();
+        for (int i = 0; i < bytes.length; i += fragmentSize) {
+            byte[] fragment = new byte[Math.min(fragmentSize, bytes.length - i)];
+            System.arraycopy(bytes, i, fragment, 0, fragment.length);
+            testling.handleDataFromNetwork(new SafeByteArray(fragment));
+        }
+    }
+
+    private InMemoryTLSServer server;
+    private JSSEContext testling;
+    private List<SafeByteArray> toServer;
+    private SafeByteArray received;
+    private List<TLSError> errors;
+    private boolean connected;
+}